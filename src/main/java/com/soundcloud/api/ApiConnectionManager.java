@@ -0,0 +1,126 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpHost;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.DefaultClientConnectionOperator;
+import org.apache.http.impl.conn.tsccm.AbstractConnPool;
+import org.apache.http.impl.conn.tsccm.ConnPoolByRoute;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection manager used by {@link ApiWrapper}, keeps track of pool statistics and
+ * records pool wait and connect times of the current request.
+ *
+ * @see RequestTimings
+ */
+class ApiConnectionManager extends ThreadSafeClientConnManager {
+
+    public ApiConnectionManager(HttpParams params, SchemeRegistry registry) {
+        super(params, registry);
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ClientConnectionRequest request = super.requestConnection(route, state);
+        final RequestTimings timings = RequestTimings.current();
+        if (timings == null) return request;
+
+        return new ClientConnectionRequest() {
+            @Override
+            public ManagedClientConnection getConnection(long timeout, TimeUnit unit)
+                    throws InterruptedException, ConnectionPoolTimeoutException {
+                final long start = System.nanoTime();
+                try {
+                    return request.getConnection(timeout, unit);
+                } finally {
+                    timings.addPoolWait(System.nanoTime() - start);
+                }
+            }
+
+            @Override
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(SchemeRegistry registry) {
+        // called from the super constructor, fields of this class are not initialised yet
+        return new CountingConnectionOperator(registry);
+    }
+
+    @Override
+    protected AbstractConnPool createConnectionPool(HttpParams params) {
+        // called from the super constructor, fields of this class are not initialised yet
+        return new CountingConnPool(connOperator, params);
+    }
+
+    /**
+     * @return the number of pooled connections which got closed and removed from the pool
+     *         by {@link #closeIdleConnections(long, java.util.concurrent.TimeUnit)} or
+     *         {@link #closeExpiredConnections()}
+     */
+    public long getEvictedConnectionCount() {
+        return ((CountingConnPool) connectionPool).evicted.get();
+    }
+
+    /**
+     * @return the number of connections opened so far
+     */
+    public long getOpenedConnectionCount() {
+        return ((CountingConnectionOperator) connOperator).opened.get();
+    }
+
+    private static class CountingConnectionOperator extends DefaultClientConnectionOperator {
+        final AtomicLong opened = new AtomicLong();
+
+        CountingConnectionOperator(SchemeRegistry registry) {
+            super(registry);
+        }
+
+        @Override
+        public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local,
+                                   HttpContext context, HttpParams params) throws IOException {
+            final long start = System.nanoTime();
+            super.openConnection(conn, target, local, context, params);
+            opened.incrementAndGet();
+
+            final RequestTimings timings = RequestTimings.current();
+            if (timings != null) timings.addConnect(System.nanoTime() - start);
+        }
+    }
+
+    private static class CountingConnPool extends ConnPoolByRoute {
+        final AtomicLong evicted = new AtomicLong();
+
+        CountingConnPool(ClientConnectionOperator operator, HttpParams params) {
+            super(operator, params);
+        }
+
+        @Override
+        public void deleteClosedConnections() {
+            poolLock.lock();
+            try {
+                final int before = numConnections;
+                super.deleteClosedConnections();
+                evicted.addAndGet(before - numConnections);
+            } finally {
+                poolLock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.soundcloud.api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The pending result of an asynchronous API call.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  wrapper.getAsync(Request.to("/me")).addCallback(new ApiFuture.Callback&lt;HttpResponse&gt;() {
+ *      public void onSuccess(HttpResponse response) { ... }
+ *      public void onFailure(Throwable throwable) { ... }
+ *  });
+ *   </pre>
+ *  </code>
+ *
+ * @param <T> the type of the result
+ * @see ApiWrapper#getAsync(Request)
+ */
+public class ApiFuture<T> extends FutureTask<T> {
+    private List<Callback<? super T>> mCallbacks = new ArrayList<Callback<? super T>>();
+
+    public ApiFuture(Callable<T> callable) {
+        super(callable);
+    }
+
+    /**
+     * Registers a callback which gets invoked once the call has completed. If the call has already
+     * completed the callback is invoked immediately in the calling thread, otherwise in the thread
+     * which completed the call.
+     *
+     * @param callback the callback
+     * @return this
+     */
+    public ApiFuture<T> addCallback(Callback<? super T> callback) {
+        if (callback == null) throw new IllegalArgumentException("callback is null");
+        synchronized (this) {
+            if (mCallbacks != null && !isDone()) {
+                mCallbacks.add(callback);
+                return this;
+            }
+        }
+        notify(callback);
+        return this;
+    }
+
+    /**
+     * Chains a transformation of the result.
+     *
+     * @param transformer the transformation to apply once this call completed successfully
+     * @param <R> the type of the transformed result
+     * @return a future which completes with the transformed result, or with the failure of this call
+     */
+    public <R> ApiFuture<R> then(final Transformer<? super T, R> transformer) {
+        final ApiFuture<R> next = new ApiFuture<R>(new Callable<R>() {
+            @Override public R call() throws Exception {
+                return transformer.transform(getResult());
+            }
+        });
+        addCallback(new Callback<T>() {
+            @Override public void onSuccess(T result) {
+                next.run();
+            }
+            @Override public void onFailure(Throwable throwable) {
+                next.run();
+            }
+        });
+        return next;
+    }
+
+    /**
+     * Waits for the call to complete and returns its result, throwing the same exceptions
+     * the synchronous call would have thrown.
+     *
+     * @return the result
+     * @throws IOException network errors, or any of the exceptions declared in {@link CloudAPI}
+     * @throws CancellationException if the call was cancelled
+     */
+    public T getResult() throws IOException {
+        try {
+            return get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for response");
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    @Override
+    protected void done() {
+        final List<Callback<? super T>> callbacks;
+        synchronized (this) {
+            callbacks = mCallbacks;
+            mCallbacks = null;
+        }
+        for (Callback<? super T> callback : callbacks) {
+            notify(callback);
+        }
+    }
+
+    private void notify(Callback<? super T> callback) {
+        final T result;
+        try {
+            result = get();
+        } catch (InterruptedException e) {
+            // not reached, the call has already completed
+            Thread.currentThread().interrupt();
+            callback.onFailure(e);
+            return;
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause() == null ? e : e.getCause());
+            return;
+        } catch (CancellationException e) {
+            callback.onFailure(e);
+            return;
+        }
+        callback.onSuccess(result);
+    }
+
+    private static IOException unwrap(ExecutionException e) {
+        final Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+            throw (RuntimeException) cause;
+        } else if (cause instanceof Error) {
+            throw (Error) cause;
+        } else {
+            IOException ioe = new IOException(cause == null ? null : cause.toString());
+            ioe.initCause(cause);
+            return ioe;
+        }
+    }
+
+    /**
+     * Receives the outcome of an asynchronous call.
+     * @param <T> the type of the result
+     */
+    public static interface Callback<T> {
+        /**
+         * @param result the result of the call
+         */
+        void onSuccess(T result);
+
+        /**
+         * @param throwable the exception thrown by the call, typically an {@link IOException} or one
+         *                  of its subclasses declared in {@link CloudAPI}
+         */
+        void onFailure(Throwable throwable);
+    }
+
+    /**
+     * Transforms the result of a call.
+     * @param <T> the input type
+     * @param <R> the output type
+     */
+    public static interface Transformer<T, R> {
+        R transform(T result) throws IOException;
+    }
+}
@@ -0,0 +1,76 @@
+package com.soundcloud.api;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps connections alive for as long as the server announces via <code>Keep-Alive: timeout=n</code>,
+ * falling back to the configured timeout for the API host or the stream hosts.
+ */
+class ApiKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+    static final String KEEP_ALIVE = "Keep-Alive";
+
+    private final Env mEnv;
+    private final HttpConfig mConfig;
+    private final AtomicLong mResponses = new AtomicLong();
+    private final AtomicLong mServerHints = new AtomicLong();
+
+    ApiKeepAliveStrategy(Env env, HttpConfig config) {
+        mEnv = env;
+        mConfig = config;
+    }
+
+    @Override
+    public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+        mResponses.incrementAndGet();
+
+        final long timeout = parseTimeout(response);
+        if (timeout >= 0) {
+            mServerHints.incrementAndGet();
+            return timeout;
+        }
+        final Object target = context == null ? null : context.getAttribute(ExecutionContext.HTTP_TARGET_HOST);
+        if (target instanceof HttpHost && !mEnv.isApiHost((HttpHost) target)) {
+            return mConfig.streamKeepAliveTimeout;
+        } else {
+            return mConfig.keepAliveTimeout;
+        }
+    }
+
+    /** @return number of responses seen */
+    public long getResponseCount() {
+        return mResponses.get();
+    }
+
+    /** @return number of responses which contained a keep-alive timeout */
+    public long getServerHintCount() {
+        return mServerHints.get();
+    }
+
+    /**
+     * @param response the response
+     * @return the keep-alive timeout in ms announced by the server, or -1
+     */
+    static long parseTimeout(HttpResponse response) {
+        HeaderElementIterator it = new BasicHeaderElementIterator(response.headerIterator(KEEP_ALIVE));
+        while (it.hasNext()) {
+            HeaderElement element = it.nextElement();
+            if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null) {
+                try {
+                    final long seconds = Long.parseLong(element.getValue().trim());
+                    if (seconds >= 0) return seconds * 1000L;
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        }
+        return -1;
+    }
+}
@@ -9,6 +9,7 @@ import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
 import org.apache.http.auth.AUTH;
 import org.apache.http.auth.AuthScope;
@@ -32,7 +33,6 @@ import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.conn.params.ConnManagerPNames;
 import org.apache.http.conn.params.ConnManagerParams;
 import org.apache.http.conn.params.ConnPerRoute;
-import org.apache.http.conn.params.ConnPerRouteBean;
 import org.apache.http.conn.params.ConnRoutePNames;
 import org.apache.http.conn.routing.HttpRoute;
 import org.apache.http.conn.routing.HttpRoutePlanner;
@@ -41,10 +41,13 @@ import org.apache.http.conn.scheme.Scheme;
 import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.scheme.SocketFactory;
 import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.entity.BufferedHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.client.DefaultRequestDirector;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicHeader;
+import org.apache.http.message.BasicHttpResponse;
 import org.apache.http.params.BasicHttpParams;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
@@ -53,17 +56,42 @@ import org.apache.http.protocol.BasicHttpProcessor;
 import org.apache.http.protocol.HttpContext;
 import org.apache.http.protocol.HttpProcessor;
 import org.apache.http.protocol.HttpRequestExecutor;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.SequenceInputStream;
 import java.io.Serializable;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Interface with SoundCloud, using OAuth2.
@@ -97,13 +125,33 @@ public class ApiWrapper implements CloudAPI, Serializable {
     private Token mToken;
     private final String mClientId, mClientSecret;
     private final URI mRedirectUri;
+    private HttpConfig mConfig;
     transient private HttpClient httpClient;
     transient private TokenListener listener;
+    transient private ExecutorService executor;
+    transient private IdleConnectionReaper reaper;
+    transient private ApiConnectionManager connectionManager;
+    transient private ApiKeepAliveStrategy keepAliveStrategy;
+    transient private volatile MetricsSink metricsSink;
+    transient private volatile ResponseCache responseCache;
+    transient private volatile StreamCache streamCache;
+    transient private volatile ResolveCache resolveCache;
+    transient private volatile boolean parallelStreamResolution;
+    transient private volatile RetryPolicy retryPolicy;
+    transient private volatile RateLimiter rateLimiter;
+    transient private volatile long rateLimitMaxWait;
+    transient private volatile CircuitBreaker circuitBreaker;
+    transient private volatile RequestHedger requestHedger;
+    transient private volatile ConcurrentHashMap<String, ApiFuture<BufferedResponse>> inFlight;
+    transient private AtomicLong coalescedRequests;
+    transient private AtomicLong statusRetries, errorRetries, retriesExhausted, retryDelay;
 
     private String mDefaultContentType;
     private String mDefaultAcceptEncoding;
 
     public static final int BUFFER_SIZE = 8192;
+    /** Default size of the ranges fetched by {@link #download(Stream, FileChannel)} */
+    public static final long DOWNLOAD_SEGMENT_SIZE = 4 * 1024 * 1024;
     /** Connection timeout */
     public static final int TIMEOUT = 20 * 1000;
     /** Keepalive timeout */
@@ -112,6 +160,10 @@ public class ApiWrapper implements CloudAPI, Serializable {
     public static final int MAX_TOTAL_CONNECTIONS = 10;
     /* spam response code from API */
     public static final int STATUS_CODE_SPAM_WARNING = 429;
+    /* states of a hedged request */
+    private static final int HEDGE_WAITING = 0, HEDGE_QUEUED = 1, HEDGE_RUNNING = 2, HEDGE_CLOSED = 3;
+    /* request parameter holding the endpoint template, used for metrics */
+    static final String ENDPOINT_PARAM = "com.soundcloud.api.endpoint";
 
     /** debug request details to stderr */
     public boolean debugRequests;
@@ -130,10 +182,30 @@ public class ApiWrapper implements CloudAPI, Serializable {
                       String clientSecret,
                       URI redirectUri,
                       Token token) {
+        this(clientId, clientSecret, redirectUri, token, HttpConfig.DEFAULT);
+    }
+
+    /**
+     * Constructs a new ApiWrapper instance with custom connection settings.
+     *
+     * @param clientId     the application client id
+     * @param clientSecret the application client secret
+     * @param redirectUri  the registered redirect url, or null
+     * @param token        an valid token, or null if not known
+     * @param config       the connection settings
+     * @see HttpConfig#DEFAULT
+     */
+    public ApiWrapper(String clientId,
+                      String clientSecret,
+                      URI redirectUri,
+                      Token token,
+                      HttpConfig config) {
+        if (config == null) throw new IllegalArgumentException("config is null");
         mClientId = clientId;
         mClientSecret = clientSecret;
         mRedirectUri = redirectUri;
         mToken = token == null ? EMPTY_TOKEN : token;
+        mConfig = config;
     }
 
     @Override public Token login(String username, String password, String... scopes) throws IOException {
@@ -288,11 +360,12 @@ public class ApiWrapper implements CloudAPI, Serializable {
      *      android.net.http.AndroidHttpClient#newInstance(String, Context)</a>
      */
     protected HttpParams getParams() {
+        final HttpConfig config = getConfig();
         final HttpParams params = new BasicHttpParams();
-        HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
-        HttpConnectionParams.setSoTimeout(params, TIMEOUT);
-        HttpConnectionParams.setSocketBufferSize(params, BUFFER_SIZE);
-        ConnManagerParams.setMaxTotalConnections(params, MAX_TOTAL_CONNECTIONS);
+        HttpConnectionParams.setConnectionTimeout(params, config.connectTimeout);
+        HttpConnectionParams.setSoTimeout(params, config.readTimeout);
+        HttpConnectionParams.setSocketBufferSize(params, config.socketBufferSize);
+        ConnManagerParams.setMaxTotalConnections(params, config.maxTotalConnections);
 
         // Turn off stale checking.  Our connections break all the time anyway,
         // and it's not worth it to pay the penalty of checking every time.
@@ -305,9 +378,9 @@ public class ApiWrapper implements CloudAPI, Serializable {
             public int getMaxForRoute(HttpRoute httpRoute) {
                 if (env.isApiHost(httpRoute.getTargetHost())) {
                     // there will be a lot of concurrent request to the API host
-                    return MAX_TOTAL_CONNECTIONS;
+                    return config.maxConnectionsPerApiRoute;
                 } else {
-                    return ConnPerRouteBean.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+                    return config.maxConnectionsPerRoute;
                 }
             }
         });
@@ -325,6 +398,14 @@ public class ApiWrapper implements CloudAPI, Serializable {
         return params;
     }
 
+    /**
+     * @return the connection settings
+     */
+    public HttpConfig getConfig() {
+        // wrappers serialized by older versions have no config
+        return mConfig == null ? HttpConfig.DEFAULT : mConfig;
+    }
+
     /**
      * @param proxy the proxy to use for the wrapper, or null to clear the current one.
      */
@@ -383,16 +464,17 @@ public class ApiWrapper implements CloudAPI, Serializable {
             registry.register(new Scheme("http", getSocketFactory(), 80));
             final SSLSocketFactory sslFactory = getSSLSocketFactory();
             registry.register(new Scheme("https", sslFactory, 443));
-            httpClient = new DefaultHttpClient(
-                    new ThreadSafeClientConnManager(params, registry),
-                    params) {
+            final ApiConnectionManager manager = new ApiConnectionManager(params, registry);
+            final ApiKeepAliveStrategy keepAlive = new ApiKeepAliveStrategy(env, getConfig());
+            connectionManager = manager;
+            keepAliveStrategy = keepAlive;
+            if (getConfig().evictionInterval > 0) {
+                reaper = new IdleConnectionReaper(manager, getConfig().evictionInterval, getConfig().maxIdleTime);
+                reaper.start();
+            }
+            httpClient = new DefaultHttpClient(manager, params) {
                 {
-                    setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
-                        @Override
-                        public long getKeepAliveDuration(HttpResponse httpResponse, HttpContext httpContext) {
-                            return KEEPALIVE_TIMEOUT;
-                        }
-                    });
+                    setKeepAliveStrategy(keepAlive);
 
                     getCredentialsProvider().setCredentials(
                         new AuthScope(AuthScope.ANY_HOST, AuthScope.ANY_PORT, CloudAPI.REALM, OAUTH_SCHEME),
@@ -427,6 +509,10 @@ public class ApiWrapper implements CloudAPI, Serializable {
                     return ctxt;
                 }
 
+                @Override protected HttpRequestExecutor createRequestExecutor() {
+                    return new TimingRequestExecutor();
+                }
+
                 @Override protected BasicHttpProcessor createHttpProcessor() {
                     BasicHttpProcessor processor = super.createHttpProcessor();
                     processor.addInterceptor(new OAuth2HttpRequestInterceptor());
@@ -454,8 +540,48 @@ public class ApiWrapper implements CloudAPI, Serializable {
         return httpClient;
     }
 
+    /**
+     * @return the thread evicting idle connections, or null if eviction is disabled
+     * @see HttpConfig#withConnectionEviction(long, long)
+     */
+    public IdleConnectionReaper getConnectionReaper() {
+        getHttpClient();
+        return reaper;
+    }
+
+    /**
+     * @return statistics about connection usage and reuse
+     */
+    public ConnectionStats getConnectionStats() {
+        getHttpClient();
+        return new ConnectionStats(
+                keepAliveStrategy == null ? 0 : keepAliveStrategy.getResponseCount(),
+                connectionManager == null ? 0 : connectionManager.getOpenedConnectionCount(),
+                keepAliveStrategy == null ? 0 : keepAliveStrategy.getServerHintCount());
+    }
+
     @Override
     public long resolve(String url) throws IOException {
+        final ResolveCache cache = resolveCache;
+        if (cache == null) return fetchId(url);
+
+        final Long cached = cache.get(url);
+        if (cached != null) return cached;
+        if (cache.isNotFound(url)) {
+            throw new ResolverException("Invalid status code",
+                    new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_NOT_FOUND, "Not Found"));
+        }
+        try {
+            final long id = fetchId(url);
+            cache.put(url, id);
+            return id;
+        } catch (ResolverException e) {
+            if (e.getStatusCode() == HttpStatus.SC_NOT_FOUND) cache.putNotFound(url);
+            throw e;
+        }
+    }
+
+    private long fetchId(String url) throws IOException {
         HttpResponse resp = get(Request.to(Endpoints.RESOLVE).with("url", url));
         if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_MOVED_TEMPORARILY) {
             Header location = resp.getFirstHeader("Location");
@@ -480,7 +606,66 @@ public class ApiWrapper implements CloudAPI, Serializable {
     }
 
     @Override
-    public Stream resolveStreamUrl(final String url, boolean skipLogging) throws IOException {
+    public Stream resolveStreamUrl(final String url, final boolean skipLogging) throws IOException {
+        final StreamCache cache = streamCache;
+        // resolving a logged stream counts as a play, so it has to reach the server every time
+        if (cache == null || !skipLogging) return fetchStream(url, skipLogging);
+
+        final Stream cached = cache.get(url, skipLogging);
+        if (cached != null) return cached;
+        final Stream stream = fetchStream(url, skipLogging);
+        cache.put(url, skipLogging, stream, refresher(cache, url, skipLogging));
+        return stream;
+    }
+
+    /** @return a task resolving the stream again in the background and storing it in the cache */
+    private Runnable refresher(final StreamCache cache, final String url, final boolean skipLogging) {
+        return new Runnable() {
+            @Override public void run() {
+                submit(new Callable<Stream>() {
+                    @Override public Stream call() throws IOException {
+                        try {
+                            final Stream stream = fetchStream(url, skipLogging);
+                            cache.put(url, skipLogging, stream, refresher(cache, url, skipLogging));
+                            return stream;
+                        } catch (IOException e) {
+                            cache.refreshFailed();
+                            throw e;
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    private Stream fetchStream(final String url, final boolean skipLogging) throws IOException {
+        if (!parallelStreamResolution) {
+            final Stream stream = fetchStreamMetadata(url);
+            return withSignedUrl(stream, fetchSignedUrl(url, skipLogging));
+        }
+        // the signed url does not depend on the metadata, fetch both at the same time
+        final ApiFuture<HttpResponse> signed = submit(new Callable<HttpResponse>() {
+            @Override public HttpResponse call() throws IOException {
+                return fetchSignedUrl(url, skipLogging);
+            }
+        });
+        final Stream stream;
+        try {
+            stream = fetchStreamMetadata(url);
+        } catch (IOException e) {
+            discard(signed);
+            throw e;
+        } catch (RuntimeException e) {
+            discard(signed);
+            throw e;
+        }
+        // never wait for queued work, this might be running on the executor itself
+        signed.run();
+        return withSignedUrl(stream, signed.getResult());
+    }
+
+    /** @return the stream with metadata from a HEAD request on the redirect target */
+    private Stream fetchStreamMetadata(String url) throws IOException {
         HttpResponse resp = safeExecute(null, addHeaders(Request.to(url).buildRequest(HttpHead.class)));
         if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_MOVED_TEMPORARILY) {
             Header location = resp.getFirstHeader("Location");
@@ -488,19 +673,7 @@ public class ApiWrapper implements CloudAPI, Serializable {
                 final String headRedirect = location.getValue();
                 resp = safeExecute(null, new HttpHead(headRedirect));
                 if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_OK) {
-                    Stream stream = new Stream(url, headRedirect, resp);
-                    // need to do another GET request to have a URL ready for client usage
-                    Request req = Request.to(url);
-                    if (skipLogging) {
-                        // skip logging
-                        req.with("skip_logging", "1");
-                    }
-                    resp = safeExecute(null, addHeaders(Request.to(url).buildRequest(HttpGet.class)));
-                    if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_MOVED_TEMPORARILY) {
-                        return stream.withNewStreamUrl(resp.getFirstHeader("Location").getValue());
-                    } else {
-                        throw new ResolverException("Unexpected response code", resp);
-                    }
+                    return new Stream(url, headRedirect, resp);
                 } else {
                     throw new ResolverException("Unexpected response code", resp);
                 }
@@ -512,6 +685,38 @@ public class ApiWrapper implements CloudAPI, Serializable {
         }
     }
 
+    /** @return the response redirecting to a URL ready for client usage */
+    private HttpResponse fetchSignedUrl(String url, boolean skipLogging) throws IOException {
+        Request req = Request.to(url);
+        if (skipLogging) {
+            // skip logging
+            req.with("skip_logging", "1");
+        }
+        return safeExecute(null, addHeaders(req.buildRequest(HttpGet.class)));
+    }
+
+    private static Stream withSignedUrl(Stream stream, HttpResponse resp) throws IOException {
+        if (resp.getStatusLine().getStatusCode() == HttpStatus.SC_MOVED_TEMPORARILY) {
+            return stream.withNewStreamUrl(resp.getFirstHeader("Location").getValue());
+        } else {
+            throw new ResolverException("Unexpected response code", resp);
+        }
+    }
+
+    /** Releases the connection of a response nobody is interested in anymore, once it arrives */
+    private static void discard(ApiFuture<HttpResponse> pending) {
+        pending.addCallback(new ApiFuture.Callback<HttpResponse>() {
+            @Override public void onSuccess(HttpResponse resp) {
+                try {
+                    if (resp.getEntity() != null) resp.getEntity().consumeContent();
+                } catch (IOException ignored) {
+                }
+            }
+            @Override public void onFailure(Throwable throwable) {
+            }
+        });
+    }
+
     @Override
     public HttpResponse head(Request request) throws IOException {
         return execute(request, HttpHead.class);
@@ -521,6 +726,36 @@ public class ApiWrapper implements CloudAPI, Serializable {
         return execute(request, HttpGet.class);
     }
 
+    /**
+     * Walks a collection endpoint lazily, 50 items per page, fetching the next page in the
+     * background while the current one is consumed.
+     *
+     * @param request the collection, e.g. <code>Request.to(Endpoints.USER_TRACKS, 1234)</code>
+     * @return the collection
+     * @see #getCollection(Request, int, int)
+     */
+    public PagedCollection getCollection(Request request) {
+        return getCollection(request, 50, 1);
+    }
+
+    /**
+     * Walks a collection endpoint lazily, with the default parameters of the thread iterating the
+     * collection. Pages which have not been prefetched are requested from that thread itself, so
+     * collections can also be iterated on the {@link #getExecutor executor}.
+     *
+     * @param request  the collection, e.g. <code>Request.to(Endpoints.USER_TRACKS, 1234)</code>
+     * @param pageSize the number of items per page, unless the request already has a <code>limit</code>
+     * @param prefetch the number of pages fetched ahead in the background, 0 to fetch pages on demand
+     * @return the collection
+     */
+    public PagedCollection getCollection(Request request, int pageSize, int prefetch) {
+        if (pageSize < 1) throw new IllegalArgumentException("pageSize < 1");
+        final Request first = new Request(request);
+        if (!first.getParams().containsKey(PagedCollection.LIMIT)) first.set(PagedCollection.LIMIT, pageSize);
+        first.set(PagedCollection.LINKED_PARTITIONING, 1);
+        return new PagedCollection(this, first, prefetch);
+    }
+
     @Override public HttpResponse put(Request request) throws IOException {
         return execute(request, HttpPut.class);
     }
@@ -533,6 +768,78 @@ public class ApiWrapper implements CloudAPI, Serializable {
         return execute(request, HttpDelete.class);
     }
 
+    /**
+     * Asynchronous version of {@link #head(Request)}.
+     * @param request resource to HEAD
+     * @return the pending HTTP response
+     */
+    public ApiFuture<HttpResponse> headAsync(Request request) {
+        return executeAsync(request, HttpHead.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #get(Request)}.
+     * @param request resource to GET
+     * @return the pending HTTP response
+     */
+    public ApiFuture<HttpResponse> getAsync(Request request) {
+        return executeAsync(request, HttpGet.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #put(Request)}.
+     * @param request resource to PUT
+     * @return the pending HTTP response
+     */
+    public ApiFuture<HttpResponse> putAsync(Request request) {
+        return executeAsync(request, HttpPut.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #post(Request)}.
+     * @param request resource to POST
+     * @return the pending HTTP response
+     */
+    public ApiFuture<HttpResponse> postAsync(Request request) {
+        return executeAsync(request, HttpPost.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #delete(Request)}.
+     * @param request resource to DELETE
+     * @return the pending HTTP response
+     */
+    public ApiFuture<HttpResponse> deleteAsync(Request request) {
+        return executeAsync(request, HttpDelete.class);
+    }
+
+    /**
+     * Asynchronous version of {@link #resolve(String)}.
+     * @param url SoundCloud model URI, e.g. http://soundcloud.com/bob
+     * @return the pending id
+     */
+    public ApiFuture<Long> resolveAsync(final String url) {
+        return submit(new Callable<Long>() {
+            @Override public Long call() throws IOException {
+                return resolve(url);
+            }
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #resolveStreamUrl(String, boolean)}.
+     * @param url SoundCloud stream URI, e.g. https://api.soundcloud.com/tracks/25272620/stream
+     * @param skipLogging skip logging the play of this track
+     * @return the pending stream
+     */
+    public ApiFuture<Stream> resolveStreamUrlAsync(final String url, final boolean skipLogging) {
+        return submit(new Callable<Stream>() {
+            @Override public Stream call() throws IOException {
+                return resolveStreamUrl(url, skipLogging);
+            }
+        });
+    }
+
     @Override public Token getToken() {
         return mToken;
     }
@@ -561,6 +868,227 @@ public class ApiWrapper implements CloudAPI, Serializable {
             target = determineTarget(request);
         }
 
+        final RequestHedger hedger = requestHedger;
+        if (hedger != null && hedger.isHedgeable(request)) {
+            return hedgedExecute(hedger, target, request);
+        } else {
+            return retryingExecute(target, request);
+        }
+    }
+
+    /**
+     * Executes the request in the calling thread, and sends a copy from the executor if there is
+     * no response after the hedge delay. The first response wins, the other request gets aborted.
+     */
+    private HttpResponse hedgedExecute(final RequestHedger hedger, final HttpHost target,
+                                       final HttpUriRequest request) throws IOException {
+        final HttpUriRequest copy = copyRequest(request);
+        final AtomicReference<HttpUriRequest> winner = new AtomicReference<HttpUriRequest>();
+        final AtomicInteger state = new AtomicInteger(HEDGE_WAITING);
+
+        final ApiFuture<HttpResponse> hedge = new ApiFuture<HttpResponse>(new Callable<HttpResponse>() {
+            @Override public HttpResponse call() throws IOException {
+                if (!state.compareAndSet(HEDGE_QUEUED, HEDGE_RUNNING)) return null;
+                // paid for only now, a hedge overtaken by the response while queued costs nothing
+                if (!hedger.tryHedge()) return null;
+
+                final HttpResponse response = retryingExecute(target, copy);
+                if (winner.compareAndSet(null, copy)) {
+                    hedger.hedgeWon();
+                    request.abort();
+                    return response;
+                } else {
+                    copy.abort();
+                    return null;
+                }
+            }
+        });
+        hedger.requested();
+        final ScheduledFuture<?> timer = hedger.schedule(new Runnable() {
+            @Override public void run() {
+                if (state.get() == HEDGE_WAITING && hedger.hasCredit()
+                        && state.compareAndSet(HEDGE_WAITING, HEDGE_QUEUED)) {
+                    getExecutor().execute(hedge);
+                }
+            }
+        }, hedger.delayFor(request.getMethod(), getEndpoint(request)));
+
+        final HttpResponse response;
+        try {
+            response = retryingExecute(target, request);
+        } catch (IOException e) {
+            timer.cancel(false);
+            if (state.compareAndSet(HEDGE_WAITING, HEDGE_CLOSED) || state.compareAndSet(HEDGE_QUEUED, HEDGE_CLOSED)) {
+                throw e;
+            }
+            // the hedge is in flight, it might still succeed
+            try {
+                final HttpResponse hedged = hedge.getResult();
+                if (hedged != null) return hedged;
+            } catch (IOException ignored) {
+            }
+            throw e;
+        }
+
+        timer.cancel(false);
+        if (!state.compareAndSet(HEDGE_WAITING, HEDGE_CLOSED)) {
+            state.compareAndSet(HEDGE_QUEUED, HEDGE_CLOSED);
+        }
+        if (winner.compareAndSet(null, request)) {
+            copy.abort();
+            return response;
+        } else {
+            // the hedge won while this response came in
+            request.abort();
+            return hedge.getResult();
+        }
+    }
+
+    /**
+     * @param request a GET or HEAD request
+     * @return a copy of the request with the same headers and parameters
+     */
+    private static HttpUriRequest copyRequest(HttpUriRequest request) {
+        final HttpRequestBase copy = "HEAD".equals(request.getMethod()) ?
+                new HttpHead(request.getURI()) : new HttpGet(request.getURI());
+        copy.setHeaders(request.getAllHeaders());
+        copy.setParams(request.getParams().copy());
+        return copy;
+    }
+
+    private HttpResponse retryingExecute(HttpHost target, HttpUriRequest request) throws IOException {
+        final RetryPolicy policy = retryPolicy;
+        if (policy == null || policy.maxRetries == 0 || !policy.isRetryable(request)) {
+            return attempt(target, request);
+        }
+
+        long waited = 0;
+        for (int retry = 1; ; retry++) {
+            final HttpResponse response;
+            final long delay;
+            try {
+                response = attempt(target, request);
+            } catch (IOException e) {
+                if (!policy.isRetryable(e) || request.isAborted()) throw e;
+                delay = retryDelay(policy, retry, -1, waited);
+                if (delay < 0) throw e;
+                errorRetries.incrementAndGet();
+                waited += sleepBeforeRetry(delay);
+                continue;
+            }
+
+            if (!policy.isRetryable(response.getStatusLine().getStatusCode())) return response;
+            delay = retryDelay(policy, retry, RetryPolicy.retryAfter(response), waited);
+            if (delay < 0) return response;
+
+            statusRetries.incrementAndGet();
+            if (response.getEntity() != null) response.getEntity().consumeContent();
+            waited += sleepBeforeRetry(delay);
+        }
+    }
+
+    /**
+     * @return the delay before the given retry, or -1 if the retry budget is exhausted
+     */
+    private long retryDelay(RetryPolicy policy, int retry, long retryAfter, long waited) {
+        final long delay = retryAfter >= 0 ? retryAfter : policy.backoff(retry);
+        if (retry > policy.maxRetries || waited + delay > policy.maxRetryTime) {
+            retriesExhausted.incrementAndGet();
+            return -1;
+        } else {
+            return delay;
+        }
+    }
+
+    private long sleepBeforeRetry(long delay) throws InterruptedIOException {
+        retryDelay.addAndGet(delay);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry");
+        }
+        return delay;
+    }
+
+    /**
+     * Sends the request once, subject to the circuit breaker and rate limiter.
+     */
+    private HttpResponse attempt(HttpHost target, HttpUriRequest request) throws IOException {
+        final CircuitBreaker breaker = circuitBreaker;
+        final HttpHost host = target == null ? env.sslResourceHost : target;
+        final boolean probe = breaker != null && breaker.acquire(host);
+
+        final RateLimiter limiter = rateLimiter;
+        if (limiter != null && env.isApiHost(host)) {
+            try {
+                limiter.acquire(rateLimitMaxWait);
+            } catch (IOException e) {
+                if (breaker != null) breaker.release(host, probe);
+                throw e;
+            }
+        }
+        if (breaker == null) {
+            return timedExecute(target, request);
+        }
+
+        final long start = System.currentTimeMillis();
+        final HttpResponse response;
+        try {
+            response = timedExecute(target, request);
+        } catch (IOException e) {
+            if (request.isAborted()) {
+                // aborted by the caller, e.g. a hedged request which lost
+                breaker.release(host, probe);
+            } else {
+                breaker.failed(host, probe);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            breaker.failed(host, probe);
+            throw e;
+        }
+        breaker.completed(host, probe, response.getStatusLine().getStatusCode(),
+                System.currentTimeMillis() - start);
+        return response;
+    }
+
+    private HttpResponse timedExecute(HttpHost target, HttpUriRequest request) throws IOException {
+        final MetricsSink sink = metricsSink;
+        if (sink == null) {
+            return doExecute(target, request);
+        }
+
+        final RequestTimings timings = new RequestTimings(getEndpoint(request), request.getMethod());
+        final HttpResponse response;
+        RequestTimings.setCurrent(timings);
+        try {
+            response = doExecute(target, request);
+        } catch (IOException e) {
+            timings.failed(e);
+            sink.record(timings);
+            throw e;
+        } catch (RuntimeException e) {
+            timings.failed(e);
+            sink.record(timings);
+            throw e;
+        } finally {
+            RequestTimings.setCurrent(null);
+        }
+
+        timings.setStatusCode(response.getStatusLine().getStatusCode());
+        final HttpEntity entity = response.getEntity();
+        if (entity != null) {
+            // reported once the body has been read
+            response.setEntity(new TimedEntity(entity, timings, sink));
+        } else {
+            timings.completed(0);
+            sink.record(timings);
+        }
+        return response;
+    }
+
+    private HttpResponse doExecute(HttpHost target, HttpUriRequest request) throws IOException {
         try {
             return getHttpClient().execute(target, request);
         } catch (NullPointerException e) {
@@ -569,7 +1097,7 @@ public class ApiWrapper implements CloudAPI, Serializable {
             // NPE in DefaultRequestDirector.java:456
             if (!request.isAborted() && request.getParams().isParameterFalse("npe-retried")) {
                 request.getParams().setBooleanParameter("npe-retried", true);
-                return safeExecute(target, request);
+                return doExecute(target, request);
             } else {
                 request.abort();
                 throw new BrokenHttpClientException(e);
@@ -600,7 +1128,425 @@ public class ApiWrapper implements CloudAPI, Serializable {
             }
         }
         logRequest(reqType, req);
-        return execute(addClientIdIfNecessary(req).buildRequest(reqType));
+        final HttpRequestBase request = addClientIdIfNecessary(req).buildRequest(reqType);
+        if (req.getTemplate() != null) {
+            request.getParams().setParameter(ENDPOINT_PARAM, req.getTemplate());
+        }
+        if (request instanceof HttpGet) {
+            final ConcurrentHashMap<String, ApiFuture<BufferedResponse>> flights = inFlight;
+            return flights == null ? executeGet(request) : executeCoalesced(flights, request);
+        } else {
+            return execute(request);
+        }
+    }
+
+    private HttpResponse executeGet(HttpRequestBase request) throws IOException {
+        final ResponseCache cache = responseCache;
+        return cache == null ? execute(request) : executeCached(cache, request);
+    }
+
+    /**
+     * Executes a GET request, unless an identical request is already in flight, in which case
+     * its response is shared.
+     */
+    private HttpResponse executeCoalesced(ConcurrentHashMap<String, ApiFuture<BufferedResponse>> flights,
+                                          final HttpRequestBase request) throws IOException {
+        addHeaders(request);
+        final String key = coalescingKey(request);
+        final ApiFuture<BufferedResponse> flight = new ApiFuture<BufferedResponse>(new Callable<BufferedResponse>() {
+            @Override public BufferedResponse call() throws IOException {
+                return BufferedResponse.of(executeGet(request));
+            }
+        });
+        final ApiFuture<BufferedResponse> existing = flights.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalescedRequests.incrementAndGet();
+            return existing.getResult().toResponse();
+        }
+        try {
+            flight.run();
+        } finally {
+            flights.remove(key, flight);
+        }
+        return flight.getResult().toResponse();
+    }
+
+    private static String coalescingKey(HttpUriRequest request) {
+        final StringBuilder key = new StringBuilder(request.getMethod()).append(' ').append(request.getURI());
+        for (Header h : request.getAllHeaders()) {
+            key.append('\n').append(h.getName()).append(": ").append(
+                    AUTH.WWW_AUTH_RESP.equalsIgnoreCase(h.getName()) ? ResponseCache.sha1(h.getValue()) : h.getValue());
+        }
+        return key.toString();
+    }
+
+    /**
+     * Executes a GET request, revalidating a cached response with <code>If-None-Match</code> or
+     * <code>If-Modified-Since</code>. Requests which set their own conditional or range headers
+     * bypass the cache.
+     */
+    private HttpResponse executeCached(ResponseCache cache, HttpRequestBase request) throws IOException {
+        addHeaders(request);
+        if (request.containsHeader("If-None-Match") || request.containsHeader("If-Modified-Since")
+                || request.containsHeader("Range")) {
+            return safeExecute(env.sslResourceHost, request);
+        }
+
+        final String key = ResponseCache.key(request);
+        final CachedResponse cached = cache.get(key);
+        if (cached != null) {
+            if (cached.eTag != null) request.addHeader("If-None-Match", cached.eTag);
+            if (cached.lastModified != null) request.addHeader("If-Modified-Since", cached.lastModified);
+        }
+        final HttpResponse resp = safeExecute(env.sslResourceHost, request);
+        final int status = resp.getStatusLine().getStatusCode();
+
+        if (status == HttpStatus.SC_NOT_MODIFIED && cached != null) {
+            if (resp.getEntity() != null) resp.getEntity().consumeContent();
+            cache.revalidated();
+            return cached.toResponse();
+        } else if (status == HttpStatus.SC_OK && resp.getEntity() != null) {
+            final String eTag = Http.etag(resp);
+            final Header lastModified = resp.getFirstHeader("Last-Modified");
+            final HttpEntity entity = resp.getEntity();
+            // only buffer bodies which fit into the cache, stream everything else. chunked or
+            // decompressed bodies have no known length, so read one byte more than fits to find out.
+            if ((eTag != null || lastModified != null) && entity.getContentLength() <= cache.getMaxBytes()) {
+                final Header contentType = entity.getContentType();
+                final InputStream in = entity.getContent();
+                final byte[] body = read(in, cache.getMaxBytes() + 1);
+                if (body.length <= cache.getMaxBytes()) {
+                    entity.consumeContent();
+                    cache.put(key, new CachedResponse(eTag,
+                            lastModified == null ? null : lastModified.getValue(),
+                            contentType == null ? null : contentType.getValue(),
+                            body));
+
+                    final ByteArrayEntity buffered = new ByteArrayEntity(body);
+                    buffered.setContentType(contentType);
+                    resp.removeHeaders("Content-Length");
+                    resp.removeHeaders("Content-Encoding");
+                    resp.removeHeaders("Transfer-Encoding");
+                    resp.setEntity(buffered);
+                    return resp;
+                } else {
+                    final InputStreamEntity rest = new InputStreamEntity(
+                            new SequenceInputStream(new ByteArrayInputStream(body), in), -1);
+                    rest.setContentType(contentType);
+                    rest.setContentEncoding(entity.getContentEncoding());
+                    resp.setEntity(rest);
+                }
+            }
+        }
+        if (cached != null && status < HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+            cache.remove(key);
+        }
+        return resp;
+    }
+
+    /**
+     * @return the next <code>limit</code> bytes of the stream, or fewer if it ends before
+     */
+    private static byte[] read(InputStream in, long limit) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int n;
+        while (out.size() < limit &&
+                (n = in.read(buffer, 0, (int) Math.min(buffer.length, limit - out.size()))) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    protected ApiFuture<HttpResponse> executeAsync(final Request req, final Class<? extends HttpRequestBase> reqType) {
+        return submit(new Callable<HttpResponse>() {
+            @Override public HttpResponse call() throws IOException {
+                return execute(req, reqType);
+            }
+        });
+    }
+
+    /**
+     * Executes a batch of independent GET requests concurrently.
+     * The response bodies are buffered in memory so that connections can be released back to the pool
+     * immediately, the concurrency is capped at the number of connections available to the API host.
+     * A failed request does not abort the batch.
+     *
+     * @param requests    the requests to GET
+     * @param concurrency the maximum number of requests in flight
+     * @return the completed results, in the same order as the requests. Use {@link ApiFuture#getResult()}
+     *         to obtain the response or the exception of an individual request.
+     * @throws InterruptedIOException if interrupted while waiting for the batch to complete
+     */
+    public List<ApiFuture<HttpResponse>> executeAll(List<Request> requests, int concurrency)
+            throws InterruptedIOException {
+        return executeAll(requests, HttpGet.class, concurrency);
+    }
+
+    protected List<ApiFuture<HttpResponse>> executeAll(List<Request> requests,
+                                                       final Class<? extends HttpRequestBase> reqType,
+                                                       int concurrency) throws InterruptedIOException {
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency < 1");
+
+        final List<ApiFuture<HttpResponse>> results = new ArrayList<ApiFuture<HttpResponse>>(requests.size());
+        for (final Request request : requests) {
+            results.add(new ApiFuture<HttpResponse>(new Callable<HttpResponse>() {
+                @Override public HttpResponse call() throws IOException {
+                    final HttpResponse resp = execute(request, reqType);
+                    if (resp.getEntity() != null) {
+                        resp.setEntity(new BufferedHttpEntity(resp.getEntity()));
+                    }
+                    return resp;
+                }
+            }));
+        }
+
+        final int workers = Math.min(requests.size(), Math.min(concurrency,
+                Math.min(getConfig().maxTotalConnections, getConfig().maxConnectionsPerApiRoute)));
+        final AtomicInteger next = new AtomicInteger();
+        final Runnable worker = new Runnable() {
+            @Override public void run() {
+                int i;
+                while ((i = next.getAndIncrement()) < results.size()) {
+                    results.get(i).run();
+                }
+            }
+        };
+        // the calling thread works on the batch as well, so it completes even if the executor is busy
+        for (int i = 1; i < workers; i++) {
+            submit(Executors.callable(worker));
+        }
+        worker.run();
+
+        for (ApiFuture<HttpResponse> result : results) {
+            try {
+                result.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for batch");
+            } catch (ExecutionException ignored) {
+                // reported by the individual result
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Downloads a stream in parallel byte ranges, with the default segment size and as many
+     * concurrent requests as connections per route are permitted.
+     *
+     * @param stream the resolved stream
+     * @param out    the file to write to, each segment is written at its offset
+     * @return the number of bytes downloaded
+     * @throws IOException network or file errors
+     * @see #download(Stream, FileChannel, long, int, Request.TransferProgressListener)
+     */
+    public long download(Stream stream, FileChannel out) throws IOException {
+        return download(stream, out, DOWNLOAD_SEGMENT_SIZE, getConfig().maxConnectionsPerRoute, null);
+    }
+
+    /**
+     * Downloads a stream in parallel byte ranges. The stream is split into segments which are
+     * fetched concurrently on separate connections and written at their offsets into the file, so
+     * the throughput is not capped by a single connection. The concurrency is also limited by
+     * {@link HttpConfig#maxConnectionsPerRoute}. If one segment fails the remaining ones are
+     * abandoned and its exception is thrown.
+     *
+     * @param stream      the resolved stream, with a known content length
+     * @param out         the file to write to, each segment is written at its offset
+     * @param segmentSize the size of each range in bytes
+     * @param concurrency the maximum number of ranges fetched at the same time
+     * @param listener    notified with the total number of bytes written so far (from different
+     *                    threads, but never concurrently), or null
+     * @return the number of bytes downloaded
+     * @throws IOException network or file errors, {@link CloudAPI.ApiResponseException} if the server
+     *                     does not return the requested range
+     */
+    public long download(final Stream stream, final FileChannel out, long segmentSize, int concurrency,
+                         final Request.TransferProgressListener listener) throws IOException {
+        if (stream.contentLength < 0) throw new IllegalArgumentException("unknown content length");
+        if (segmentSize < 1) throw new IllegalArgumentException("segmentSize < 1");
+        if (concurrency < 1) throw new IllegalArgumentException("concurrency < 1");
+
+        final List<long[]> segments = new ArrayList<long[]>();
+        for (long start = 0; start < stream.contentLength; start += segmentSize) {
+            segments.add(new long[]{start, Math.min(stream.contentLength, start + segmentSize) - 1});
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final long[] transferred = new long[1];
+        final Callable<Long> worker = new Callable<Long>() {
+            @Override public Long call() throws IOException {
+                long total = 0;
+                int i;
+                try {
+                    while (!failed.get() && (i = next.getAndIncrement()) < segments.size()) {
+                        final long[] segment = segments.get(i);
+                        total += downloadSegment(stream, segment[0], segment[1], out, failed,
+                                listener == null ? null : new Request.TransferProgressListener() {
+                                    @Override public void transferred(long amount) throws IOException {
+                                        synchronized (transferred) {
+                                            transferred[0] += amount;
+                                            listener.transferred(transferred[0]);
+                                        }
+                                    }
+                                });
+                    }
+                } catch (IOException e) {
+                    failed.set(true);
+                    throw e;
+                } catch (RuntimeException e) {
+                    failed.set(true);
+                    throw e;
+                }
+                return total;
+            }
+        };
+
+        final int workers = Math.min(segments.size(), Math.min(concurrency,
+                Math.min(getConfig().maxTotalConnections, getConfig().maxConnectionsPerRoute)));
+        final List<ApiFuture<Long>> results = new ArrayList<ApiFuture<Long>>();
+        for (int i = 1; i < workers; i++) {
+            results.add(submit(worker));
+        }
+        // the calling thread downloads as well, so the download completes even if the executor is busy
+        final ApiFuture<Long> own = new ApiFuture<Long>(worker);
+        results.add(0, own);
+        own.run();
+
+        IOException error = null;
+        long total = 0;
+        for (ApiFuture<Long> result : results) {
+            try {
+                total += result.getResult();
+            } catch (IOException e) {
+                // also stops the other workers if interrupted while waiting
+                failed.set(true);
+                if (error == null) error = e;
+            }
+        }
+        if (error != null) throw error;
+        return total;
+    }
+
+    /**
+     * Fetches the bytes from start to end (inclusive) and writes them at the same offset.
+     * @return the number of bytes written, less than requested only if aborted
+     */
+    private long downloadSegment(Stream stream, long start, long end, FileChannel out, AtomicBoolean aborted,
+                                 Request.TransferProgressListener listener) throws IOException {
+        final HttpGet request = new HttpGet(stream.streamUrl);
+        request.addHeader("Range", Request.formatRange(start, end));
+        final HttpResponse resp = safeExecute(null, request);
+        final int status = resp.getStatusLine().getStatusCode();
+        final boolean whole = start == 0 && end == stream.contentLength - 1;
+        if (status != HttpStatus.SC_PARTIAL_CONTENT && !(status == HttpStatus.SC_OK && whole)) {
+            if (resp.getEntity() != null) resp.getEntity().consumeContent();
+            throw new ApiResponseException(resp, "could not fetch " + Request.formatRange(start, end));
+        }
+
+        final InputStream in = resp.getEntity().getContent();
+        final ByteBuffer buffer = BufferPool.DEFAULT.acquire(Request.FileChannelBody.COPY_BUFFER_SIZE);
+        long position = start;
+        try {
+            int n;
+            while (position <= end && !aborted.get() &&
+                   (n = in.read(buffer.array(), 0, (int) Math.min(buffer.capacity(), end - position + 1))) != -1) {
+                buffer.clear();
+                buffer.limit(n);
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+                if (listener != null) listener.transferred(n);
+            }
+            if (position <= end && !aborted.get()) {
+                throw new EOFException("range " + start + "-" + end + " ended at " + position);
+            }
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+            if (position <= end) {
+                // don't drain the rest of the response
+                request.abort();
+            } else {
+                in.close();
+            }
+        }
+        return position - start;
+    }
+
+    /**
+     * Runs a call on the executor. The default parameters of the calling thread are
+     * carried over to the executing thread for the duration of the call.
+     *
+     * @param callable the call
+     * @param <T> the type of the result
+     * @return the pending result
+     */
+    protected <T> ApiFuture<T> submit(final Callable<T> callable) {
+        final ApiFuture<T> future = prepare(callable);
+        getExecutor().execute(future);
+        return future;
+    }
+
+    /**
+     * Prepares a call for running later, in this or another thread, with the default parameters of
+     * the current thread.
+     *
+     * @param callable the call
+     * @param <T> the type of the result
+     * @return the call, not started yet
+     */
+    /* package */ <T> ApiFuture<T> prepare(final Callable<T> callable) {
+        final Request defaults = new Request(ApiWrapper.defaultParams.get());
+        return new ApiFuture<T>(new Callable<T>() {
+            @Override public T call() throws Exception {
+                final Request previous = ApiWrapper.defaultParams.get();
+                ApiWrapper.defaultParams.set(defaults);
+                try {
+                    return callable.call();
+                } finally {
+                    ApiWrapper.defaultParams.set(previous);
+                }
+            }
+        });
+    }
+
+    /**
+     * @param executor the executor used for asynchronous requests, or null to use the default one
+     *                 (sized to the maximum number of connections)
+     */
+    public synchronized void setExecutor(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * @return the executor used for asynchronous requests
+     */
+    public synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = createExecutor(getConfig().maxTotalConnections);
+        }
+        return executor;
+    }
+
+    /**
+     * @param threads the maximum number of threads
+     * @return an executor with a bounded number of daemon threads, idle threads will time out
+     */
+    protected ExecutorService createExecutor(int threads) {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads,
+                KEEPALIVE_TIMEOUT, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+                    @Override public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ApiWrapper-async-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
     }
 
     protected Request addClientIdIfNecessary(Request req) {
@@ -611,6 +1557,206 @@ public class ApiWrapper implements CloudAPI, Serializable {
         if (debugRequests) System.err.println(reqType.getSimpleName()+" "+request);
     }
 
+    /**
+     * @param request the request
+     * @return the endpoint used for metrics: the template the request was created from,
+     *         the path with numeric ids replaced by <code>%d</code>, or the host name for non-API hosts
+     */
+    protected String getEndpoint(HttpUriRequest request) {
+        final Object template = request.getParams().getParameter(ENDPOINT_PARAM);
+        if (template instanceof String) return (String) template;
+
+        final URI uri = request.getURI();
+        if (uri.isAbsolute() && !env.isApiHost(new HttpHost(uri.getHost(), uri.getPort(), uri.getScheme()))) {
+            return uri.getHost();
+        }
+        final String path = uri.getPath() == null || uri.getPath().length() == 0 ? "/" : uri.getPath();
+        return path.replaceAll("/\\d+(?=/|$)", "/%d");
+    }
+
+    /**
+     * @param sink receives timings of all requests, or null to disable metrics
+     * @see HistogramMetrics
+     */
+    public void setMetricsSink(MetricsSink sink) {
+        metricsSink = sink;
+    }
+
+    /** @return the current metrics sink, or null */
+    public MetricsSink getMetricsSink() {
+        return metricsSink;
+    }
+
+    /**
+     * Enables caching of GET responses which carry an <code>ETag</code> or <code>Last-Modified</code>
+     * header. Cached responses are revalidated with <code>If-None-Match</code> /
+     * <code>If-Modified-Since</code>, if the server responds with
+     * <code>304 Not Modified</code> the cached body is returned as a <code>200</code> response.
+     *
+     * @param cache the cache to use, or null to disable caching
+     */
+    public void setResponseCache(ResponseCache cache) {
+        responseCache = cache;
+    }
+
+    /** @return the response cache, or null */
+    public ResponseCache getResponseCache() {
+        return responseCache;
+    }
+
+    /**
+     * Enables caching of resolved streams: {@link #resolveStreamUrl(String, boolean)} returns cached
+     * streams until they expire, streams in use are resolved again in the background shortly before.
+     * <p/>
+     * Only lookups with <code>skipLogging</code> set are cached: the server logs a play for every
+     * stream resolved without it, so serving those from the cache would lose plays, and refreshing
+     * them would log plays nobody started.
+     *
+     * @param cache the cache to use, or null to disable caching
+     */
+    public void setStreamCache(StreamCache cache) {
+        streamCache = cache;
+    }
+
+    /** @return the stream cache, or null */
+    public StreamCache getStreamCache() {
+        return streamCache;
+    }
+
+    /**
+     * Enables caching of {@link #resolve(String)} results: resolved ids are returned from the cache
+     * until they expire, and urls which recently could not be resolved fail without a request.
+     *
+     * @param cache the cache to use, or null to disable caching
+     */
+    public void setResolveCache(ResolveCache cache) {
+        resolveCache = cache;
+    }
+
+    /** @return the resolve cache, or null */
+    public ResolveCache getResolveCache() {
+        return resolveCache;
+    }
+
+    /**
+     * @param policy the policy for retrying failed requests, or null to disable retries
+     */
+    public synchronized void setRetryPolicy(RetryPolicy policy) {
+        if (statusRetries == null) {
+            statusRetries = new AtomicLong();
+            errorRetries = new AtomicLong();
+            retriesExhausted = new AtomicLong();
+            retryDelay = new AtomicLong();
+        }
+        retryPolicy = policy;
+    }
+
+    /** @return the retry policy, or null */
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Limits the rate of requests sent to the API host. Retries count against the limit as well.
+     *
+     * @param limiter the limiter, usually obtained via {@link RateLimiter#forClientId}, or null to disable
+     * @param maxWait the maximum time in ms a request waits for the limiter before failing with
+     *                {@link CloudAPI.RateLimitException}, {@link Long#MAX_VALUE} to always wait
+     */
+    public void setRateLimiter(RateLimiter limiter, long maxWait) {
+        if (maxWait < 0) throw new IllegalArgumentException("negative maxWait");
+        rateLimitMaxWait = maxWait;
+        rateLimiter = limiter;
+    }
+
+    /**
+     * Limits the rate of requests sent to the API host, using a limiter shared by all wrappers with
+     * the same client id. Requests wait as long as necessary.
+     *
+     * @param requestsPerSecond the sustained rate
+     * @param burst             the number of requests which can be sent at once after a quiet period
+     */
+    public void setRateLimit(double requestsPerSecond, int burst) {
+        setRateLimiter(RateLimiter.forClientId(mClientId, requestsPerSecond, burst), Long.MAX_VALUE);
+    }
+
+    /** @return the rate limiter, or null */
+    public RateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * @param breaker the circuit breaker guarding all hosts, or null to disable
+     */
+    public void setCircuitBreaker(CircuitBreaker breaker) {
+        circuitBreaker = breaker;
+    }
+
+    /** @return the circuit breaker, or null */
+    public CircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Enables hedging: GET and HEAD requests which have not produced a response after a delay
+     * are sent a second time, the first response wins. Hedges run on the {@link #getExecutor executor}.
+     *
+     * @param hedger the hedging settings, or null to disable hedging
+     */
+    public void setRequestHedger(RequestHedger hedger) {
+        requestHedger = hedger;
+    }
+
+    /** @return the request hedger, or null */
+    public RequestHedger getRequestHedger() {
+        return requestHedger;
+    }
+
+    /**
+     * Enables parallel resolution in {@link #resolveStreamUrl(String, boolean)}: the signed stream
+     * URL is requested on the {@link #getExecutor executor} while the metadata is being fetched,
+     * which saves a round trip. If no executor thread picks it up in time, the calling thread
+     * requests it afterwards. The resulting streams and exceptions are the same, but the signed URL
+     * is also requested if fetching the metadata fails.
+     *
+     * @param parallel whether to fetch the metadata and the signed URL at the same time
+     */
+    public void setParallelStreamResolution(boolean parallel) {
+        parallelStreamResolution = parallel;
+    }
+
+    /** @return whether stream metadata and signed URLs are fetched at the same time */
+    public boolean isParallelStreamResolution() {
+        return parallelStreamResolution;
+    }
+
+    /**
+     * Enables coalescing of GET requests: while a request is in flight, identical requests
+     * (same URL, headers and token) wait for it instead of being sent, and receive a copy of its
+     * response. Responses of all GET requests made via {@link #get(Request)} are buffered in memory.
+     *
+     * @param coalesce whether to coalesce identical GET requests
+     */
+    public synchronized void setRequestCoalescing(boolean coalesce) {
+        if (coalesce && inFlight == null) {
+            if (coalescedRequests == null) coalescedRequests = new AtomicLong();
+            inFlight = new ConcurrentHashMap<String, ApiFuture<BufferedResponse>>();
+        } else if (!coalesce) {
+            inFlight = null;
+        }
+    }
+
+    /** @return number of GET requests which were answered with the response of an identical request */
+    public synchronized long getCoalescedRequestCount() {
+        return coalescedRequests == null ? 0 : coalescedRequests.get();
+    }
+
+    /** @return statistics about retries performed */
+    public synchronized RetryStats getRetryStats() {
+        if (statusRetries == null) return new RetryStats(0, 0, 0, 0);
+        return new RetryStats(statusRetries.get(), errorRetries.get(), retriesExhausted.get(), retryDelay.get());
+    }
+
     protected HttpHost determineTarget(HttpUriRequest request) {
         // A null target may be acceptable if there is a default target.
         // Otherwise, the null target is detected in the director.
@@ -712,7 +1858,7 @@ public class ApiWrapper implements CloudAPI, Serializable {
     }
 
     protected HttpUriRequest addEncodingHeader(HttpUriRequest req) {
-        if (getDefaultAcceptEncoding() != null) {
+        if (getDefaultAcceptEncoding() != null && !req.containsHeader("Accept-Encoding")) {
             req.addHeader("Accept-Encoding", getDefaultAcceptEncoding());
         }
         return req;
@@ -0,0 +1,219 @@
+package com.soundcloud.api;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe pool of I/O buffers, organised in power-of-two size classes from
+ * {@link #MIN_SIZE} to {@link #MAX_SIZE}. Larger requests are served with unpooled buffers.
+ * Buffers must be handed back with {@link #release(ByteBuffer)} and not be used afterwards.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  ByteBuffer buffer = BufferPool.DEFAULT.acquire(8192);
+ *  try {
+ *      int n = in.read(buffer.array(), 0, buffer.capacity());
+ *      ...
+ *  } finally {
+ *      BufferPool.DEFAULT.release(buffer);
+ *  }
+ *   </pre>
+ *  </code>
+ */
+public class BufferPool {
+    /** smallest size class */
+    public static final int MIN_SIZE = 2 * 1024;
+    /** largest size class, bigger buffers are not pooled */
+    public static final int MAX_SIZE = 64 * 1024;
+
+    private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE / MIN_SIZE) + 1;
+
+    /** The heap buffer pool shared by all I/O paths in this package, retaining up to 1MB */
+    public static final BufferPool DEFAULT = new BufferPool(1024 * 1024, false);
+
+    private final long mMaxPooledBytes;
+    private final boolean mDirect;
+    private final List<ConcurrentLinkedQueue<ByteBuffer>> mFree;
+    private final AtomicLong mPooledBytes = new AtomicLong();
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mOutstanding = new AtomicLong();
+
+    /** acquisition sites of outstanding buffers, only tracked with leak detection enabled */
+    private volatile Map<ByteBuffer, Throwable> mAcquired;
+
+    /**
+     * @param maxPooledBytes the maximum total capacity of idle buffers retained by the pool
+     * @param direct         whether to allocate direct buffers (without a backing array), only
+     *                       useful for channel I/O
+     */
+    public BufferPool(long maxPooledBytes, boolean direct) {
+        if (maxPooledBytes < 0) throw new IllegalArgumentException("negative maxPooledBytes");
+        mMaxPooledBytes = maxPooledBytes;
+        mDirect = direct;
+        mFree = new ArrayList<ConcurrentLinkedQueue<ByteBuffer>>(CLASSES);
+        for (int i = 0; i < CLASSES; i++) {
+            mFree.add(new ConcurrentLinkedQueue<ByteBuffer>());
+        }
+    }
+
+    /**
+     * @param size the minimum capacity
+     * @return a cleared buffer with at least the requested capacity
+     */
+    public ByteBuffer acquire(int size) {
+        if (size < 0) throw new IllegalArgumentException("negative size");
+        final int sizeClass = sizeClass(size);
+        ByteBuffer buffer = null;
+        if (sizeClass >= 0) {
+            buffer = mFree.get(sizeClass).poll();
+        }
+        if (buffer != null) {
+            mPooledBytes.addAndGet(-buffer.capacity());
+            mHits.incrementAndGet();
+        } else {
+            buffer = allocate(sizeClass >= 0 ? MIN_SIZE << sizeClass : size);
+            mMisses.incrementAndGet();
+        }
+        mOutstanding.incrementAndGet();
+
+        final Map<ByteBuffer, Throwable> acquired = mAcquired;
+        if (acquired != null) {
+            synchronized (acquired) {
+                acquired.put(buffer, new Throwable("buffer of " + buffer.capacity() + " bytes acquired here"));
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool. It is retained if it belongs to a size class and the pool has
+     * room for it, otherwise it is left to the garbage collector.
+     *
+     * @param buffer a buffer obtained from {@link #acquire(int)}, or null
+     * @throws IllegalStateException with leak detection enabled, if the buffer is already back in the pool
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null) return;
+        final Map<ByteBuffer, Throwable> acquired = mAcquired;
+        if (acquired != null) {
+            final boolean tracked;
+            synchronized (acquired) {
+                tracked = acquired.remove(buffer) != null;
+            }
+            // buffers acquired before leak detection was enabled are not tracked
+            if (!tracked && isPooled(buffer)) {
+                throw new IllegalStateException("buffer released twice");
+            }
+        }
+        mOutstanding.decrementAndGet();
+
+        final int capacity = buffer.capacity();
+        final int sizeClass = sizeClass(capacity);
+        if (sizeClass < 0 || capacity != MIN_SIZE << sizeClass || buffer.isDirect() != mDirect) return;
+
+        if (mPooledBytes.addAndGet(capacity) <= mMaxPooledBytes) {
+            buffer.clear();
+            mFree.get(sizeClass).offer(buffer);
+        } else {
+            mPooledBytes.addAndGet(-capacity);
+        }
+    }
+
+    /**
+     * Enables tracking of where outstanding buffers were acquired, for debugging. This slows down
+     * {@link #acquire(int)} considerably and should not be used in production. Only buffers
+     * acquired after enabling it are tracked.
+     *
+     * @param enabled whether to track buffers
+     * @see #checkLeaks()
+     */
+    public void setLeakDetection(boolean enabled) {
+        mAcquired = enabled ? new IdentityHashMap<ByteBuffer, Throwable>() : null;
+    }
+
+    /**
+     * Reports buffers which have been acquired since leak detection was enabled and not yet
+     * released.
+     *
+     * @return the acquisition sites of all outstanding buffers, empty without leak detection
+     */
+    public List<Throwable> checkLeaks() {
+        final Map<ByteBuffer, Throwable> acquired = mAcquired;
+        if (acquired == null) return new ArrayList<Throwable>();
+
+        synchronized (acquired) {
+            return new ArrayList<Throwable>(acquired.values());
+        }
+    }
+
+    /** @return whether the pool hands out direct buffers */
+    public boolean isDirect() {
+        return mDirect;
+    }
+
+    /** @return number of acquisitions served from the pool */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** @return number of acquisitions which required a new allocation */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** @return fraction of acquisitions served from the pool, 0 if there were none */
+    public double getHitRate() {
+        final long hits = mHits.get(), total = hits + mMisses.get();
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    /** @return number of buffers currently acquired and not yet released */
+    public long getOutstandingCount() {
+        return mOutstanding.get();
+    }
+
+    /** @return total capacity of the idle buffers retained by the pool */
+    public long getPooledBytes() {
+        return mPooledBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "BufferPool{" +
+                "direct=" + mDirect +
+                ", hits=" + mHits +
+                ", misses=" + mMisses +
+                ", outstanding=" + mOutstanding +
+                ", pooledBytes=" + mPooledBytes +
+                '}';
+    }
+
+    private boolean isPooled(ByteBuffer buffer) {
+        final int sizeClass = sizeClass(buffer.capacity());
+        if (sizeClass < 0) return false;
+        // ByteBuffer.equals compares contents
+        for (ByteBuffer pooled : mFree.get(sizeClass)) {
+            if (pooled == buffer) return true;
+        }
+        return false;
+    }
+
+    private ByteBuffer allocate(int capacity) {
+        return mDirect ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+
+    /** @return the index of the smallest size class holding size bytes, or -1 if too big */
+    /* package */ static int sizeClass(int size) {
+        if (size > MAX_SIZE) return -1;
+        if (size <= MIN_SIZE) return 0;
+        return 32 - Integer.numberOfLeadingZeros((size - 1) / MIN_SIZE);
+    }
+}
@@ -0,0 +1,78 @@
+package com.soundcloud.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A response read completely into memory, which can be turned into any number of independent
+ * {@link HttpResponse}s.
+ */
+public class BufferedResponse {
+    public final StatusLine statusLine;
+    /** the headers, without those describing the transfer of the original body */
+    public final Header[] headers;
+    /** the body, or null if the response had no entity */
+    public final byte[] body;
+    private final Header mContentType;
+
+    private BufferedResponse(StatusLine statusLine, Header[] headers, byte[] body, Header contentType) {
+        this.statusLine = statusLine;
+        this.headers = headers;
+        this.body = body;
+        mContentType = contentType;
+    }
+
+    /**
+     * Reads the response, and releases its connection.
+     *
+     * @param response the response
+     * @return the buffered response
+     * @throws IOException if reading the body failed
+     */
+    public static BufferedResponse of(HttpResponse response) throws IOException {
+        final List<Header> headers = new ArrayList<Header>();
+        for (Header h : response.getAllHeaders()) {
+            if (!"Content-Length".equalsIgnoreCase(h.getName()) &&
+                !"Content-Encoding".equalsIgnoreCase(h.getName()) &&
+                !"Transfer-Encoding".equalsIgnoreCase(h.getName())) {
+                headers.add(h);
+            }
+        }
+        final HttpEntity entity = response.getEntity();
+        return new BufferedResponse(response.getStatusLine(),
+                headers.toArray(new Header[headers.size()]),
+                entity == null ? null : EntityUtils.toByteArray(entity),
+                entity == null ? null : entity.getContentType());
+    }
+
+    /**
+     * @return a new response with the buffered status, headers and body
+     */
+    public HttpResponse toResponse() {
+        final BasicHttpResponse response = new BasicHttpResponse(statusLine);
+        response.setHeaders(headers);
+        if (body != null) {
+            final ByteArrayEntity entity = new ByteArrayEntity(body);
+            entity.setContentType(mContentType);
+            response.setEntity(entity);
+        }
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return "BufferedResponse{" +
+                "statusLine=" + statusLine +
+                ", size=" + (body == null ? -1 : body.length) +
+                '}';
+    }
+}
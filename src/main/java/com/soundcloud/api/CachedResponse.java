@@ -0,0 +1,63 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+
+/**
+ * A response body stored in a {@link ResponseCache}, together with its validators.
+ */
+public class CachedResponse {
+    /** the <code>ETag</code> of the response, or null */
+    public final String eTag;
+    /** the <code>Last-Modified</code> date of the response, or null */
+    public final String lastModified;
+    public final String contentType;
+    public final byte[] body;
+
+    public CachedResponse(String eTag, String contentType, byte[] body) {
+        this(eTag, null, contentType, body);
+    }
+
+    public CachedResponse(String eTag, String lastModified, String contentType, byte[] body) {
+        if (eTag == null && lastModified == null) throw new IllegalArgumentException("no validator");
+        if (body == null) throw new IllegalArgumentException("body is null");
+        this.eTag = eTag;
+        this.lastModified = lastModified;
+        this.contentType = contentType;
+        this.body = body;
+    }
+
+    /** @return the size of this response in bytes, used for bounding the cache */
+    public int size() {
+        return body.length;
+    }
+
+    /**
+     * @return a new 200 response with the cached body, can be called any number of times
+     */
+    public HttpResponse toResponse() {
+        final BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, HttpStatus.SC_OK, "OK");
+        final ByteArrayEntity entity = new ByteArrayEntity(body);
+        if (contentType != null) {
+            entity.setContentType(contentType);
+            response.addHeader("Content-Type", contentType);
+        }
+        if (eTag != null) response.addHeader("ETag", eTag);
+        if (lastModified != null) response.addHeader("Last-Modified", lastModified);
+        response.setEntity(entity);
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return "CachedResponse{" +
+                "eTag='" + eTag + '\'' +
+                ", lastModified='" + lastModified + '\'' +
+                ", contentType='" + contentType + '\'' +
+                ", size=" + body.length +
+                '}';
+    }
+}
@@ -0,0 +1,246 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpStatus;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per-host circuit breaker, used by {@link ApiWrapper#safeExecute}.
+ * <p/>
+ * Each host starts out {@link State#CLOSED}. After <code>failureThreshold</code> consecutive failures
+ * (network errors, 5xx responses or calls slower than <code>slowCallThreshold</code>) the circuit
+ * opens and requests to the host fail immediately with {@link CloudAPI.CircuitOpenException}.
+ * After <code>openDuration</code> the circuit becomes {@link State#HALF_OPEN} and lets a limited
+ * number of probe requests through: if they all succeed the circuit closes, a single failure
+ * opens it again.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  CircuitBreaker breaker = new CircuitBreaker(5, 10 * 1000, 30 * 1000, 2);
+ *  breaker.setListener(new CircuitBreaker.Listener() { ... });
+ *  wrapper.setCircuitBreaker(breaker);
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setCircuitBreaker(CircuitBreaker)
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    /**
+     * Gets notified of state transitions. Called in the thread executing the request which caused
+     * the transition, implementations should return quickly.
+     */
+    public interface Listener {
+        void onStateChange(HttpHost host, State from, State to);
+    }
+
+    /** consecutive failures which open the circuit */
+    public final int failureThreshold;
+    /** calls taking longer than this many ms count as failures, 0 to disable */
+    public final long slowCallThreshold;
+    /** time in ms the circuit stays open before probing */
+    public final long openDuration;
+    /** number of probe requests in half-open state, all of which need to succeed to close the circuit */
+    public final int probes;
+
+    private final ConcurrentHashMap<HttpHost, Circuit> mCircuits = new ConcurrentHashMap<HttpHost, Circuit>();
+    private volatile Listener mListener;
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mOpened = new AtomicLong();
+
+    /**
+     * @param failureThreshold  consecutive failures which open the circuit
+     * @param slowCallThreshold calls taking longer than this many ms count as failures, 0 to disable
+     * @param openDuration      time in ms the circuit stays open before probing
+     * @param probes            number of probe requests in half-open state
+     */
+    public CircuitBreaker(int failureThreshold, long slowCallThreshold, long openDuration, int probes) {
+        if (failureThreshold < 1) throw new IllegalArgumentException("failureThreshold < 1");
+        if (slowCallThreshold < 0) throw new IllegalArgumentException("negative slowCallThreshold");
+        if (openDuration < 0) throw new IllegalArgumentException("negative openDuration");
+        if (probes < 1) throw new IllegalArgumentException("probes < 1");
+        this.failureThreshold = failureThreshold;
+        this.slowCallThreshold = slowCallThreshold;
+        this.openDuration = openDuration;
+        this.probes = probes;
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    /**
+     * @param host the host
+     * @return the state of the circuit for the host
+     */
+    public State getState(HttpHost host) {
+        final Circuit circuit = mCircuits.get(host);
+        return circuit == null ? State.CLOSED : circuit.getState();
+    }
+
+    /** @return the current state of all hosts seen so far */
+    public Map<HttpHost, State> getStates() {
+        final Map<HttpHost, State> states = new HashMap<HttpHost, State>();
+        for (Map.Entry<HttpHost, Circuit> e : mCircuits.entrySet()) {
+            states.put(e.getKey(), e.getValue().getState());
+        }
+        return states;
+    }
+
+    /** @return number of requests rejected because of an open circuit */
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    /** @return number of times a circuit opened */
+    public long getOpenedCount() {
+        return mOpened.get();
+    }
+
+    /**
+     * Asks for permission to send a request.
+     *
+     * @param host the target host
+     * @return true if the request is a probe of a half-open circuit
+     * @throws CloudAPI.CircuitOpenException if the circuit is open
+     */
+    /* package */ boolean acquire(HttpHost host) throws CloudAPI.CircuitOpenException {
+        final Circuit circuit = circuit(host);
+        final State before, after;
+        final boolean probe;
+        synchronized (circuit) {
+            before = circuit.state;
+            if (circuit.state == State.OPEN && now() - circuit.openedAt >= openDuration) {
+                circuit.state = State.HALF_OPEN;
+                circuit.probesStarted = circuit.probesSucceeded = 0;
+            }
+            if (circuit.state == State.CLOSED) {
+                probe = false;
+            } else if (circuit.state == State.HALF_OPEN && circuit.probesStarted < probes) {
+                circuit.probesStarted++;
+                probe = true;
+            } else {
+                mRejected.incrementAndGet();
+                final long retryIn = circuit.state == State.OPEN ?
+                        Math.max(0, circuit.openedAt + openDuration - now()) : 0;
+                throw new CloudAPI.CircuitOpenException(host.toHostString(), retryIn);
+            }
+            after = circuit.state;
+        }
+        notify(host, before, after);
+        return probe;
+    }
+
+    /**
+     * Records the outcome of a request.
+     *
+     * @param host       the target host
+     * @param probe      the value returned by {@link #acquire}
+     * @param statusCode the response status
+     * @param latency    time in ms until the response was received
+     */
+    /* package */ void completed(HttpHost host, boolean probe, int statusCode, long latency) {
+        if (statusCode >= HttpStatus.SC_INTERNAL_SERVER_ERROR ||
+                (slowCallThreshold > 0 && latency > slowCallThreshold)) {
+            failed(host, probe);
+        } else {
+            final Circuit circuit = circuit(host);
+            final State before, after;
+            synchronized (circuit) {
+                before = circuit.state;
+                circuit.failures = 0;
+                if (probe && circuit.state == State.HALF_OPEN && ++circuit.probesSucceeded >= probes) {
+                    circuit.state = State.CLOSED;
+                }
+                after = circuit.state;
+            }
+            notify(host, before, after);
+        }
+    }
+
+    /**
+     * Records a failed request.
+     *
+     * @param host  the target host
+     * @param probe the value returned by {@link #acquire}
+     */
+    /* package */ void failed(HttpHost host, boolean probe) {
+        final Circuit circuit = circuit(host);
+        final State before, after;
+        synchronized (circuit) {
+            before = circuit.state;
+            circuit.failures++;
+            if ((probe && circuit.state == State.HALF_OPEN) ||
+                    (circuit.state == State.CLOSED && circuit.failures >= failureThreshold)) {
+                circuit.state = State.OPEN;
+                circuit.openedAt = now();
+                mOpened.incrementAndGet();
+            }
+            after = circuit.state;
+        }
+        notify(host, before, after);
+    }
+
+    /**
+     * Gives back a permission which was not used to send a request.
+     *
+     * @param host  the target host
+     * @param probe the value returned by {@link #acquire}
+     */
+    /* package */ void release(HttpHost host, boolean probe) {
+        if (!probe) return;
+        final Circuit circuit = circuit(host);
+        synchronized (circuit) {
+            if (circuit.state == State.HALF_OPEN && circuit.probesStarted > 0) circuit.probesStarted--;
+        }
+    }
+
+    /* package */ long now() {
+        return System.currentTimeMillis();
+    }
+
+    private Circuit circuit(HttpHost host) {
+        Circuit circuit = mCircuits.get(host);
+        if (circuit == null) {
+            final Circuit created = new Circuit();
+            circuit = mCircuits.putIfAbsent(host, created);
+            if (circuit == null) circuit = created;
+        }
+        return circuit;
+    }
+
+    private void notify(HttpHost host, State before, State after) {
+        final Listener listener = mListener;
+        if (before != after && listener != null) {
+            listener.onStateChange(host, before, after);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "CircuitBreaker{" +
+                "failureThreshold=" + failureThreshold +
+                ", slowCallThreshold=" + slowCallThreshold +
+                ", openDuration=" + openDuration +
+                ", probes=" + probes +
+                ", states=" + getStates() +
+                '}';
+    }
+
+    private static class Circuit {
+        State state = State.CLOSED;
+        int failures;
+        long openedAt;
+        int probesStarted, probesSucceeded;
+
+        synchronized State getState() {
+            return state;
+        }
+    }
+}
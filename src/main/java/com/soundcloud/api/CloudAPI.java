@@ -311,4 +311,39 @@ public interface CloudAPI {
             initCause(throwable);
         }
     }
+
+    /**
+     * Thrown if a request would have to wait longer than permitted for the client side rate limit.
+     * @see RateLimiter
+     */
+    class RateLimitException extends IOException {
+        private static final long serialVersionUID = 2863094837609212457L;
+
+        /** time in ms until the request could have been sent */
+        public final long waitTime;
+
+        public RateLimitException(long waitTime) {
+            super("rate limit exceeded, would have to wait " + waitTime + "ms");
+            this.waitTime = waitTime;
+        }
+    }
+
+    /**
+     * Thrown without sending the request if the circuit to the target host is open.
+     * @see CircuitBreaker
+     */
+    class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = -5316298154371950322L;
+
+        /** the host the circuit belongs to */
+        public final String host;
+        /** time in ms until the circuit lets probe requests through */
+        public final long retryIn;
+
+        public CircuitOpenException(String host, long retryIn) {
+            super("circuit open for " + host + ", retry in " + retryIn + "ms");
+            this.host = host;
+            this.retryIn = retryIn;
+        }
+    }
 }
@@ -0,0 +1,39 @@
+package com.soundcloud.api;
+
+/**
+ * Snapshot of connection usage of an {@link ApiWrapper}.
+ *
+ * @see ApiWrapper#getConnectionStats()
+ */
+public class ConnectionStats {
+    /** number of responses received */
+    public final long responses;
+    /** number of new connections opened */
+    public final long connectionsOpened;
+    /** number of responses which announced a keep-alive timeout */
+    public final long keepAliveHints;
+
+    public ConnectionStats(long responses, long connectionsOpened, long keepAliveHints) {
+        this.responses = responses;
+        this.connectionsOpened = connectionsOpened;
+        this.keepAliveHints = keepAliveHints;
+    }
+
+    /**
+     * @return the fraction of responses received over an already established connection, 0 if
+     *         no responses have been received yet
+     */
+    public double reuseRatio() {
+        return responses == 0 ? 0 : Math.max(0, responses - connectionsOpened) / (double) responses;
+    }
+
+    @Override
+    public String toString() {
+        return "ConnectionStats{" +
+                "responses=" + responses +
+                ", connectionsOpened=" + connectionsOpened +
+                ", keepAliveHints=" + keepAliveHints +
+                ", reuseRatio=" + reuseRatio() +
+                '}';
+    }
+}
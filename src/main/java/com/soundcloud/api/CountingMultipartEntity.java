@@ -7,6 +7,7 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
 
 class CountingMultipartEntity implements HttpEntity {
     private HttpEntity mDelegate;
@@ -55,7 +56,7 @@ class CountingMultipartEntity implements HttpEntity {
         mDelegate.writeTo(new CountingOutputStream(outstream, mListener));
     }
 
-    private static class CountingOutputStream extends FilterOutputStream {
+    private static class CountingOutputStream extends FilterOutputStream implements Request.ChannelOutput {
         private final Request.TransferProgressListener mListener;
         private long mTransferred = 0;
 
@@ -77,5 +78,17 @@ class CountingMultipartEntity implements HttpEntity {
             mTransferred++;
             if (mListener != null) mListener.transferred(mTransferred);
         }
+
+        @Override
+        public WritableByteChannel getChannel() throws IOException {
+            return Request.FileChannelBody.channelOf(out);
+        }
+
+        @Override
+        public void transferred(long amount) throws IOException {
+            if (out instanceof Request.ChannelOutput) ((Request.ChannelOutput) out).transferred(amount);
+            mTransferred += amount;
+            if (mListener != null) mListener.transferred(mTransferred);
+        }
     }
 }
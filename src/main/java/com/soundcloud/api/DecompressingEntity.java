@@ -6,6 +6,7 @@ import org.apache.http.entity.HttpEntityWrapper;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
 
 abstract class DecompressingEntity extends HttpEntityWrapper {
     /**
@@ -61,13 +62,15 @@ abstract class DecompressingEntity extends HttpEntityWrapper {
     @Override
     public void writeTo(final OutputStream outstream) throws IOException {
         final InputStream instream = getContent();
+        final ByteBuffer buffer = BufferPool.DEFAULT.acquire(BUFFER_SIZE);
         try {
-            final byte[] buffer = new byte[BUFFER_SIZE];
+            final byte[] bytes = buffer.array();
             int l;
-            while ((l = instream.read(buffer)) != -1) {
-                outstream.write(buffer, 0, l);
+            while ((l = instream.read(bytes, 0, buffer.capacity())) != -1) {
+                outstream.write(bytes, 0, l);
             }
         } finally {
+            BufferPool.DEFAULT.release(buffer);
             instream.close();
         }
     }
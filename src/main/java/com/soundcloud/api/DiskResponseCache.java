@@ -0,0 +1,452 @@
+package com.soundcloud.api;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Persistent second tier for {@link ResponseCache}, so cached responses survive restarts.
+ * <p/>
+ * Responses are appended to fixed-size, memory-mapped segment files. Their locations are kept in an
+ * append-only index journal which is the only thing read at startup, the segments themselves are
+ * mapped the first time a response is read from them. When the size budget is exhausted the oldest
+ * segment is dropped as a whole.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  DiskResponseCache disk = new DiskResponseCache(new File(cacheDir, "api"), 10 * 1024 * 1024);
+ *  wrapper.setResponseCache(new ResponseCache(1024 * 1024, disk));
+ *   </pre>
+ *  </code>
+ */
+public class DiskResponseCache {
+    /** maximum size of a single segment file */
+    public static final int MAX_SEGMENT_SIZE = 1024 * 1024;
+    /* package */ static final String JOURNAL = "journal";
+    /* package */ static final String SEGMENT_PREFIX = "segment-";
+
+    private static final int MAGIC = 0x53434331; // SCC1
+    private static final String PUT = "P", DELETE = "D", EVICT = "E";
+
+    private final File mDirectory;
+    private final int mSegmentSize;
+    private final int mMaxSegments;
+
+    private final LinkedHashMap<String, Location> mIndex = new LinkedHashMap<String, Location>();
+    /** segments, oldest first, mapped on first use (null until then) */
+    private final TreeMap<Integer, MappedByteBuffer> mSegments = new TreeMap<Integer, MappedByteBuffer>();
+    private int mCurrentSegment;
+    private int mWritePosition;
+    private Writer mJournal;
+    private int mJournalEntries;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+    private final AtomicLong mErrors = new AtomicLong();
+
+    /**
+     * @param directory the directory to store responses in, created if necessary
+     * @param maxBytes  the size budget for all segment files
+     * @throws IOException if the cache could not be opened
+     */
+    public DiskResponseCache(File directory, long maxBytes) throws IOException {
+        this(directory, maxBytes, (int) Math.max(4096, Math.min(MAX_SEGMENT_SIZE, maxBytes / 8)));
+    }
+
+    /**
+     * @param directory   the directory to store responses in, created if necessary
+     * @param maxBytes    the size budget for all segment files
+     * @param segmentSize the size of a single segment, responses larger than that are not cached
+     * @throws IOException if the cache could not be opened
+     */
+    public DiskResponseCache(File directory, long maxBytes, int segmentSize) throws IOException {
+        if (segmentSize <= 0 || segmentSize > MAX_SEGMENT_SIZE) {
+            throw new IllegalArgumentException("invalid segmentSize: " + segmentSize);
+        }
+        if (maxBytes < 2L * segmentSize) throw new IllegalArgumentException("maxBytes < 2 * segmentSize");
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create " + directory);
+        }
+        mDirectory = directory;
+        mSegmentSize = segmentSize;
+        mMaxSegments = (int) Math.min(Integer.MAX_VALUE, maxBytes / segmentSize);
+        open();
+    }
+
+    /**
+     * @param key the cache key
+     * @return the stored response, or null
+     */
+    public synchronized CachedResponse get(String key) {
+        final Location location = mIndex.get(key);
+        if (location != null) {
+            try {
+                final CachedResponse response = read(location);
+                mHits.incrementAndGet();
+                return response;
+            } catch (IOException e) {
+                mErrors.incrementAndGet();
+                remove(key);
+            }
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @param key      the cache key
+     * @param response the response to store, ignored if it does not fit into a segment
+     */
+    public synchronized void put(String key, CachedResponse response) {
+        try {
+            final byte[] record = encode(response);
+            if (record.length > mSegmentSize) {
+                remove(key);
+                return;
+            }
+            if (mWritePosition + record.length > mSegmentSize) {
+                startSegment(mCurrentSegment + 1);
+            }
+            final ByteBuffer buffer = segment(mCurrentSegment).duplicate();
+            buffer.position(mWritePosition);
+            buffer.put(record);
+
+            final Location location = new Location(mCurrentSegment, mWritePosition, record.length);
+            mWritePosition += record.length;
+            mIndex.remove(key);
+            mIndex.put(key, location);
+            journal(PUT + '\t' + location.segment + '\t' + location.offset + '\t' + location.length + '\t' + key);
+        } catch (IOException e) {
+            mErrors.incrementAndGet();
+            mIndex.remove(key);
+        }
+    }
+
+    /**
+     * @param key the cache key
+     */
+    public synchronized void remove(String key) {
+        if (mIndex.remove(key) != null) {
+            try {
+                journal(DELETE + '\t' + key);
+            } catch (IOException e) {
+                mErrors.incrementAndGet();
+            }
+        }
+    }
+
+    /** @return the number of stored responses */
+    public synchronized int size() {
+        return mIndex.size();
+    }
+
+    /** @return the number of segment files */
+    public synchronized int getSegmentCount() {
+        return mSegments.size();
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** @return the number of segments dropped to stay within the size budget */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /** @return the number of I/O errors, failed reads are treated as misses */
+    public long getErrorCount() {
+        return mErrors.get();
+    }
+
+    /**
+     * Flushes all data to disk and closes the index journal.
+     * @throws IOException if flushing failed
+     */
+    public synchronized void close() throws IOException {
+        for (MappedByteBuffer segment : mSegments.values()) {
+            if (segment != null) segment.force();
+        }
+        if (mJournal != null) {
+            mJournal.close();
+            mJournal = null;
+        }
+    }
+
+    private void open() throws IOException {
+        final Map<Integer, Integer> highWater = new TreeMap<Integer, Integer>();
+        final File journal = new File(mDirectory, JOURNAL);
+        if (journal.exists()) {
+            mJournalEntries = readJournal(journal, highWater);
+        }
+        // segment files nobody refers to are left over from a crash
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                final int id = segmentId(f);
+                if (id >= 0 && !highWater.containsKey(id)) {
+                    //noinspection ResultOfMethodCallIgnored
+                    f.delete();
+                }
+            }
+        }
+        for (Integer id : highWater.keySet()) {
+            mSegments.put(id, null);
+        }
+        openJournal(journal);
+
+        if (mSegments.isEmpty()) {
+            startSegment(0);
+        } else if (segmentFile(mSegments.lastKey()).exists()) {
+            mCurrentSegment = mSegments.lastKey();
+            mWritePosition = highWater.get(mCurrentSegment);
+        } else {
+            startSegment(mSegments.lastKey() + 1);
+        }
+    }
+
+    /** @return the number of lines read */
+    private int readJournal(File journal, Map<Integer, Integer> highWater) throws IOException {
+        final BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journal), Request.UTF_8));
+        int lines = 0;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines++;
+                final String[] parts = line.split("\t", 5);
+                try {
+                    if (PUT.equals(parts[0]) && parts.length == 5) {
+                        final Location l = new Location(Integer.parseInt(parts[1]),
+                                Integer.parseInt(parts[2]), Integer.parseInt(parts[3]));
+                        if (l.offset < 0 || l.length <= 0 || l.offset + l.length > mSegmentSize) continue;
+                        mIndex.remove(parts[4]);
+                        mIndex.put(parts[4], l);
+                        final Integer mark = highWater.get(l.segment);
+                        highWater.put(l.segment, Math.max(mark == null ? 0 : mark, l.offset + l.length));
+                    } else if (DELETE.equals(parts[0]) && parts.length == 2) {
+                        mIndex.remove(parts[1]);
+                    } else if (EVICT.equals(parts[0]) && parts.length == 2) {
+                        final int segment = Integer.parseInt(parts[1]);
+                        dropIndexEntries(segment);
+                        highWater.remove(segment);
+                    }
+                } catch (NumberFormatException ignored) {
+                    // truncated line, written during a crash
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private void openJournal(File journal) throws IOException {
+        // a line cut short by a crash must not swallow the next entry
+        boolean terminated = true;
+        if (journal.length() > 0) {
+            final RandomAccessFile file = new RandomAccessFile(journal, "r");
+            try {
+                file.seek(file.length() - 1);
+                terminated = file.read() == '\n';
+            } finally {
+                file.close();
+            }
+        }
+        mJournal = new OutputStreamWriter(new FileOutputStream(journal, true), Request.UTF_8);
+        if (!terminated) {
+            mJournal.write('\n');
+            mJournal.flush();
+        }
+    }
+
+    private void rewriteJournal() throws IOException {
+        if (mJournal != null) mJournal.close();
+        final File tmp = new File(mDirectory, JOURNAL + ".tmp");
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), Request.UTF_8);
+        try {
+            for (Map.Entry<String, Location> e : mIndex.entrySet()) {
+                final Location l = e.getValue();
+                writer.write(PUT + '\t' + l.segment + '\t' + l.offset + '\t' + l.length + '\t' + e.getKey() + '\n');
+            }
+        } finally {
+            writer.close();
+        }
+        final File journal = new File(mDirectory, JOURNAL);
+        if (!tmp.renameTo(journal)) {
+            //noinspection ResultOfMethodCallIgnored
+            journal.delete();
+            if (!tmp.renameTo(journal)) throw new IOException("could not rename " + tmp);
+        }
+        openJournal(journal);
+        mJournalEntries = mIndex.size();
+    }
+
+    private void journal(String line) throws IOException {
+        if (mJournal == null) throw new IOException("cache is closed");
+        mJournal.write(line + '\n');
+        mJournal.flush();
+        if (++mJournalEntries > 2 * mIndex.size() + 1000) {
+            rewriteJournal();
+        }
+    }
+
+    private void startSegment(int id) throws IOException {
+        while (mSegments.size() >= mMaxSegments) {
+            final int oldest = mSegments.firstKey();
+            mSegments.remove(oldest);
+            dropIndexEntries(oldest);
+            journal(EVICT + '\t' + oldest);
+            //noinspection ResultOfMethodCallIgnored
+            segmentFile(oldest).delete();
+            mEvictions.incrementAndGet();
+        }
+        final File file = segmentFile(id);
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+        mSegments.put(id, map(id));
+        mCurrentSegment = id;
+        mWritePosition = 0;
+    }
+
+    private void dropIndexEntries(int segment) {
+        for (Iterator<Location> it = mIndex.values().iterator(); it.hasNext(); ) {
+            if (it.next().segment == segment) it.remove();
+        }
+    }
+
+    /** @return the mapped segment, mapping it if this is the first use */
+    private MappedByteBuffer segment(int id) throws IOException {
+        MappedByteBuffer segment = mSegments.get(id);
+        if (segment == null) {
+            if (!mSegments.containsKey(id) || !segmentFile(id).exists()) {
+                throw new IOException("missing segment " + id);
+            }
+            segment = map(id);
+            mSegments.put(id, segment);
+        }
+        return segment;
+    }
+
+    private MappedByteBuffer map(int id) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(segmentFile(id), "rw");
+        try {
+            file.setLength(mSegmentSize);
+            // the mapping stays valid after the channel is closed
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentSize);
+        } finally {
+            file.close();
+        }
+    }
+
+    private CachedResponse read(Location location) throws IOException {
+        final ByteBuffer buffer = segment(location.segment).duplicate();
+        buffer.position(location.offset);
+        buffer.limit(location.offset + location.length);
+        try {
+            if (buffer.getInt() != MAGIC) throw new IOException("corrupt record");
+            final String eTag = readString(buffer);
+            final String lastModified = readString(buffer);
+            final String contentType = readString(buffer);
+            final int length = buffer.getInt();
+            if (length != buffer.remaining()) throw new IOException("corrupt record");
+            final byte[] body = new byte[length];
+            buffer.get(body);
+            return new CachedResponse(eTag, lastModified, contentType, body);
+        } catch (BufferUnderflowException e) {
+            throw new IOException("corrupt record");
+        } catch (IllegalArgumentException e) {
+            throw new IOException("corrupt record");
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        final int length = buffer.getInt();
+        if (length < 0) return null;
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, Request.UTF_8);
+    }
+
+    private static byte[] encode(CachedResponse response) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(response.size() + 256);
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(MAGIC);
+        writeString(out, response.eTag);
+        writeString(out, response.lastModified);
+        writeString(out, response.contentType);
+        out.writeInt(response.body.length);
+        out.write(response.body);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = s.getBytes(Request.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private File segmentFile(int id) {
+        return new File(mDirectory, SEGMENT_PREFIX + id);
+    }
+
+    private static int segmentId(File file) {
+        final String name = file.getName();
+        if (!name.startsWith(SEGMENT_PREFIX)) return -1;
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "DiskResponseCache{" +
+                "directory=" + mDirectory +
+                ", size=" + size() +
+                ", segments=" + getSegmentCount() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                '}';
+    }
+
+    private static class Location {
+        final int segment, offset, length;
+
+        Location(int segment, int offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+package com.soundcloud.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Date;
+import java.util.Properties;
+
+/**
+ * Downloads streams to files, resuming partial files instead of starting over. A partial file is
+ * continued from its current length with <code>Range</code> and <code>If-Range</code>, using the
+ * validator (ETag, or Last-Modified) of the bytes already downloaded. If the object has changed in
+ * the meantime the server sends it in full and the file is rewritten from the start.
+ *
+ * The validator of each download is stored in a small state file, so that downloads also resume
+ * after the process has been restarted (with a freshly resolved {@link Stream}, since stream urls
+ * expire). A failed download is resumed by calling {@link #download} again.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  DownloadManager downloads = new DownloadManager(wrapper, new File(cacheDir, "downloads"));
+ *  Stream stream = wrapper.resolveStreamUrl("https://api.soundcloud.com/tracks/1234/stream", true);
+ *  downloads.download(stream, new File(musicDir, "1234.mp3"), null);
+ *   </pre>
+ *  </code>
+ */
+public class DownloadManager {
+    private static final String STATE_SUFFIX = ".download";
+
+    private static final String URL           = "url";
+    private static final String ETAG          = "eTag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String LENGTH        = "contentLength";
+
+    private final CloudAPI mApi;
+    private final File mStateDir;
+
+    /**
+     * @param api      the api wrapper used to send the requests
+     * @param stateDir directory holding the state of all downloads, created if necessary
+     */
+    public DownloadManager(CloudAPI api, File stateDir) {
+        if (api == null) throw new IllegalArgumentException("api is null");
+        if (stateDir == null) throw new IllegalArgumentException("stateDir is null");
+        mApi = api;
+        mStateDir = stateDir;
+    }
+
+    /**
+     * Downloads a stream to a file, or the rest of it if the file contains the beginning of the
+     * same object. Does nothing if the file has already been downloaded completely.
+     *
+     * @param stream   the resolved stream
+     * @param target   the file to write
+     * @param listener notified with the number of bytes in the file as the download progresses, or null
+     * @return the number of bytes transferred
+     * @throws IOException network or file errors, {@link CloudAPI.ApiResponseException} if the
+     *                     server responds in error
+     */
+    public long download(Stream stream, File target, Request.TransferProgressListener listener) throws IOException {
+        final Properties state = readState(target);
+        long offset = target.length();
+        if (state == null || !matches(state, stream) || offset > stream.contentLength) {
+            // no idea what the file contains
+            offset = 0;
+        } else if (offset == stream.contentLength) {
+            return 0;
+        }
+
+        final HttpGet request = new HttpGet(stream.streamUrl);
+        if (offset > 0) {
+            request.addHeader("Range", Request.formatRange(offset));
+            request.addHeader("If-Range", validator(state));
+        }
+        final HttpResponse resp = mApi.safeExecute(null, request);
+        final int status = resp.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_PARTIAL_CONTENT && offset > 0) {
+            if (rangeStart(resp) != offset) {
+                if (resp.getEntity() != null) resp.getEntity().consumeContent();
+                throw new CloudAPI.ApiResponseException(resp, "expected range starting at " + offset);
+            }
+        } else if (status == HttpStatus.SC_OK) {
+            // a new download, or the object has changed and gets sent in full:
+            // remember what is about to be written before writing it
+            offset = 0;
+            final long length = resp.getEntity().getContentLength();
+            writeState(target, stream.url, header(resp, "ETag"), dateHeader(resp, "Last-Modified"),
+                    length < 0 ? stream.contentLength : length);
+        } else if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+            if (resp.getEntity() != null) resp.getEntity().consumeContent();
+            // the file doesn't belong to the object after all
+            deleteState(target);
+            if (!target.delete()) throw new IOException("could not delete " + target);
+            return download(stream, target, listener);
+        } else {
+            if (resp.getEntity() != null) resp.getEntity().consumeContent();
+            throw new CloudAPI.ApiResponseException(resp, "could not download " + stream.url);
+        }
+        return write(request, resp, target, offset, listener);
+    }
+
+    /**
+     * Removes the state of a download. The file itself is not touched, but will be downloaded
+     * again from the start.
+     *
+     * @param target the downloaded file
+     * @return true if there was state to remove
+     */
+    public boolean remove(File target) {
+        return deleteState(target);
+    }
+
+    private long write(HttpGet request, HttpResponse resp, File target, long offset,
+                       Request.TransferProgressListener listener) throws IOException {
+        final RandomAccessFile file = new RandomAccessFile(target, "rw");
+        final InputStream in = resp.getEntity().getContent();
+        final ByteBuffer buffer = BufferPool.DEFAULT.acquire(Request.FileChannelBody.COPY_BUFFER_SIZE);
+        final long expected = resp.getEntity().getContentLength();
+        long position = offset;
+        boolean complete = false;
+        try {
+            final FileChannel out = file.getChannel();
+            out.truncate(offset);
+            int n;
+            while ((n = in.read(buffer.array(), 0, buffer.capacity())) != -1) {
+                buffer.clear();
+                buffer.limit(n);
+                while (buffer.hasRemaining()) {
+                    position += out.write(buffer, position);
+                }
+                if (listener != null) listener.transferred(position);
+            }
+            if (expected >= 0 && position - offset < expected) {
+                throw new EOFException("response ended after " + (position - offset) + " of " + expected + " bytes");
+            }
+            out.force(false);
+            complete = true;
+        } finally {
+            BufferPool.DEFAULT.release(buffer);
+            file.close();
+            if (complete) {
+                in.close();
+            } else {
+                request.abort();
+            }
+        }
+        return position - offset;
+    }
+
+    private static boolean matches(Properties state, Stream stream) {
+        if (!stream.url.equals(state.getProperty(URL)) ||
+            !String.valueOf(stream.contentLength).equals(state.getProperty(LENGTH))) return false;
+        final String eTag = state.getProperty(ETAG);
+        if (eTag != null && stream.eTag != null) {
+            return eTag.equals(stream.eTag);
+        } else {
+            return validator(state) != null &&
+                   String.valueOf(stream.lastModified).equals(state.getProperty(LAST_MODIFIED));
+        }
+    }
+
+    /** @return the value for <code>If-Range</code>: the ETag, or else the Last-Modified date */
+    private static String validator(Properties state) {
+        final String eTag = state.getProperty(ETAG);
+        if (eTag != null) return eTag;
+        final long lastModified = Long.parseLong(state.getProperty(LAST_MODIFIED, "0"));
+        return lastModified > 0 ? DateUtils.formatDate(new Date(lastModified)) : null;
+    }
+
+    /** @return the first byte position from <code>Content-Range: bytes start-end/length</code>, or -1 */
+    private static long rangeStart(HttpResponse resp) {
+        final String range = header(resp, "Content-Range");
+        if (range == null || !range.startsWith("bytes ")) return -1;
+        final int dash = range.indexOf('-');
+        try {
+            return dash < 0 ? -1 : Long.parseLong(range.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String header(HttpResponse resp, String name) {
+        final Header header = resp.getFirstHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    private static long dateHeader(HttpResponse resp, String name) {
+        final String value = header(resp, name);
+        try {
+            return value == null ? 0 : DateUtils.parseDate(value).getTime();
+        } catch (DateParseException e) {
+            return 0;
+        }
+    }
+
+    private File stateFile(File target) {
+        return new File(mStateDir, ResponseCache.sha1(target.getAbsolutePath()) + STATE_SUFFIX);
+    }
+
+    private Properties readState(File target) {
+        final File file = stateFile(target);
+        if (!file.exists()) return null;
+        final Properties state = new Properties();
+        try {
+            final InputStream in = new FileInputStream(file);
+            try {
+                state.load(in);
+            } finally {
+                in.close();
+            }
+            return state;
+        } catch (IOException e) {
+            // unreadable, start over
+            return null;
+        }
+    }
+
+    private void writeState(File target, String url, String eTag, long lastModified, long length)
+            throws IOException {
+        final Properties state = new Properties();
+        state.setProperty(URL, url);
+        if (eTag != null) state.setProperty(ETAG, eTag);
+        state.setProperty(LAST_MODIFIED, String.valueOf(lastModified));
+        state.setProperty(LENGTH, String.valueOf(length));
+
+        if (!mStateDir.isDirectory() && !mStateDir.mkdirs()) {
+            throw new IOException("could not create " + mStateDir);
+        }
+        // write a copy first, the state must never be left half written
+        final File file = stateFile(target);
+        final File tmp = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            state.store(out, target.getAbsolutePath());
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            file.delete();
+            if (!tmp.renameTo(file)) throw new IOException("could not write " + file);
+        }
+    }
+
+    private boolean deleteState(File target) {
+        return stateFile(target).delete();
+    }
+}
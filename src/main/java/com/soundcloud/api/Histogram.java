@@ -0,0 +1,117 @@
+package com.soundcloud.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with logarithmic buckets, similar to
+ * <a href="http://hdrhistogram.org/">HdrHistogram</a>. Values below 128 are counted exactly,
+ * larger values with a relative error of less than 1.6%. Values above {@link #MAX_VALUE} are
+ * counted as {@link #MAX_VALUE}.
+ */
+public class Histogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF_SUB_BUCKETS = SUB_BUCKETS / 2;
+
+    /** largest value which can be recorded */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    private final AtomicLongArray mCounts = new AtomicLongArray(index(MAX_VALUE) + 1);
+    private final AtomicLong mCount = new AtomicLong();
+    private final AtomicLong mSum = new AtomicLong();
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * @param value the value to record, negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        if (value > MAX_VALUE) value = MAX_VALUE;
+
+        mCounts.incrementAndGet(index(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max;
+        while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+            // retry
+        }
+    }
+
+    /** @return number of recorded values */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /** @return largest recorded value, 0 if empty */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /** @return mean of the recorded values, 0 if empty */
+    public double getMean() {
+        final long count = mCount.get();
+        return count == 0 ? 0 : mSum.get() / (double) count;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the value below or at which the given percentage of values fall, 0 if empty
+     */
+    public long getValueAtPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("invalid percentile");
+
+        final long count = mCount.get();
+        if (count == 0) return 0;
+
+        final long target = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < mCounts.length(); i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /** Removes all recorded values. Not atomic with respect to concurrent recording. */
+    public void reset() {
+        for (int i = 0; i < mCounts.length(); i++) {
+            mCounts.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "Histogram{" +
+                "count=" + getCount() +
+                ", mean=" + getMean() +
+                ", p50=" + getValueAtPercentile(50) +
+                ", p95=" + getValueAtPercentile(95) +
+                ", p99=" + getValueAtPercentile(99) +
+                ", max=" + getMax() +
+                '}';
+    }
+
+    /* package */ static int index(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        // shift so that the value falls into the upper half of the sub buckets
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS + 1;
+        return SUB_BUCKETS + (shift - 1) * HALF_SUB_BUCKETS + (int) (value >> shift) - HALF_SUB_BUCKETS;
+    }
+
+    /* package */ static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        final int shift = (index - SUB_BUCKETS) / HALF_SUB_BUCKETS + 1;
+        final long mantissa = (index - SUB_BUCKETS) % HALF_SUB_BUCKETS + HALF_SUB_BUCKETS;
+        return mantissa << shift;
+    }
+
+    /* package */ static long highestEquivalentValue(int index) {
+        return lowestEquivalentValue(index + 1) - 1;
+    }
+}
@@ -0,0 +1,131 @@
+package com.soundcloud.api;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * In-memory metrics: request counts, status classes and latency histograms (in microseconds)
+ * per method and endpoint template.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  HistogramMetrics metrics = new HistogramMetrics();
+ *  wrapper.setMetricsSink(metrics);
+ *  ...
+ *  HistogramMetrics.Endpoint tracks = metrics.getEndpoint("GET /tracks/%d");
+ *  long p99 = tracks.total.getValueAtPercentile(99);
+ *   </pre>
+ *  </code>
+ */
+public class HistogramMetrics implements MetricsSink {
+    private final ConcurrentMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<String, Endpoint>();
+
+    @Override
+    public void record(RequestTimings timings) {
+        final String key = timings.getMethod() + " " + timings.getEndpoint();
+        Endpoint endpoint = mEndpoints.get(key);
+        if (endpoint == null) {
+            final Endpoint created = new Endpoint();
+            endpoint = mEndpoints.putIfAbsent(key, created);
+            if (endpoint == null) endpoint = created;
+        }
+        endpoint.record(timings);
+    }
+
+    /** @return the recorded endpoints, in the form <code>METHOD /path/template</code> */
+    public Set<String> getEndpoints() {
+        return Collections.unmodifiableSet(new TreeSet<String>(mEndpoints.keySet()));
+    }
+
+    /**
+     * @param endpoint the endpoint, e.g. <code>GET /tracks/%d</code>
+     * @return the metrics of the endpoint, or null if no requests have been recorded
+     */
+    public Endpoint getEndpoint(String endpoint) {
+        return mEndpoints.get(endpoint);
+    }
+
+    /** Removes all recorded metrics */
+    public void reset() {
+        mEndpoints.clear();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (String endpoint : getEndpoints()) {
+            sb.append(endpoint).append(": ").append(getEndpoint(endpoint)).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Metrics of a single endpoint, all histograms are in microseconds.
+     */
+    public static class Endpoint {
+        public final Histogram poolWait = new Histogram();
+        public final Histogram connect = new Histogram();
+        public final Histogram timeToFirstByte = new Histogram();
+        public final Histogram bodyRead = new Histogram();
+        public final Histogram total = new Histogram();
+
+        private final AtomicLong mCount = new AtomicLong();
+        // index 0: failed requests, 1-5: status classes 1xx-5xx
+        private final AtomicLongArray mStatusClasses = new AtomicLongArray(6);
+
+        void record(RequestTimings t) {
+            mCount.incrementAndGet();
+            final int statusClass = t.getStatusCode() / 100;
+            mStatusClasses.incrementAndGet(statusClass >= 1 && statusClass <= 5 ? statusClass : 0);
+
+            poolWait.record(micros(t.getPoolWait()));
+            connect.record(micros(t.getConnect()));
+            timeToFirstByte.record(micros(t.getTimeToFirstByte()));
+            bodyRead.record(micros(t.getBodyRead()));
+            total.record(micros(t.getTotal()));
+        }
+
+        /** @return number of requests */
+        public long getCount() {
+            return mCount.get();
+        }
+
+        /**
+         * @param statusClass the status class, 1-5 (e.g. 2 for all 2xx responses)
+         * @return number of responses in this class
+         */
+        public long getStatusClassCount(int statusClass) {
+            if (statusClass < 1 || statusClass > 5) throw new IllegalArgumentException("invalid status class");
+            return mStatusClasses.get(statusClass);
+        }
+
+        /** @return number of requests which failed without a response */
+        public long getFailureCount() {
+            return mStatusClasses.get(0);
+        }
+
+        @Override
+        public String toString() {
+            return "Endpoint{" +
+                    "count=" + getCount() +
+                    ", 2xx=" + mStatusClasses.get(2) +
+                    ", 3xx=" + mStatusClasses.get(3) +
+                    ", 4xx=" + mStatusClasses.get(4) +
+                    ", 5xx=" + mStatusClasses.get(5) +
+                    ", failures=" + getFailureCount() +
+                    ", total=" + total +
+                    '}';
+        }
+
+        private static long micros(long nanos) {
+            return TimeUnit.NANOSECONDS.toMicros(nanos);
+        }
+    }
+}
@@ -1,54 +1,147 @@
 package com.soundcloud.api;
 
 import org.apache.http.Header;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.protocol.HTTP;
+import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 
 /**
  * Helper class for various HTTP related functions.
  */
 public class Http {
+    private static final Charset UTF_8 = Charset.forName(Request.UTF_8);
+
     private Http() {
     }
 
+    /** upper limit in bytes for buffers pre-sized from the (untrusted) content length */
+    /* package */ static final int MAX_INITIAL_CAPACITY = 64 * 1024;
+
     /**
-     * Returns a String representation of the response
+     * Returns a String representation of the response, decoded with the charset given in
+     * <code>Content-Type</code>, or UTF-8. Malformed input is replaced, not rejected.
      *
      * @param response an HTTP response
-     * @return the content body
+     * @return the content body, or null if the response has no body
      * @throws IOException network error
      */
     public static String getString(HttpResponse response) throws IOException {
-        InputStream is = response.getEntity().getContent();
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) return null;
+        final InputStream is = entity.getContent();
         if (is == null) return null;
+        try {
+            return decode(is, getCharset(entity), initialCapacity(entity.getContentLength()));
+        } finally {
+            is.close();
+        }
+    }
 
-        int length = ApiWrapper.BUFFER_SIZE;
-        Header contentLength = null;
+    /**
+     * Returns the raw body of the response.
+     *
+     * @param response an HTTP response
+     * @return the content body, or null if the response has no body
+     * @throws IOException network error
+     */
+    public static byte[] getBytes(HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) return null;
+        final InputStream is = entity.getContent();
+        if (is == null) return null;
         try {
-            contentLength = response.getFirstHeader(HTTP.CONTENT_LEN);
-        } catch (UnsupportedOperationException ignored) {
+            final ByteArrayOutputStream bos = new ByteArrayOutputStream(initialCapacity(entity.getContentLength()));
+            final ByteBuffer buffer = BufferPool.DEFAULT.acquire(ApiWrapper.BUFFER_SIZE);
+            try {
+                final byte[] bytes = buffer.array();
+                int n;
+                while ((n = is.read(bytes, 0, buffer.capacity())) != -1) bos.write(bytes, 0, n);
+            } finally {
+                BufferPool.DEFAULT.release(buffer);
+            }
+            return bos.toByteArray();
+        } finally {
+            is.close();
         }
+    }
 
-        if (contentLength != null) {
+    /**
+     * @param entity the entity
+     * @return the charset declared in <code>Content-Type</code>, UTF-8 if missing or unsupported
+     */
+    public static Charset getCharset(HttpEntity entity) {
+        final String name = EntityUtils.getContentCharSet(entity);
+        if (name != null) {
             try {
-                length = Integer.parseInt(contentLength.getValue());
-            } catch (NumberFormatException ignored) {
+                return Charset.forName(name);
+            } catch (IllegalCharsetNameException ignored) {
+            } catch (UnsupportedCharsetException ignored) {
             }
         }
+        return UTF_8;
+    }
 
-        final StringBuilder sb = new StringBuilder(length);
-        int n;
-        byte[] buffer = new byte[ApiWrapper.BUFFER_SIZE];
-        while ((n = is.read(buffer)) != -1) sb.append(new String(buffer, 0, n));
+    /* package */ static String decode(InputStream is, Charset charset, int capacity) throws IOException {
+        final CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        final StringBuilder sb = new StringBuilder(capacity);
+        final ByteBuffer in = BufferPool.DEFAULT.acquire(ApiWrapper.BUFFER_SIZE);
+        final CharBuffer out = CharBuffer.allocate(ApiWrapper.BUFFER_SIZE);
+        try {
+            int n;
+            while ((n = is.read(in.array(), in.position(), in.remaining())) != -1) {
+                in.position(in.position() + n);
+                in.flip();
+                decode(decoder, in, out, sb, false);
+                // keeps incomplete multi-byte sequences for the next round
+                in.compact();
+            }
+            in.flip();
+            decode(decoder, in, out, sb, true);
+        } finally {
+            BufferPool.DEFAULT.release(in);
+        }
+        while (decoder.flush(out).isOverflow()) {
+            drain(out, sb);
+        }
+        drain(out, sb);
         return sb.toString();
     }
 
+    private static void decode(CharsetDecoder decoder, ByteBuffer in, CharBuffer out, StringBuilder sb,
+                               boolean endOfInput) {
+        CoderResult result;
+        do {
+            result = decoder.decode(in, out, endOfInput);
+            drain(out, sb);
+        } while (result.isOverflow());
+    }
+
+    private static void drain(CharBuffer out, StringBuilder sb) {
+        sb.append(out.array(), 0, out.position());
+        out.clear();
+    }
+
+    private static int initialCapacity(long contentLength) {
+        return contentLength < 0 ? ApiWrapper.BUFFER_SIZE : (int) Math.min(contentLength, MAX_INITIAL_CAPACITY);
+    }
+
     public static JSONObject getJSON(HttpResponse response) throws IOException {
         final String json = getString(response);
         if (json == null || json.length() == 0) throw new IOException("JSON response is empty");
@@ -0,0 +1,194 @@
+package com.soundcloud.api;
+
+import org.apache.http.conn.params.ConnPerRouteBean;
+
+import java.io.Serializable;
+
+/**
+ * Immutable HTTP connection settings used by {@link ApiWrapper}.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  HttpConfig config = HttpConfig.DEFAULT
+ *      .withMaxTotalConnections(50)
+ *      .withMaxConnectionsPerApiRoute(50)
+ *      .withReadTimeout(5000);
+ *  ApiWrapper wrapper = new ApiWrapper("client_id", "client_secret", null, null, config);
+ *   </pre>
+ *  </code>
+ */
+public class HttpConfig implements Serializable {
+    private static final long serialVersionUID = -3237467587335563716L;
+
+    /** The default settings */
+    public static final HttpConfig DEFAULT = new Builder().build();
+
+    /** maximum number of connections, over all hosts */
+    public final int maxTotalConnections;
+    /** maximum number of connections to the API host */
+    public final int maxConnectionsPerApiRoute;
+    /** maximum number of connections to any other host (e.g. stream hosts) */
+    public final int maxConnectionsPerRoute;
+    /** timeout in ms until a connection is established */
+    public final int connectTimeout;
+    /** socket timeout in ms when waiting for data */
+    public final int readTimeout;
+    /** socket buffer size in bytes */
+    public final int socketBufferSize;
+    /** time in ms idle connections to the API host are kept alive, unless the server says otherwise */
+    public final long keepAliveTimeout;
+    /** time in ms idle connections to other hosts (e.g. stream CDNs) are kept alive, unless the server says otherwise */
+    public final long streamKeepAliveTimeout;
+    /** interval in ms in which idle and expired connections are evicted, 0 to disable eviction */
+    public final long evictionInterval;
+    /** time in ms after which unused connections get evicted */
+    public final long maxIdleTime;
+
+    private HttpConfig(Builder b) {
+        if (b.maxTotalConnections < 1) throw new IllegalArgumentException("maxTotalConnections < 1");
+        if (b.maxConnectionsPerApiRoute < 1) throw new IllegalArgumentException("maxConnectionsPerApiRoute < 1");
+        if (b.maxConnectionsPerRoute < 1) throw new IllegalArgumentException("maxConnectionsPerRoute < 1");
+        if (b.connectTimeout < 0) throw new IllegalArgumentException("negative connectTimeout");
+        if (b.readTimeout < 0) throw new IllegalArgumentException("negative readTimeout");
+        if (b.socketBufferSize < 1) throw new IllegalArgumentException("socketBufferSize < 1");
+        if (b.keepAliveTimeout < 0) throw new IllegalArgumentException("negative keepAliveTimeout");
+        if (b.streamKeepAliveTimeout < 0) throw new IllegalArgumentException("negative streamKeepAliveTimeout");
+        if (b.evictionInterval < 0) throw new IllegalArgumentException("negative evictionInterval");
+        if (b.maxIdleTime < 0) throw new IllegalArgumentException("negative maxIdleTime");
+
+        maxTotalConnections = b.maxTotalConnections;
+        maxConnectionsPerApiRoute = b.maxConnectionsPerApiRoute;
+        maxConnectionsPerRoute = b.maxConnectionsPerRoute;
+        connectTimeout = b.connectTimeout;
+        readTimeout = b.readTimeout;
+        socketBufferSize = b.socketBufferSize;
+        keepAliveTimeout = b.keepAliveTimeout;
+        streamKeepAliveTimeout = b.streamKeepAliveTimeout;
+        evictionInterval = b.evictionInterval;
+        maxIdleTime = b.maxIdleTime;
+    }
+
+    public HttpConfig withMaxTotalConnections(int max) {
+        Builder b = new Builder(this);
+        b.maxTotalConnections = max;
+        return b.build();
+    }
+
+    public HttpConfig withMaxConnectionsPerApiRoute(int max) {
+        Builder b = new Builder(this);
+        b.maxConnectionsPerApiRoute = max;
+        return b.build();
+    }
+
+    public HttpConfig withMaxConnectionsPerRoute(int max) {
+        Builder b = new Builder(this);
+        b.maxConnectionsPerRoute = max;
+        return b.build();
+    }
+
+    public HttpConfig withConnectTimeout(int timeout) {
+        Builder b = new Builder(this);
+        b.connectTimeout = timeout;
+        return b.build();
+    }
+
+    public HttpConfig withReadTimeout(int timeout) {
+        Builder b = new Builder(this);
+        b.readTimeout = timeout;
+        return b.build();
+    }
+
+    public HttpConfig withSocketBufferSize(int size) {
+        Builder b = new Builder(this);
+        b.socketBufferSize = size;
+        return b.build();
+    }
+
+    /**
+     * @param timeout keep-alive in ms for connections to the API host, used when the response
+     *                does not contain a <code>Keep-Alive</code> header
+     * @return the new config
+     */
+    public HttpConfig withKeepAliveTimeout(long timeout) {
+        Builder b = new Builder(this);
+        b.keepAliveTimeout = timeout;
+        return b.build();
+    }
+
+    /**
+     * @param timeout keep-alive in ms for connections to all other hosts, used when the response
+     *                does not contain a <code>Keep-Alive</code> header
+     * @return the new config
+     */
+    public HttpConfig withStreamKeepAliveTimeout(long timeout) {
+        Builder b = new Builder(this);
+        b.streamKeepAliveTimeout = timeout;
+        return b.build();
+    }
+
+    /**
+     * Enables background eviction of idle and expired connections. This avoids running into
+     * connections closed by the server after a quiet period (stale checking is disabled).
+     *
+     * @param interval    interval in ms between eviction runs, 0 to disable
+     * @param maxIdleTime time in ms after which unused connections get evicted
+     * @return the new config
+     * @see IdleConnectionReaper
+     */
+    public HttpConfig withConnectionEviction(long interval, long maxIdleTime) {
+        Builder b = new Builder(this);
+        b.evictionInterval = interval;
+        b.maxIdleTime = maxIdleTime;
+        return b.build();
+    }
+
+    @Override
+    public String toString() {
+        return "HttpConfig{" +
+                "maxTotalConnections=" + maxTotalConnections +
+                ", maxConnectionsPerApiRoute=" + maxConnectionsPerApiRoute +
+                ", maxConnectionsPerRoute=" + maxConnectionsPerRoute +
+                ", connectTimeout=" + connectTimeout +
+                ", readTimeout=" + readTimeout +
+                ", socketBufferSize=" + socketBufferSize +
+                ", keepAliveTimeout=" + keepAliveTimeout +
+                ", streamKeepAliveTimeout=" + streamKeepAliveTimeout +
+                ", evictionInterval=" + evictionInterval +
+                ", maxIdleTime=" + maxIdleTime +
+                '}';
+    }
+
+    private static class Builder {
+        int maxTotalConnections = ApiWrapper.MAX_TOTAL_CONNECTIONS;
+        int maxConnectionsPerApiRoute = ApiWrapper.MAX_TOTAL_CONNECTIONS;
+        int maxConnectionsPerRoute = ConnPerRouteBean.DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+        int connectTimeout = ApiWrapper.TIMEOUT;
+        int readTimeout = ApiWrapper.TIMEOUT;
+        int socketBufferSize = ApiWrapper.BUFFER_SIZE;
+        long keepAliveTimeout = ApiWrapper.KEEPALIVE_TIMEOUT;
+        long streamKeepAliveTimeout = ApiWrapper.KEEPALIVE_TIMEOUT;
+        long evictionInterval;
+        long maxIdleTime = ApiWrapper.KEEPALIVE_TIMEOUT;
+
+        Builder() {
+        }
+
+        Builder(HttpConfig config) {
+            maxTotalConnections = config.maxTotalConnections;
+            maxConnectionsPerApiRoute = config.maxConnectionsPerApiRoute;
+            maxConnectionsPerRoute = config.maxConnectionsPerRoute;
+            connectTimeout = config.connectTimeout;
+            readTimeout = config.readTimeout;
+            socketBufferSize = config.socketBufferSize;
+            keepAliveTimeout = config.keepAliveTimeout;
+            streamKeepAliveTimeout = config.streamKeepAliveTimeout;
+            evictionInterval = config.evictionInterval;
+            maxIdleTime = config.maxIdleTime;
+        }
+
+        HttpConfig build() {
+            return new HttpConfig(this);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.soundcloud.api;
+
+import org.apache.http.conn.ClientConnectionManager;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background thread which periodically closes expired and idle connections of a connection manager.
+ * Since stale checking is disabled, a connection closed by the server while sitting in the pool
+ * would otherwise only be noticed when the next request fails on it.
+ *
+ * The thread only holds a weak reference to the connection manager and terminates once the manager
+ * has been garbage collected.
+ *
+ * @see HttpConfig#withConnectionEviction(long, long)
+ * @see ApiWrapper#getConnectionReaper()
+ */
+public class IdleConnectionReaper extends Thread {
+    private final WeakReference<ClientConnectionManager> mManager;
+    private final long mInterval, mMaxIdleTime;
+    private final AtomicLong mRuns = new AtomicLong();
+    private final AtomicLong mExpiredClosed = new AtomicLong();
+    private final AtomicLong mIdleClosed = new AtomicLong();
+    private volatile boolean mShutdown;
+
+    /**
+     * @param manager     the connection manager
+     * @param interval    interval in ms between eviction runs
+     * @param maxIdleTime time in ms after which unused connections get closed
+     */
+    public IdleConnectionReaper(ClientConnectionManager manager, long interval, long maxIdleTime) {
+        super("IdleConnectionReaper");
+        if (manager == null) throw new IllegalArgumentException("manager is null");
+        if (interval <= 0) throw new IllegalArgumentException("interval <= 0");
+        if (maxIdleTime < 0) throw new IllegalArgumentException("negative maxIdleTime");
+        mManager = new WeakReference<ClientConnectionManager>(manager);
+        mInterval = interval;
+        mMaxIdleTime = maxIdleTime;
+        setDaemon(true);
+    }
+
+    @Override
+    public void run() {
+        while (!mShutdown) {
+            try {
+                Thread.sleep(mInterval);
+            } catch (InterruptedException e) {
+                break;
+            }
+            final ClientConnectionManager manager = mManager.get();
+            if (manager == null || mShutdown) break;
+            evict(manager);
+        }
+    }
+
+    /* package */ void evict(ClientConnectionManager manager) {
+        final long before = evictedCount(manager);
+        manager.closeExpiredConnections();
+        final long expired = evictedCount(manager);
+        manager.closeIdleConnections(mMaxIdleTime, TimeUnit.MILLISECONDS);
+        final long idle = evictedCount(manager);
+
+        mExpiredClosed.addAndGet(expired - before);
+        mIdleClosed.addAndGet(idle - expired);
+        mRuns.incrementAndGet();
+    }
+
+    /** Stops the reaper, the connection manager is left untouched. */
+    public void shutdown() {
+        mShutdown = true;
+        interrupt();
+    }
+
+    /** @return number of eviction runs so far */
+    public long getRuns() {
+        return mRuns.get();
+    }
+
+    /**
+     * @return number of connections closed because their keep-alive expired
+     *         (only counted for the wrapper's own connection manager)
+     */
+    public long getExpiredConnectionsClosed() {
+        return mExpiredClosed.get();
+    }
+
+    /**
+     * @return number of connections closed because they were idle for too long
+     *         (only counted for the wrapper's own connection manager)
+     */
+    public long getIdleConnectionsClosed() {
+        return mIdleClosed.get();
+    }
+
+    private static long evictedCount(ClientConnectionManager manager) {
+        return manager instanceof ApiConnectionManager ?
+                ((ApiConnectionManager) manager).getEvictedConnectionCount() : 0;
+    }
+}
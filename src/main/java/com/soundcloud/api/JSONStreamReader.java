@@ -0,0 +1,364 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Pull reader for JSON collections, which parses one array element at a time straight off the
+ * response stream instead of building the whole document in memory.
+ * <p/>
+ * The collection is either the top-level array, or the array stored under a given key of the
+ * top-level object (<code>collection</code> for linked partitioning). Other fields of the top-level
+ * object are available via {@link #getField(String)} once they have been read.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  JSONStreamReader reader = JSONStreamReader.of(wrapper.get(Request.to(Endpoints.USER_TRACKS, 1234)));
+ *  try {
+ *      reader.beginCollection();
+ *      while (reader.hasNext()) {
+ *          JSONObject track = reader.nextObject();
+ *          ...
+ *      }
+ *  } finally {
+ *      reader.close();
+ *  }
+ *   </pre>
+ *  </code>
+ */
+public class JSONStreamReader implements Closeable {
+    private static final int BEFORE = 0, IN_ARRAY = 1, DONE = 2;
+
+    private final Reader mReader;
+    private final char[] mBuffer = new char[ApiWrapper.BUFFER_SIZE];
+    private int mPos, mLimit;
+    private long mOffset;
+
+    private final Map<String, Object> mFields = new HashMap<String, Object>();
+    private int mState = BEFORE;
+    private boolean mInObject, mFirst, mPending;
+
+    public JSONStreamReader(Reader reader) {
+        if (reader == null) throw new IllegalArgumentException("reader is null");
+        mReader = reader;
+    }
+
+    /**
+     * @param response the response, its body is decoded using the charset from
+     *                 <code>Content-Type</code>, UTF-8 if missing or unsupported
+     * @return a reader over the response body
+     * @throws IOException if the body could not be opened
+     */
+    public static JSONStreamReader of(HttpResponse response) throws IOException {
+        final HttpEntity entity = response.getEntity();
+        if (entity == null) throw new IOException("response has no body");
+        final InputStream is = entity.getContent();
+        if (is == null) throw new IOException("response has no body");
+        return new JSONStreamReader(new InputStreamReader(is, Http.getCharset(entity)));
+    }
+
+    /**
+     * Positions the reader at the first element of the top-level array, or of the
+     * <code>collection</code> array of the top-level object.
+     * @throws IOException if the document is not a collection, or could not be read
+     */
+    public void beginCollection() throws IOException {
+        beginCollection(PagedCollection.COLLECTION);
+    }
+
+    /**
+     * Positions the reader at the first element of the top-level array, or of the array stored under
+     * <code>key</code> in the top-level object.
+     *
+     * @param key the key of the array in the top-level object
+     * @throws IOException if the document is not a collection, or could not be read
+     */
+    public void beginCollection(String key) throws IOException {
+        if (mState != BEFORE) throw new IllegalStateException("collection already started");
+        final int c = nextClean();
+        if (c == '[') {
+            enterArray();
+        } else if (c == '{') {
+            mInObject = true;
+            if (nextClean() == '}') throw new IOException("not a collection: empty object");
+            back();
+            while (true) {
+                final String name = readKey();
+                if (name.equals(key) && peekClean() == '[') {
+                    read();
+                    enterArray();
+                    return;
+                }
+                mFields.put(name, readValue());
+                if (!endOfMember()) throw new IOException("not a collection: no array \"" + key + "\"");
+            }
+        } else {
+            throw syntaxError("expected '[' or '{'");
+        }
+    }
+
+    /**
+     * @return true if there is another element in the collection
+     * @throws IOException syntax or network error
+     */
+    public boolean hasNext() throws IOException {
+        if (mState == BEFORE) throw new IllegalStateException("call beginCollection() first");
+        if (mState == DONE) return false;
+        if (mPending) return true;
+
+        final int c = nextClean();
+        if (c == ']') {
+            mState = DONE;
+            if (mInObject) readRemainingFields();
+            return false;
+        }
+        if (mFirst) {
+            back();
+        } else if (c != ',') {
+            throw syntaxError("expected ',' or ']'");
+        }
+        mFirst = false;
+        mPending = true;
+        return true;
+    }
+
+    /**
+     * @return the next element: a {@link JSONObject}, {@link JSONArray}, String, Boolean, Number or
+     *         {@link JSONObject#NULL}
+     * @throws IOException syntax or network error
+     */
+    public Object next() throws IOException {
+        if (!hasNext()) throw new NoSuchElementException();
+        mPending = false;
+        return readValue();
+    }
+
+    /**
+     * @return the next element
+     * @throws IOException if the element is not an object, syntax or network error
+     */
+    public JSONObject nextObject() throws IOException {
+        final Object next = next();
+        if (next instanceof JSONObject) {
+            return (JSONObject) next;
+        } else {
+            throw new IOException("expected object, got " + next);
+        }
+    }
+
+    /**
+     * @param name the name of a field of the top-level object
+     * @return the value, or null if the field has not been read (yet). Fields following the
+     *         collection are available once {@link #hasNext()} returned false.
+     */
+    public Object getField(String name) {
+        return mFields.get(name);
+    }
+
+    /**
+     * @return true if the collection is stored in a top-level object, false if the document is
+     *         a plain array
+     */
+    public boolean isInObject() {
+        return mInObject;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mReader.close();
+    }
+
+    private void enterArray() {
+        mState = IN_ARRAY;
+        mFirst = true;
+    }
+
+    private void readRemainingFields() throws IOException {
+        while (endOfMember()) {
+            final String name = readKey();
+            mFields.put(name, readValue());
+        }
+    }
+
+    /**
+     * @return true if another member follows, false at the end of the object
+     */
+    private boolean endOfMember() throws IOException {
+        final int c = nextClean();
+        if (c == ',') return true;
+        if (c == '}') return false;
+        throw syntaxError("expected ',' or '}'");
+    }
+
+    private String readKey() throws IOException {
+        if (nextClean() != '"') throw syntaxError("expected name");
+        final String name = readString();
+        if (nextClean() != ':') throw syntaxError("expected ':'");
+        return name;
+    }
+
+    private Object readValue() throws IOException {
+        final int c = nextClean();
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case -1:
+                throw syntaxError("unexpected end of document");
+            default:
+                back();
+                return readLiteral();
+        }
+    }
+
+    private JSONObject readObject() throws IOException {
+        final JSONObject object = new JSONObject();
+        if (nextClean() == '}') return object;
+        back();
+        do {
+            final String name = readKey();
+            try {
+                object.put(name, readValue());
+            } catch (JSONException e) {
+                throw syntaxError(e.getMessage());
+            }
+        } while (endOfMember());
+        return object;
+    }
+
+    private JSONArray readArray() throws IOException {
+        final JSONArray array = new JSONArray();
+        if (nextClean() == ']') return array;
+        back();
+        while (true) {
+            array.put(readValue());
+            final int c = nextClean();
+            if (c == ']') return array;
+            if (c != ',') throw syntaxError("expected ',' or ']'");
+        }
+    }
+
+    private String readString() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        while (true) {
+            int c = read();
+            switch (c) {
+                case -1:
+                    throw syntaxError("unterminated string");
+                case '"':
+                    return sb.toString();
+                case '\\':
+                    c = read();
+                    switch (c) {
+                        case 'b': sb.append('\b'); break;
+                        case 't': sb.append('\t'); break;
+                        case 'n': sb.append('\n'); break;
+                        case 'f': sb.append('\f'); break;
+                        case 'r': sb.append('\r'); break;
+                        case 'u':
+                            int code = 0;
+                            for (int i = 0; i < 4; i++) {
+                                final int digit = Character.digit(read(), 16);
+                                if (digit < 0) throw syntaxError("invalid escape");
+                                code = (code << 4) | digit;
+                            }
+                            sb.append((char) code);
+                            break;
+                        case '"':
+                        case '\\':
+                        case '/':
+                            sb.append((char) c);
+                            break;
+                        default:
+                            throw syntaxError("invalid escape");
+                    }
+                    break;
+                default:
+                    sb.append((char) c);
+            }
+        }
+    }
+
+    private Object readLiteral() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = read()) != -1 && ",:]}/\\\"[{;=# \t\r\n".indexOf(c) < 0) {
+            sb.append((char) c);
+        }
+        if (c != -1) back();
+
+        final String s = sb.toString();
+        if (s.length() == 0) throw syntaxError("missing value");
+        if ("true".equals(s)) return Boolean.TRUE;
+        if ("false".equals(s)) return Boolean.FALSE;
+        if ("null".equals(s)) return JSONObject.NULL;
+        try {
+            if (s.indexOf('.') >= 0 || s.indexOf('e') >= 0 || s.indexOf('E') >= 0) {
+                return Double.valueOf(s);
+            }
+            if (s.length() > 18) {
+                // might not fit into a long
+                final BigInteger big = new BigInteger(s);
+                if (big.bitLength() > 63) return big;
+            }
+            final long l = Long.parseLong(s);
+            if (l == (int) l) return (int) l;
+            return l;
+        } catch (NumberFormatException e) {
+            throw syntaxError("invalid value '" + s + "'");
+        }
+    }
+
+    private int nextClean() throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c == ' ' || c == '\t' || c == '\r' || c == '\n');
+        return c;
+    }
+
+    private int peekClean() throws IOException {
+        final int c = nextClean();
+        if (c != -1) back();
+        return c;
+    }
+
+    private int read() throws IOException {
+        if (mPos == mLimit) {
+            mOffset += mLimit;
+            mLimit = mReader.read(mBuffer, 0, mBuffer.length);
+            mPos = 0;
+            if (mLimit <= 0) {
+                mLimit = 0;
+                return -1;
+            }
+        }
+        return mBuffer[mPos++];
+    }
+
+    /** steps back one character, only valid directly after a successful {@link #read()} */
+    private void back() {
+        if (mPos > 0) mPos--;
+    }
+
+    private IOException syntaxError(String message) {
+        return new IOException("could not parse JSON document: " + message + " at character " + (mOffset + mPos));
+    }
+}
@@ -0,0 +1,18 @@
+package com.soundcloud.api;
+
+/**
+ * Receives timing information about every request executed by {@link ApiWrapper}.
+ * Implementations are called from the requesting threads and need to be thread-safe.
+ *
+ * @see ApiWrapper#setMetricsSink(MetricsSink)
+ * @see HistogramMetrics
+ */
+public interface MetricsSink {
+    /**
+     * Called once per request, after the response body has been read or closed, or directly
+     * after the request failed or when the response has no body.
+     *
+     * @param timings the timings of the request
+     */
+    void record(RequestTimings timings);
+}
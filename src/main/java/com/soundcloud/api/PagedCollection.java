@@ -0,0 +1,245 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+
+/**
+ * A collection endpoint (e.g. {@link Endpoints#USER_TRACKS}), fetched lazily page by page.
+ * <p/>
+ * Pages are requested with <code>linked_partitioning=1</code> and followed via
+ * <code>next_href</code>. Endpoints which respond with a plain JSON array are paged with
+ * <code>offset</code> / <code>limit</code> instead. While the current page is consumed, up to
+ * <code>prefetch</code> further pages are fetched in the background.
+ * <p/>
+ * Every call to {@link #iterator()} walks the collection from the start. Iterators are not thread
+ * safe. Since iterators cannot throw checked exceptions, failed requests surface as
+ * {@link PageException}.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  for (JSONObject track : wrapper.getCollection(Request.to(Endpoints.USER_TRACKS, 1234))) {
+ *      ...
+ *  }
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#getCollection(Request, int, int)
+ */
+public class PagedCollection implements Iterable<JSONObject> {
+    public static final String LINKED_PARTITIONING = "linked_partitioning";
+    public static final String LIMIT = "limit";
+    public static final String OFFSET = "offset";
+    public static final String COLLECTION = "collection";
+    public static final String NEXT_HREF = "next_href";
+
+    private static final Page END = new Page(Collections.<JSONObject>emptyList(), null);
+
+    private final ApiWrapper mWrapper;
+    private final Request mRequest;
+    private final int mPrefetch;
+
+    /**
+     * @param wrapper  the wrapper used for requests
+     * @param request  the request for the first page, including paging parameters
+     * @param prefetch number of pages to fetch ahead in the background
+     */
+    /* package */ PagedCollection(ApiWrapper wrapper, Request request, int prefetch) {
+        if (prefetch < 0) throw new IllegalArgumentException("negative prefetch");
+        mWrapper = wrapper;
+        mRequest = request;
+        mPrefetch = prefetch;
+    }
+
+    @Override
+    public Iterator<JSONObject> iterator() {
+        return new PageIterator();
+    }
+
+    /**
+     * Fetches a single page.
+     *
+     * @param request the request for the page
+     * @return the page
+     * @throws IOException network error, or a response which is not a collection
+     */
+    /* package */ Page fetch(Request request) throws IOException {
+        final HttpResponse resp = mWrapper.get(request);
+        if (resp.getStatusLine().getStatusCode() != HttpStatus.SC_OK) {
+            throw new CloudAPI.ApiResponseException(resp, "could not fetch page " + request);
+        }
+        final JSONStreamReader reader = JSONStreamReader.of(resp);
+        try {
+            reader.beginCollection(COLLECTION);
+            final List<JSONObject> items = new ArrayList<JSONObject>();
+            while (reader.hasNext()) {
+                items.add(reader.nextObject());
+            }
+            final Request next;
+            if (!reader.isInObject()) {
+                // plain array, page with offset / limit
+                final int limit = intParam(request, LIMIT, -1);
+                next = items.isEmpty() || items.size() < limit ? null :
+                        new Request(request).set(OFFSET, intParam(request, OFFSET, 0) + items.size());
+            } else {
+                final Object nextHref = reader.getField(NEXT_HREF);
+                next = nextHref instanceof String ? nextRequest(request, (String) nextHref) : null;
+            }
+            return new Page(items, next);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static Request nextRequest(Request current, String nextHref) {
+        final URI uri = URI.create(nextHref);
+        final Request next = new Request(uri.getRawPath() + (uri.getRawQuery() == null ? "" : "?" + uri.getRawQuery()));
+        next.usingToken(current.getToken());
+        return next;
+    }
+
+    private static int intParam(Request request, String name, int defaultValue) {
+        final String value = request.getParams().get(name);
+        try {
+            return value == null ? defaultValue : Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /* package */ static class Page {
+        final List<JSONObject> items;
+        /** the request for the next page, or null if this is the last page */
+        final Request next;
+
+        Page(List<JSONObject> items, Request next) {
+            this.items = items;
+            this.next = next;
+        }
+    }
+
+    /**
+     * Thrown by the iterator if a page could not be fetched. The cause is the original
+     * {@link IOException}.
+     */
+    public static class PageException extends RuntimeException {
+        private static final long serialVersionUID = -2117004376563516420L;
+
+        public PageException(Throwable cause) {
+            super(cause == null ? null : cause.toString());
+            initCause(cause);
+        }
+    }
+
+    /**
+     * Pages are chained futures: a prefetched page is only handed to the executor once the page
+     * before it has completed, so no pool thread ever waits for another page. The iterating thread
+     * runs a page itself if it has not been started yet.
+     */
+    private class PageIterator implements Iterator<JSONObject> {
+        /** pages requested but not consumed yet, in order */
+        private final LinkedList<ApiFuture<Page>> mAhead = new LinkedList<ApiFuture<Page>>();
+        /** the most recently requested page */
+        private ApiFuture<Page> mTail;
+        private Iterator<JSONObject> mItems = Collections.<JSONObject>emptyList().iterator();
+        private boolean mLastPage;
+
+        @Override
+        public boolean hasNext() {
+            while (!mItems.hasNext()) {
+                if (mAhead.isEmpty()) {
+                    if (mLastPage) return false;
+                    mAhead.add(mTail = mTail == null ? first() : after(mTail));
+                }
+                final Page page = result(mAhead.removeFirst());
+                if (page == END) {
+                    mLastPage = true;
+                    return false;
+                }
+                mItems = page.items.iterator();
+                if (page.next == null) {
+                    mLastPage = true;
+                    for (ApiFuture<Page> f : mAhead) f.cancel(false);
+                    mAhead.clear();
+                } else {
+                    while (mAhead.size() < mPrefetch) {
+                        mAhead.add(mTail = prefetch(mTail));
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public JSONObject next() {
+            if (!hasNext()) throw new NoSuchElementException();
+            return mItems.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private ApiFuture<Page> first() {
+            return mWrapper.prepare(new Callable<Page>() {
+                @Override public Page call() throws IOException {
+                    return fetch(mRequest);
+                }
+            });
+        }
+
+        /** @return the page after the given one, not started yet */
+        private ApiFuture<Page> after(final ApiFuture<Page> previous) {
+            return mWrapper.prepare(new Callable<Page>() {
+                @Override public Page call() throws IOException {
+                    final Page page = previous.getResult();
+                    return page.next == null ? END : fetch(page.next);
+                }
+            });
+        }
+
+        /** @return the page after the given one, started on the executor once the given one completes */
+        private ApiFuture<Page> prefetch(final ApiFuture<Page> previous) {
+            final ApiFuture<Page> page = after(previous);
+            previous.addCallback(new ApiFuture.Callback<Page>() {
+                @Override public void onSuccess(Page result) {
+                    mWrapper.getExecutor().execute(page);
+                }
+                @Override public void onFailure(Throwable throwable) {
+                    mWrapper.getExecutor().execute(page);
+                }
+            });
+            return page;
+        }
+
+        private Page result(ApiFuture<Page> future) {
+            // runs the page here unless it has been started already. Pages are consumed in order,
+            // so the page before has completed and this never waits for queued work
+            future.run();
+            try {
+                return future.getResult();
+            } catch (IOException e) {
+                mLastPage = true;
+                mAhead.clear();
+                throw new PageException(e);
+            } catch (CancellationException e) {
+                mLastPage = true;
+                mAhead.clear();
+                throw new PageException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.soundcloud.api;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token bucket limiting the rate of outgoing requests. The bucket holds up to <code>burst</code>
+ * permits and is refilled at <code>permitsPerSecond</code>; requests arriving at an empty bucket
+ * wait until their permit becomes available.
+ * <p/>
+ * The API throttles per <code>client_id</code>, use {@link #forClientId} to share one limiter
+ * between all wrappers using the same client id.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  wrapper.setRateLimiter(RateLimiter.forClientId("client_id", 10, 20), 5000);
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setRateLimiter(RateLimiter, long)
+ */
+public class RateLimiter {
+    private static final ConcurrentHashMap<String, RateLimiter> SHARED = new ConcurrentHashMap<String, RateLimiter>();
+
+    private double mPermitsPerSecond;
+    private int mBurst;
+    private double mIntervalNanos;
+    /** available permits, negative if permits have been handed out in advance */
+    private double mStoredPermits;
+    private long mLastRefill;
+
+    private final AtomicLong mAcquired = new AtomicLong();
+    private final AtomicLong mThrottled = new AtomicLong();
+    private final AtomicLong mRejected = new AtomicLong();
+    private final AtomicLong mTotalWait = new AtomicLong();
+
+    /**
+     * @param permitsPerSecond the sustained rate
+     * @param burst            the number of requests which can be sent at once after a quiet period
+     */
+    public RateLimiter(double permitsPerSecond, int burst) {
+        setRate(permitsPerSecond, burst);
+        mStoredPermits = burst;
+        mLastRefill = now();
+    }
+
+    /**
+     * Returns the limiter shared by all callers using the same client id, creating it if necessary.
+     * If the limiter already exists its rate is updated.
+     *
+     * @param clientId         the client id
+     * @param permitsPerSecond the sustained rate
+     * @param burst            the burst capacity
+     * @return the shared limiter
+     */
+    public static RateLimiter forClientId(String clientId, double permitsPerSecond, int burst) {
+        if (clientId == null) throw new IllegalArgumentException("clientId is null");
+        RateLimiter limiter = SHARED.get(clientId);
+        if (limiter == null) {
+            final RateLimiter created = new RateLimiter(permitsPerSecond, burst);
+            limiter = SHARED.putIfAbsent(clientId, created);
+            if (limiter == null) return created;
+        }
+        limiter.setRate(permitsPerSecond, burst);
+        return limiter;
+    }
+
+    /**
+     * @param permitsPerSecond the sustained rate
+     * @param burst            the burst capacity
+     */
+    public synchronized void setRate(double permitsPerSecond, int burst) {
+        if (!(permitsPerSecond > 0)) throw new IllegalArgumentException("permitsPerSecond must be > 0");
+        if (burst < 1) throw new IllegalArgumentException("burst < 1");
+        if (mIntervalNanos > 0) refill(now());
+        mPermitsPerSecond = permitsPerSecond;
+        mBurst = burst;
+        mIntervalNanos = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        mStoredPermits = Math.min(mStoredPermits, burst);
+    }
+
+    /**
+     * Takes a permit, waiting for it if necessary.
+     *
+     * @param maxWait the maximum time in ms to wait, 0 to fail immediately if no permit is available,
+     *                {@link Long#MAX_VALUE} to wait as long as necessary
+     * @return the time in ms waited
+     * @throws CloudAPI.RateLimitException if the permit is not available within <code>maxWait</code>
+     * @throws InterruptedIOException      if interrupted while waiting
+     */
+    public long acquire(long maxWait) throws CloudAPI.RateLimitException, InterruptedIOException {
+        final long waitNanos;
+        synchronized (this) {
+            refill(now());
+            final long wait = waitNanos();
+            if (TimeUnit.NANOSECONDS.toMillis(wait) > maxWait) {
+                mRejected.incrementAndGet();
+                throw new CloudAPI.RateLimitException(TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+            mStoredPermits -= 1;
+            waitNanos = wait;
+        }
+
+        mAcquired.incrementAndGet();
+        if (waitNanos > 0) {
+            mThrottled.incrementAndGet();
+            mTotalWait.addAndGet(TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * @return the time in ms a request issued now would have to wait
+     */
+    public synchronized long getWaitTime() {
+        refill(now());
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos());
+    }
+
+    public synchronized double getPermitsPerSecond() {
+        return mPermitsPerSecond;
+    }
+
+    public synchronized int getBurst() {
+        return mBurst;
+    }
+
+    /** @return number of permits handed out */
+    public long getAcquiredCount() {
+        return mAcquired.get();
+    }
+
+    /** @return number of requests which had to wait for their permit */
+    public long getThrottledCount() {
+        return mThrottled.get();
+    }
+
+    /** @return number of requests rejected because they would have waited too long */
+    public long getRejectedCount() {
+        return mRejected.get();
+    }
+
+    /** @return total time in ms requests waited for permits */
+    public long getTotalWaitTime() {
+        return mTotalWait.get();
+    }
+
+    private void refill(long now) {
+        if (now > mLastRefill) {
+            mStoredPermits = Math.min(mBurst, mStoredPermits + (now - mLastRefill) / mIntervalNanos);
+            mLastRefill = now;
+        }
+    }
+
+    private long waitNanos() {
+        return mStoredPermits >= 1 ? 0 : (long) Math.ceil((1 - mStoredPermits) * mIntervalNanos);
+    }
+
+    /* package */ long now() {
+        return System.nanoTime();
+    }
+
+    /* package */ void sleep(long nanos) throws InterruptedIOException {
+        try {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for rate limit");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RateLimiter{" +
+                "permitsPerSecond=" + getPermitsPerSecond() +
+                ", burst=" + getBurst() +
+                ", waitTime=" + getWaitTime() +
+                ", acquired=" + getAcquiredCount() +
+                ", throttled=" + getThrottledCount() +
+                ", rejected=" + getRejectedCount() +
+                '}';
+    }
+}
@@ -15,7 +15,10 @@ import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.protocol.HTTP;
 
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
@@ -23,6 +26,8 @@ import java.net.URI;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -56,6 +61,7 @@ public class Request implements Iterable<NameValuePair> {
 
     private Token mToken;
     private String mResource;
+    private String mTemplate;
     private TransferProgressListener listener;
     private String mIfNoneMatch;
     private long[] mRange;
@@ -113,10 +119,12 @@ public class Request implements Iterable<NameValuePair> {
      */
     public Request(Request request) {
         mResource = request.mResource;
+        mTemplate = request.mTemplate;
         mToken = request.mToken;
         listener = request.listener;
         mParams = new ArrayList<NameValuePair>(request.mParams);
         mIfNoneMatch = request.mIfNoneMatch;
+        mRange = request.mRange == null ? null : request.mRange.clone();
         mEntity = request.mEntity;
         if (request.mFiles != null) mFiles = new HashMap<String, Attachment>(request.mFiles);
     }
@@ -131,9 +139,12 @@ public class Request implements Iterable<NameValuePair> {
     public static Request to(String resource, Object... args) {
         if (args != null &&
             args.length > 0) {
-            resource = String.format(Locale.ENGLISH, resource, args);
+            final Request request = new Request(String.format(Locale.ENGLISH, resource, args));
+            request.mTemplate = resource.contains("?") ? resource.substring(0, resource.indexOf("?")) : resource;
+            return request;
+        } else {
+            return new Request(resource);
         }
-        return new Request(resource);
     }
 
     /**
@@ -216,6 +227,7 @@ public class Request implements Iterable<NameValuePair> {
     public Request newResource(String resource) {
         Request newRequest = new Request(this);
         newRequest.mResource = resource;
+        newRequest.mTemplate = null;
         return newRequest;
     }
 
@@ -311,7 +323,9 @@ public class Request implements Iterable<NameValuePair> {
     }
 
     /**
-     * Registers binary data to be uploaded with a POST or PUT request.
+     * Registers binary data to be uploaded with a POST or PUT request. Only the remaining bytes
+     * (between position and limit at the time of the call) are uploaded, the buffer's position
+     * is not modified. Direct and memory-mapped buffers are not copied to the heap as a whole.
      * @param name  the name of the parameter
      * @param data  the data to be submitted
      * @param fileName the name of the uploaded file
@@ -323,6 +337,40 @@ public class Request implements Iterable<NameValuePair> {
         return this;
     }
 
+    /**
+     * Registers a file to be uploaded with a POST or PUT request, by mapping it into memory.
+     * @param name  the name of the parameter
+     * @param file  the file to be submitted
+     * @return this
+     * @throws IOException if the file cannot be mapped
+     * @see #withMappedFile(String, java.io.File, long, long, String)
+     */
+    public Request withMappedFile(String name, File file) throws IOException {
+        return withMappedFile(name, file, 0, file.length(), file.getName());
+    }
+
+    /**
+     * Registers a region of a file to be uploaded with a POST or PUT request, by mapping it
+     * into memory. The file must not be truncated until the request has been sent.
+     * @param name     the name of the parameter
+     * @param file     the file to be submitted
+     * @param position offset of the region in the file
+     * @param size     size of the region in bytes
+     * @param fileName the name of the uploaded file
+     * @return this
+     * @throws IOException if the file cannot be mapped
+     */
+    public Request withMappedFile(String name, File file, long position, long size, String fileName)
+            throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            // the mapping stays valid after the channel is closed
+            return withFile(name, in.getChannel().map(FileChannel.MapMode.READ_ONLY, position, size), fileName);
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * Adds an arbitrary entity to the request (used with POST/PUT)
      * @param entity the entity to POST/PUT
@@ -491,6 +539,14 @@ public class Request implements Iterable<NameValuePair> {
                 '}';
     }
 
+    /**
+     * @return the format string this request was created from (without query string),
+     *         or null if it was not created via {@link #to(String, Object...)} with arguments
+     */
+    /* package */ String getTemplate() {
+        return mTemplate;
+    }
+
     /* package */ Token getToken() {
         return mToken;
     }
@@ -533,17 +589,157 @@ public class Request implements Iterable<NameValuePair> {
 
         @Override
         public long getContentLength() {
-            return mBuffer.capacity();
+            return mBuffer.remaining();
         }
 
+        /**
+         * Writes the bytes between position and limit, leaving the buffer itself untouched. Direct
+         * and mapped buffers are written to the channel of the destination if there is one,
+         * otherwise copied through a pooled chunk, but never copied to the heap as a whole.
+         */
         @Override
         public void writeTo(OutputStream out) throws IOException {
             if (mBuffer.hasArray()) {
-                out.write(mBuffer.array());
+                out.write(mBuffer.array(), mBuffer.arrayOffset() + mBuffer.position(), mBuffer.remaining());
+                return;
+            }
+            final ByteBuffer src = mBuffer.duplicate();
+            final WritableByteChannel target = FileChannelBody.channelOf(out);
+            if (target != null) {
+                out.flush();
+                final int limit = src.limit();
+                while (src.position() < limit) {
+                    src.limit((int) Math.min(limit, src.position() + FileChannelBody.TRANSFER_SIZE));
+                    final int n = target.write(src);
+                    if (out instanceof ChannelOutput) ((ChannelOutput) out).transferred(n);
+                }
+            } else {
+                final ByteBuffer chunk = BufferPool.DEFAULT.acquire(FileChannelBody.COPY_BUFFER_SIZE);
+                try {
+                    final byte[] bytes = chunk.array();
+                    while (src.hasRemaining()) {
+                        final int n = Math.min(src.remaining(), chunk.capacity());
+                        src.get(bytes, 0, n);
+                        out.write(bytes, 0, n);
+                    }
+                } finally {
+                    BufferPool.DEFAULT.release(chunk);
+                }
+            }
+        }
+    }
+
+    /**
+     * Implemented by output streams which can expose the channel they ultimately write to, so that
+     * file bodies can be transferred without copying them through the heap.
+     */
+    /* package */ static interface ChannelOutput {
+        /**
+         * @return the channel the stream writes to, or null if there is none
+         * @throws IOException if the channel cannot be obtained
+         */
+        WritableByteChannel getChannel() throws IOException;
+
+        /**
+         * @param amount number of bytes written directly to the channel
+         * @throws IOException if the transfer should be cancelled
+         */
+        void transferred(long amount) throws IOException;
+    }
+
+    /**
+     * File body which transfers the file with {@link FileChannel#transferTo} if the destination
+     * exposes a channel, and otherwise copies it through a large pooled buffer (e.g. when
+     * the connection is buffered or encrypted).
+     */
+    /* package */ static class FileChannelBody extends FileBody {
+        /* package */ static final int COPY_BUFFER_SIZE = BufferPool.MAX_SIZE;
+        /** bytes per transferTo call, limits the time between progress updates */
+        /* package */ static final long TRANSFER_SIZE = 1024 * 1024;
+
+        private final String mFileName;
+
+        public FileChannelBody(File file, String fileName) {
+            super(file);
+            mFileName = fileName;
+        }
+
+        @Override
+        public String getFilename() {
+            return mFileName;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final FileInputStream in = new FileInputStream(getFile());
+            try {
+                final FileChannel source = in.getChannel();
+                writeRegion(source, 0, source.size(), out);
+            } finally {
+                in.close();
+            }
+        }
+
+        /**
+         * Writes a region of a file, with {@link FileChannel#transferTo} if possible.
+         *
+         * @param source   the file
+         * @param position start of the region
+         * @param size     size of the region in bytes
+         * @param out      the destination stream
+         * @throws IOException if the file cannot be read or written to the destination
+         */
+        /* package */ static void writeRegion(FileChannel source, long position, long size, OutputStream out)
+                throws IOException {
+            final WritableByteChannel target = channelOf(out);
+            if (target != null) {
+                out.flush();
+                transfer(source, position, size, target, out);
             } else {
-                byte[] dst = new byte[mBuffer.capacity()];
-                mBuffer.get(dst);
-                out.write(dst);
+                copy(source, position, size, out);
+            }
+        }
+
+        private static void transfer(FileChannel source, long position, long size, WritableByteChannel target,
+                                     OutputStream out) throws IOException {
+            long done = 0;
+            while (done < size) {
+                final long n = source.transferTo(position + done, Math.min(size - done, TRANSFER_SIZE), target);
+                if (n <= 0) throw new EOFException("file truncated at " + (position + done));
+                done += n;
+                if (out instanceof ChannelOutput) ((ChannelOutput) out).transferred(n);
+            }
+        }
+
+        private static void copy(FileChannel source, long position, long size, OutputStream out) throws IOException {
+            final ByteBuffer buffer = BufferPool.DEFAULT.acquire(COPY_BUFFER_SIZE);
+            try {
+                long done = 0;
+                while (done < size) {
+                    buffer.clear();
+                    if (size - done < buffer.capacity()) buffer.limit((int) (size - done));
+                    final int n = source.read(buffer, position + done);
+                    if (n < 0) throw new EOFException("file truncated at " + (position + done));
+                    out.write(buffer.array(), 0, n);
+                    done += n;
+                }
+            } finally {
+                BufferPool.DEFAULT.release(buffer);
+            }
+        }
+
+        /**
+         * @param out the destination stream
+         * @return the channel the stream writes to without buffering, or null
+         * @throws IOException if the channel cannot be obtained
+         */
+        /* package */ static WritableByteChannel channelOf(OutputStream out) throws IOException {
+            if (out instanceof FileOutputStream) {
+                return ((FileOutputStream) out).getChannel();
+            } else if (out instanceof ChannelOutput) {
+                return ((ChannelOutput) out).getChannel();
+            } else {
+                return null;
             }
         }
     }
@@ -573,19 +769,15 @@ public class Request implements Iterable<NameValuePair> {
         Attachment(ByteBuffer data, String fileName) {
             if (data == null) throw new IllegalArgumentException("data cannot be null");
 
-            this.data = data;
+            // only the bytes between position and limit get uploaded
+            this.data = data.slice();
             this.fileName = fileName;
             this.file = null;
         }
 
         public ContentBody toContentBody() {
             if (file != null) {
-                return new FileBody(file) {
-                    @Override
-                    public String getFilename() {
-                        return fileName;
-                    }
-                };
+                return new FileChannelBody(file, fileName);
             } else if (data != null) {
                 return new ByteBufferBody(data) {
                     @Override
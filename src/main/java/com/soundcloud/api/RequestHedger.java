@@ -0,0 +1,191 @@
+package com.soundcloud.api;
+
+import org.apache.http.client.methods.HttpUriRequest;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedging of GET and HEAD requests, used by {@link ApiWrapper#safeExecute}.
+ * <p/>
+ * If a request has not produced a response after a delay, a duplicate is sent over another
+ * connection. The first response wins, the other request is aborted. The delay is either fixed, or
+ * the given percentile of the time to first byte observed for the endpoint.
+ * <p/>
+ * To avoid doubling the load during an outage, every request earns <code>maxHedgeRatio</code>
+ * hedge credits (up to {@link #MAX_CREDITS}), and every hedge costs one credit.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  HistogramMetrics metrics = new HistogramMetrics();
+ *  wrapper.setMetricsSink(metrics);
+ *  wrapper.setRequestHedger(new RequestHedger(500, 0.05, metrics, 95));
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setRequestHedger(RequestHedger)
+ */
+public class RequestHedger {
+    /** minimum number of samples before the observed latency is used instead of the fixed delay */
+    public static final int MIN_SAMPLES = 20;
+    /** maximum number of hedge credits which can be saved up */
+    public static final double MAX_CREDITS = 10;
+
+    /** delay in ms before sending a duplicate, used until enough latencies have been observed */
+    public final long delay;
+    /** maximum fraction of requests which get hedged */
+    public final double maxHedgeRatio;
+    /** percentile of the observed time to first byte used as delay, 0 to always use the fixed delay */
+    public final double percentile;
+    private final HistogramMetrics mLatencies;
+
+    private double mCredits;
+    private final AtomicLong mRequests = new AtomicLong();
+    private final AtomicLong mHedges = new AtomicLong();
+    private final AtomicLong mHedgeWins = new AtomicLong();
+    private final AtomicLong mDenied = new AtomicLong();
+    private ScheduledExecutorService mScheduler;
+
+    /**
+     * @param delay         delay in ms before sending a duplicate
+     * @param maxHedgeRatio maximum fraction of requests which get hedged
+     */
+    public RequestHedger(long delay, double maxHedgeRatio) {
+        this(delay, maxHedgeRatio, null, 0);
+    }
+
+    /**
+     * @param delay         delay in ms before sending a duplicate, until enough latencies have been observed
+     * @param maxHedgeRatio maximum fraction of requests which get hedged
+     * @param latencies     the metrics also passed to {@link ApiWrapper#setMetricsSink}, or null
+     * @param percentile    the percentile of the observed time to first byte to use as delay, e.g. 95
+     */
+    public RequestHedger(long delay, double maxHedgeRatio, HistogramMetrics latencies, double percentile) {
+        if (delay < 0) throw new IllegalArgumentException("negative delay");
+        if (maxHedgeRatio < 0 || maxHedgeRatio > 1) throw new IllegalArgumentException("maxHedgeRatio not in [0, 1]");
+        if (percentile < 0 || percentile > 100) throw new IllegalArgumentException("percentile not in [0, 100]");
+        this.delay = delay;
+        this.maxHedgeRatio = maxHedgeRatio;
+        this.percentile = percentile;
+        mLatencies = latencies;
+    }
+
+    /**
+     * @param request the request
+     * @return whether the request may be sent twice
+     */
+    public boolean isHedgeable(HttpUriRequest request) {
+        return "GET".equals(request.getMethod()) || "HEAD".equals(request.getMethod());
+    }
+
+    /** @return number of hedgeable requests */
+    public long getRequestCount() {
+        return mRequests.get();
+    }
+
+    /** @return number of duplicates sent */
+    public long getHedgeCount() {
+        return mHedges.get();
+    }
+
+    /** @return number of duplicates which responded first */
+    public long getHedgeWinCount() {
+        return mHedgeWins.get();
+    }
+
+    /** @return number of duplicates not sent because the hedge budget was exhausted */
+    public long getDeniedCount() {
+        return mDenied.get();
+    }
+
+    /** Stops the timer thread, pending hedges are not sent */
+    public synchronized void shutdown() {
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+        }
+    }
+
+    /**
+     * @param method   the request method
+     * @param endpoint the endpoint, as used for metrics
+     * @return the delay in ms before the request gets hedged
+     */
+    /* package */ long delayFor(String method, String endpoint) {
+        if (mLatencies != null && percentile > 0) {
+            final HistogramMetrics.Endpoint latencies = mLatencies.getEndpoint(method + " " + endpoint);
+            if (latencies != null && latencies.timeToFirstByte.getCount() >= MIN_SAMPLES) {
+                return Math.max(1, TimeUnit.MICROSECONDS.toMillis(latencies.timeToFirstByte.getValueAtPercentile(percentile)));
+            }
+        }
+        return delay;
+    }
+
+    /* package */ synchronized void requested() {
+        mRequests.incrementAndGet();
+        mCredits = Math.min(MAX_CREDITS, mCredits + maxHedgeRatio);
+    }
+
+    /**
+     * Checks the budget before a hedge gets queued, without deducting its cost.
+     *
+     * @return true if there is a credit for a hedge
+     */
+    /* package */ synchronized boolean hasCredit() {
+        if (mCredits >= 1) {
+            return true;
+        } else {
+            mDenied.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * @return true if a hedge may be sent, its cost has been deducted
+     */
+    /* package */ synchronized boolean tryHedge() {
+        if (mCredits >= 1) {
+            mCredits -= 1;
+            mHedges.incrementAndGet();
+            return true;
+        } else {
+            mDenied.incrementAndGet();
+            return false;
+        }
+    }
+
+    /* package */ void hedgeWon() {
+        mHedgeWins.incrementAndGet();
+    }
+
+    /* package */ synchronized ScheduledFuture<?> schedule(Runnable task, long delay) {
+        if (mScheduler == null) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ApiWrapper-hedger");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return mScheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "RequestHedger{" +
+                "delay=" + delay +
+                ", maxHedgeRatio=" + maxHedgeRatio +
+                ", percentile=" + percentile +
+                ", requests=" + getRequestCount() +
+                ", hedges=" + getHedgeCount() +
+                ", hedgeWins=" + getHedgeWinCount() +
+                ", denied=" + getDeniedCount() +
+                '}';
+    }
+}
@@ -0,0 +1,140 @@
+package com.soundcloud.api;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings of a single request, split into the different phases. All durations are in nanoseconds,
+ * phases which did not happen (e.g. connect for a reused connection) are 0.
+ *
+ * @see MetricsSink
+ */
+public class RequestTimings {
+    private static final ThreadLocal<RequestTimings> CURRENT = new ThreadLocal<RequestTimings>();
+
+    private final String mEndpoint;
+    private final String mMethod;
+    private final long mStart;
+    private int mStatusCode = -1;
+    private Throwable mFailure;
+    private long mPoolWait, mConnect, mTimeToFirstByte, mBodyRead, mTotal;
+    private long mSendStart;
+
+    RequestTimings(String endpoint, String method) {
+        mEndpoint = endpoint;
+        mMethod = method;
+        mStart = System.nanoTime();
+    }
+
+    /** @return the endpoint template, e.g. <code>/tracks/%d</code> */
+    public String getEndpoint() {
+        return mEndpoint;
+    }
+
+    /** @return the HTTP method */
+    public String getMethod() {
+        return mMethod;
+    }
+
+    /** @return the HTTP status code, or -1 if the request failed */
+    public int getStatusCode() {
+        return mStatusCode;
+    }
+
+    /** @return the exception the request failed with, or null */
+    public Throwable getFailure() {
+        return mFailure;
+    }
+
+    /** @return time spent waiting for a connection from the pool */
+    public long getPoolWait() {
+        return mPoolWait;
+    }
+
+    /** @return time spent establishing new connections */
+    public long getConnect() {
+        return mConnect;
+    }
+
+    /** @return time from sending the request until the response headers were received */
+    public long getTimeToFirstByte() {
+        return mTimeToFirstByte;
+    }
+
+    /** @return time from receiving the response headers until the body was read or closed */
+    public long getBodyRead() {
+        return mBodyRead;
+    }
+
+    /** @return total time of the request, including reading the body */
+    public long getTotal() {
+        return mTotal;
+    }
+
+    /**
+     * @param unit the unit to convert to
+     * @return the total time in the given unit
+     */
+    public long getTotal(TimeUnit unit) {
+        return unit.convert(mTotal, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTimings{" +
+                "endpoint='" + mEndpoint + '\'' +
+                ", method=" + mMethod +
+                ", status=" + mStatusCode +
+                ", poolWait=" + mPoolWait +
+                ", connect=" + mConnect +
+                ", timeToFirstByte=" + mTimeToFirstByte +
+                ", bodyRead=" + mBodyRead +
+                ", total=" + mTotal +
+                '}';
+    }
+
+    /* package */ void addPoolWait(long nanos) {
+        mPoolWait += nanos;
+    }
+
+    /* package */ void addConnect(long nanos) {
+        mConnect += nanos;
+    }
+
+    /* package */ void requestSending() {
+        mSendStart = System.nanoTime();
+    }
+
+    /* package */ void firstByteReceived() {
+        if (mSendStart > 0) {
+            mTimeToFirstByte += System.nanoTime() - mSendStart;
+            mSendStart = 0;
+        }
+    }
+
+    /* package */ void setStatusCode(int statusCode) {
+        mStatusCode = statusCode;
+    }
+
+    /* package */ void failed(Throwable failure) {
+        mStatusCode = -1;
+        mFailure = failure;
+        mTotal = System.nanoTime() - mStart;
+    }
+
+    /* package */ void completed(long bodyRead) {
+        mBodyRead = bodyRead;
+        mTotal = System.nanoTime() - mStart;
+    }
+
+    /* package */ static RequestTimings current() {
+        return CURRENT.get();
+    }
+
+    /* package */ static void setCurrent(RequestTimings timings) {
+        if (timings == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(timings);
+        }
+    }
+}
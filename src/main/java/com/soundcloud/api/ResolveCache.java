@@ -0,0 +1,269 @@
+package com.soundcloud.api;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of {@link ApiWrapper#resolve(String)} results. Resolved ids are kept for
+ * <code>ttl</code> ms, the number of entries is bounded and least recently used entries are evicted
+ * first.
+ * <p/>
+ * Urls which could not be resolved (<code>404</code>) are optionally remembered for
+ * <code>negativeTtl</code> ms in a Bloom filter, which needs a couple of bytes per url regardless
+ * of its length. The filter is split into {@link #GENERATIONS} generations, each covering a slice of
+ * <code>negativeTtl</code>; the oldest generation is dropped when a new one starts. Being a Bloom
+ * filter it reports about {@link #FALSE_POSITIVE_RATE} of unknown urls as not found, provided no
+ * more than <code>expectedMisses</code> urls are added per generation.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  wrapper.setResolveCache(new ResolveCache(1000, 24 * 60 * 60 * 1000, 10000, 10 * 60 * 1000));
+ *  long id = wrapper.resolve("http://soundcloud.com/bob");
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setResolveCache(ResolveCache)
+ */
+public class ResolveCache {
+    /** number of generations of the negative cache */
+    public static final int GENERATIONS = 4;
+    /** approximate false positive rate of the negative cache */
+    public static final double FALSE_POSITIVE_RATE = 0.01;
+
+    /** maximum number of cached ids */
+    public final int maxEntries;
+    /** time in ms ids are cached */
+    public final long ttl;
+    /** time in ms unresolvable urls are remembered, 0 if they are not */
+    public final long negativeTtl;
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+    private final BitSet[] mGenerations;
+    private final int mBits, mHashes;
+    private int mCurrent;
+    private long mGenerationStart;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mNegativeHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * @param maxEntries maximum number of cached ids
+     * @param ttl        time in ms ids are cached
+     */
+    public ResolveCache(int maxEntries, long ttl) {
+        this(maxEntries, ttl, 0, 0);
+    }
+
+    /**
+     * @param maxEntries     maximum number of cached ids
+     * @param ttl            time in ms ids are cached
+     * @param expectedMisses number of unresolvable urls expected per generation
+     *                       (<code>negativeTtl / GENERATIONS</code>), 0 to disable negative caching
+     * @param negativeTtl    time in ms unresolvable urls are remembered
+     */
+    public ResolveCache(int maxEntries, long ttl, int expectedMisses, long negativeTtl) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+        if (ttl <= 0) throw new IllegalArgumentException("ttl <= 0");
+        if (expectedMisses < 0) throw new IllegalArgumentException("negative expectedMisses");
+        if (expectedMisses > 0 && negativeTtl < GENERATIONS) throw new IllegalArgumentException("negativeTtl too short");
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+
+        if (expectedMisses > 0) {
+            this.negativeTtl = negativeTtl;
+            // a lookup checks every generation, so each one gets a share of the false positives
+            final double p = FALSE_POSITIVE_RATE / GENERATIONS;
+            mBits = (int) Math.ceil(-expectedMisses * Math.log(p) / (Math.log(2) * Math.log(2)));
+            mHashes = Math.max(1, (int) Math.round((double) mBits / expectedMisses * Math.log(2)));
+            mGenerations = new BitSet[GENERATIONS];
+            for (int i = 0; i < GENERATIONS; i++) {
+                mGenerations[i] = new BitSet(mBits);
+            }
+            mGenerationStart = now();
+        } else {
+            this.negativeTtl = 0;
+            mBits = mHashes = 0;
+            mGenerations = null;
+        }
+    }
+
+    /**
+     * @param url the url passed to {@link ApiWrapper#resolve(String)}
+     * @return the cached id, or null
+     */
+    public Long get(String url) {
+        Long id = null;
+        synchronized (this) {
+            final Entry entry = mEntries.get(url);
+            if (entry != null) {
+                if (entry.expires > now()) {
+                    id = entry.id;
+                } else {
+                    mEntries.remove(url);
+                }
+            }
+        }
+        if (id != null) mHits.incrementAndGet();
+        return id;
+    }
+
+    /**
+     * Checks the negative cache, to be called after {@link #get(String)} found nothing.
+     *
+     * @param url the url passed to {@link ApiWrapper#resolve(String)}
+     * @return true if the url could probably not be resolved recently
+     */
+    public boolean isNotFound(String url) {
+        boolean found = false;
+        if (mGenerations != null) {
+            synchronized (this) {
+                rotate();
+                final int h1 = url.hashCode(), h2 = hash2(url);
+                for (int g = 0; g < GENERATIONS && !found; g++) {
+                    found = contains(mGenerations[g], h1, h2);
+                }
+            }
+        }
+        (found ? mNegativeHits : mMisses).incrementAndGet();
+        return found;
+    }
+
+    /**
+     * Stores a resolved id, evicting the least recently used id if the cache is full.
+     *
+     * @param url the url passed to {@link ApiWrapper#resolve(String)}
+     * @param id  the resolved id
+     */
+    public synchronized void put(String url, long id) {
+        mEntries.put(url, new Entry(id, now() + ttl));
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mEntries.size() > maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remembers a url which could not be resolved. Does nothing without negative caching.
+     *
+     * @param url the url passed to {@link ApiWrapper#resolve(String)}
+     */
+    public synchronized void putNotFound(String url) {
+        if (mGenerations == null) return;
+        rotate();
+        final BitSet bits = mGenerations[mCurrent];
+        final int h1 = url.hashCode(), h2 = hash2(url);
+        for (int i = 0; i < mHashes; i++) {
+            bits.set(index(h1, h2, i));
+        }
+    }
+
+    /** Removes all ids and unresolvable urls */
+    public synchronized void clear() {
+        mEntries.clear();
+        if (mGenerations != null) {
+            for (BitSet bits : mGenerations) {
+                bits.clear();
+            }
+        }
+    }
+
+    /** @return the number of cached ids, including expired ones not yet removed */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** @return number of lookups which found an id */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** @return number of lookups which found the url in the negative cache */
+    public long getNegativeHitCount() {
+        return mNegativeHits.get();
+    }
+
+    /** @return number of lookups which found nothing */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** @return fraction of lookups answered from the cache, positively or negatively; 0 if there were none */
+    public double getHitRate() {
+        final long hits = mHits.get() + mNegativeHits.get(), total = hits + mMisses.get();
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    /** @return number of ids evicted to stay within the entry limit */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /* package */ long now() {
+        return System.currentTimeMillis();
+    }
+
+    /** Starts new generations for the time elapsed, dropping the oldest ones */
+    private void rotate() {
+        final long span = negativeTtl / GENERATIONS;
+        final long elapsed = (now() - mGenerationStart) / span;
+        if (elapsed <= 0) return;
+        for (long i = 0; i < Math.min(elapsed, GENERATIONS); i++) {
+            mCurrent = (mCurrent + 1) % GENERATIONS;
+            mGenerations[mCurrent].clear();
+        }
+        mGenerationStart += elapsed * span;
+    }
+
+    private boolean contains(BitSet bits, int h1, int h2) {
+        for (int i = 0; i < mHashes; i++) {
+            if (!bits.get(index(h1, h2, i))) return false;
+        }
+        return true;
+    }
+
+    /** @return the i-th bit index, derived from two hashes (Kirsch-Mitzenmacher) */
+    private int index(int h1, int h2, int i) {
+        final int h = h1 + i * h2;
+        return (h & Integer.MAX_VALUE) % mBits;
+    }
+
+    /** @return FNV-1a hash of the string, independent of {@link String#hashCode()} */
+    private static int hash2(String s) {
+        int h = 0x811c9dc5;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x01000193;
+        }
+        // odd, so that successive indexes don't repeat early
+        return h | 1;
+    }
+
+    @Override
+    public String toString() {
+        return "ResolveCache{" +
+                "size=" + size() +
+                ", hits=" + getHitCount() +
+                ", negativeHits=" + getNegativeHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                '}';
+    }
+
+    private static class Entry {
+        final long id;
+        final long expires;
+
+        Entry(long id, long expires) {
+            this.id = id;
+            this.expires = expires;
+        }
+    }
+}
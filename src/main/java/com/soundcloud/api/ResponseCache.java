@@ -0,0 +1,204 @@
+package com.soundcloud.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.auth.AUTH;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of GET responses, revalidated with <code>If-None-Match</code> or
+ * <code>If-Modified-Since</code>. The cache is bounded by the total size of the cached bodies,
+ * least recently used entries are evicted first. Optionally backed by a {@link DiskResponseCache}.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  wrapper.setResponseCache(new ResponseCache(4 * 1024 * 1024));
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setResponseCache(ResponseCache)
+ */
+public class ResponseCache {
+    private final long mMaxBytes;
+    private final DiskResponseCache mDisk;
+    private final LinkedHashMap<String, CachedResponse> mEntries =
+            new LinkedHashMap<String, CachedResponse>(16, 0.75f, true);
+    private long mBytes;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRevalidations = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * @param maxBytes the maximum total size of all cached bodies
+     */
+    public ResponseCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * @param maxBytes the maximum total size of all bodies cached in memory
+     * @param disk     the persistent tier, consulted on memory misses, or null
+     */
+    public ResponseCache(long maxBytes, DiskResponseCache disk) {
+        if (maxBytes <= 0) throw new IllegalArgumentException("maxBytes <= 0");
+        mMaxBytes = maxBytes;
+        mDisk = disk;
+    }
+
+    /**
+     * @param key the cache key
+     * @return the cached response, or null
+     */
+    public CachedResponse get(String key) {
+        CachedResponse response;
+        synchronized (this) {
+            response = mEntries.get(key);
+        }
+        if (response == null && mDisk != null) {
+            response = mDisk.get(key);
+            if (response != null) putInMemory(key, response);
+        }
+        (response == null ? mMisses : mHits).incrementAndGet();
+        return response;
+    }
+
+    /**
+     * Stores a response, evicting least recently used responses if necessary. Responses larger than
+     * the cache are not stored.
+     *
+     * @param key      the cache key
+     * @param response the response
+     */
+    public void put(String key, CachedResponse response) {
+        putInMemory(key, response);
+        if (mDisk != null) mDisk.put(key, response);
+    }
+
+    /**
+     * @param key the cache key
+     */
+    public void remove(String key) {
+        removeFromMemory(key);
+        if (mDisk != null) mDisk.remove(key);
+    }
+
+    /** @return the maximum total size of all bodies cached in memory */
+    public long getMaxBytes() {
+        return mMaxBytes;
+    }
+
+    /** @return the persistent tier, or null */
+    public DiskResponseCache getDiskCache() {
+        return mDisk;
+    }
+
+    private synchronized void putInMemory(String key, CachedResponse response) {
+        removeFromMemory(key);
+        if (response.size() > mMaxBytes) return;
+
+        mEntries.put(key, response);
+        mBytes += response.size();
+
+        Iterator<Map.Entry<String, CachedResponse>> it = mEntries.entrySet().iterator();
+        while (mBytes > mMaxBytes && it.hasNext()) {
+            mBytes -= it.next().getValue().size();
+            it.remove();
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    private synchronized void removeFromMemory(String key) {
+        final CachedResponse removed = mEntries.remove(key);
+        if (removed != null) mBytes -= removed.size();
+    }
+
+    /** Clears the in-memory tier */
+    public synchronized void clear() {
+        mEntries.clear();
+        mBytes = 0;
+    }
+
+    /** @return the number of responses cached in memory */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** @return the total size of all bodies cached in memory */
+    public synchronized long getBytes() {
+        return mBytes;
+    }
+
+    /** @return number of lookups which found a response to revalidate */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** @return number of lookups which found nothing */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** @return number of times the server confirmed a cached response (304) */
+    public long getRevalidationCount() {
+        return mRevalidations.get();
+    }
+
+    /** @return number of responses evicted from memory to stay within the size limit */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /* package */ void revalidated() {
+        mRevalidations.incrementAndGet();
+    }
+
+    /**
+     * @param request the request, with all headers added
+     * @return the cache key: method, URI, requested content type and a hash of the authorization
+     */
+    public static String key(HttpRequest request) {
+        final Header accept = request.getFirstHeader("Accept");
+        final Header auth = request.getFirstHeader(AUTH.WWW_AUTH_RESP);
+        return request.getRequestLine().getMethod() + " " +
+                request.getRequestLine().getUri() + " " +
+                (accept == null ? "" : accept.getValue()) + " " +
+                (auth == null ? "" : sha1(auth.getValue()));
+    }
+
+    /* package */ static String sha1(String s) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(Request.UTF_8));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "ResponseCache{" +
+                "size=" + size() +
+                ", bytes=" + getBytes() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", revalidations=" + getRevalidationCount() +
+                ", evictions=" + getEvictionCount() +
+                '}';
+    }
+}
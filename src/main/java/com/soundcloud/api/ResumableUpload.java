@@ -0,0 +1,426 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * Uploads a track asset in fixed-size chunks, so that a failed upload can continue where it
+ * stopped instead of starting over. Progress (upload id and confirmed offset) is kept in a small
+ * journal file, which allows resuming after a restart of the process, and failed chunks are
+ * retried according to a {@link RetryPolicy}.
+ *
+ * The server side is assumed, it is not part of the documented API. The expected protocol, shown
+ * with the {@link #DEFAULT_ENDPOINT default endpoint}:
+ * <ol>
+ *     <li><code>POST /tracks/uploads</code> with the track parameters, <code>upload[size]</code> and
+ *     <code>upload[file_name]</code>, answered with <code>{"id": "...", "offset": 0}</code></li>
+ *     <li><code>PUT /tracks/uploads/{id}?offset=n</code> with the bytes following n, answered with
+ *     <code>{"id": "...", "offset": m}</code>, or with <code>201 Created</code> and the track once all
+ *     bytes have been received</li>
+ *     <li><code>GET /tracks/uploads/{id}</code> to find the confirmed offset when resuming, or after a
+ *     failed chunk</li>
+ * </ol>
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  ResumableUpload upload = new ResumableUpload(wrapper,
+ *      Request.to(Endpoints.TRACKS).with(Params.Track.TITLE, "Rainy Day"),
+ *      new File("rainy_day.wav"),
+ *      new File(cacheDir, "rainy_day.upload"));
+ *  HttpResponse response = upload.upload(); // 201 Created, same as a plain upload
+ *   </pre>
+ *  </code>
+ */
+public class ResumableUpload {
+    /** default chunk size: 8MB */
+    public static final int DEFAULT_CHUNK_SIZE = 8 * 1024 * 1024;
+    /** default endpoint for starting uploads, single uploads live below it */
+    public static final String DEFAULT_ENDPOINT = "/tracks/uploads";
+
+    /* package */ static final String SIZE      = "upload[size]";
+    /* package */ static final String FILE_NAME = "upload[file_name]";
+    /* package */ static final String OFFSET    = "offset";
+    /* package */ static final String ID        = "id";
+
+    private static final String JOURNAL_PATH          = "path";
+    private static final String JOURNAL_SIZE          = "size";
+    private static final String JOURNAL_LAST_MODIFIED = "lastModified";
+
+    private final CloudAPI mApi;
+    private final Request mTrack;
+    private final File mFile;
+    private final File mJournal;
+    private final String mEndpoint;
+
+    private int mChunkSize = DEFAULT_CHUNK_SIZE;
+    private RetryPolicy mRetryPolicy = RetryPolicy.DEFAULT;
+    private Request.TransferProgressListener mListener;
+
+    private String mUploadId;
+    private long mOffset;
+
+    /**
+     * @param api     the api wrapper used to send all requests
+     * @param track   the track parameters, without any files
+     * @param file    the asset to upload
+     * @param journal file used to persist progress, removed once the upload has finished
+     */
+    public ResumableUpload(CloudAPI api, Request track, File file, File journal) {
+        this(api, track, file, journal, DEFAULT_ENDPOINT);
+    }
+
+    /**
+     * @param api      the api wrapper used to send all requests
+     * @param track    the track parameters, without any files
+     * @param file     the asset to upload
+     * @param journal  file used to persist progress, removed once the upload has finished
+     * @param endpoint the endpoint for starting uploads, e.g. {@link #DEFAULT_ENDPOINT}
+     */
+    public ResumableUpload(CloudAPI api, Request track, File file, File journal, String endpoint) {
+        if (api == null) throw new IllegalArgumentException("api is null");
+        if (track == null) throw new IllegalArgumentException("track is null");
+        if (track.isMultipart()) throw new IllegalArgumentException("track must not contain files");
+        if (file == null) throw new IllegalArgumentException("file is null");
+        if (journal == null) throw new IllegalArgumentException("journal is null");
+        if (endpoint == null) throw new IllegalArgumentException("endpoint is null");
+
+        mApi = api;
+        mTrack = new Request(track);
+        mFile = file;
+        mJournal = journal;
+        mEndpoint = endpoint;
+    }
+
+    /**
+     * @param chunkSize size of each uploaded chunk in bytes
+     * @return this
+     */
+    public ResumableUpload setChunkSize(int chunkSize) {
+        if (chunkSize < 1) throw new IllegalArgumentException("chunkSize < 1");
+        mChunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Chunks are retried by the upload, asking the server for the confirmed offset in between.
+     * They are never retried by the {@link ApiWrapper#setRetryPolicy wrapper's retry policy}.
+     *
+     * @param policy how often and when to retry failed chunks
+     * @return this
+     */
+    public ResumableUpload setRetryPolicy(RetryPolicy policy) {
+        if (policy == null) throw new IllegalArgumentException("policy is null");
+        mRetryPolicy = policy;
+        return this;
+    }
+
+    /**
+     * @param listener notified with the number of bytes confirmed by the server after each chunk
+     * @return this
+     */
+    public ResumableUpload setProgressListener(Request.TransferProgressListener listener) {
+        mListener = listener;
+        return this;
+    }
+
+    /**
+     * Uploads the file, resuming a previous upload recorded in the journal if the file has not
+     * been modified since.
+     *
+     * @return the response to the last chunk (<code>201 Created</code>, containing the track)
+     * @throws IOException if a chunk still fails after all permitted retries, or the server
+     *                     responds in error ({@link CloudAPI.ApiResponseException})
+     */
+    public HttpResponse upload() throws IOException {
+        final long size = mFile.length();
+        if (!resume(size)) start(size);
+
+        int retry = 0;
+        long waited = 0;
+        while (true) {
+            final long offset = mOffset;
+            final long length = Math.min(mChunkSize, size - offset);
+            IOException error = null;
+            HttpResponse response = null;
+            try {
+                response = mApi.put(Request.to(mEndpoint + "/%s", mUploadId)
+                        .with(OFFSET, offset)
+                        .withEntity(new ChunkEntity(mFile, offset, length)));
+            } catch (IOException e) {
+                if (!mRetryPolicy.isRetryable(e)) throw e;
+                error = e;
+            }
+
+            if (response != null) {
+                final int status = response.getStatusLine().getStatusCode();
+                if (status == HttpStatus.SC_CREATED) {
+                    mJournal.delete();
+                    mOffset = size;
+                    progress(size);
+                    return response;
+                } else if (status == HttpStatus.SC_OK) {
+                    confirmed(parse(response), size);
+                    if (mOffset > offset) {
+                        retry = 0;
+                        waited = 0;
+                        continue;
+                    }
+                    // no progress, retry the chunk
+                } else if (mRetryPolicy.isRetryable(status)) {
+                    if (response.getEntity() != null) response.getEntity().consumeContent();
+                } else {
+                    throw new CloudAPI.ApiResponseException(response, "chunk upload failed");
+                }
+            }
+
+            retry++;
+            final long delay = mRetryPolicy.backoff(retry);
+            if (retry > mRetryPolicy.maxRetries || waited + delay > mRetryPolicy.maxRetryTime) {
+                if (error != null) throw error;
+                throw new CloudAPI.ApiResponseException(response, "chunk upload failed");
+            }
+            sleep(delay);
+            waited += delay;
+
+            // the server might have received part of the chunk
+            try {
+                if (!query()) start(size);
+            } catch (CloudAPI.ApiResponseException e) {
+                if (e.response == null || !mRetryPolicy.isRetryable(e.getStatusCode())) throw e;
+            } catch (IOException e) {
+                if (!mRetryPolicy.isRetryable(e)) throw e;
+            }
+        }
+    }
+
+    /** @return the id assigned by the server, or null if the upload has not started yet */
+    public String getUploadId() {
+        return mUploadId;
+    }
+
+    /** @return the number of bytes confirmed by the server */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Continues the upload recorded in the journal.
+     * @return true if there was an upload to continue
+     */
+    private boolean resume(long size) throws IOException {
+        final Properties journal = readJournal();
+        if (journal == null) return false;
+
+        if (!mFile.getAbsolutePath().equals(journal.getProperty(JOURNAL_PATH)) ||
+            !String.valueOf(size).equals(journal.getProperty(JOURNAL_SIZE)) ||
+            !String.valueOf(mFile.lastModified()).equals(journal.getProperty(JOURNAL_LAST_MODIFIED))) {
+            // the file has changed, the partial upload is useless
+            mJournal.delete();
+            return false;
+        }
+        mUploadId = journal.getProperty(ID);
+        return mUploadId != null && query();
+    }
+
+    private void start(long size) throws IOException {
+        final Request request = Request.to(mEndpoint);
+        for (NameValuePair param : mTrack) {
+            request.add(param.getName(), param.getValue());
+        }
+        request.add(SIZE, size).add(FILE_NAME, mFile.getName());
+
+        final HttpResponse response = mApi.post(request);
+        if (response.getStatusLine().getStatusCode() != HttpStatus.SC_CREATED) {
+            throw new CloudAPI.ApiResponseException(response, "could not start upload");
+        }
+        final JSONObject json = parse(response);
+        try {
+            mUploadId = json.getString(ID);
+        } catch (JSONException e) {
+            throw new CloudAPI.ApiResponseException(e, response);
+        }
+        mOffset = 0;
+        confirmed(json, size);
+    }
+
+    /**
+     * Asks the server for the confirmed offset.
+     * @return false if the server does not know the upload (anymore)
+     */
+    private boolean query() throws IOException {
+        final HttpResponse response = mApi.get(Request.to(mEndpoint + "/%s", mUploadId));
+        final int status = response.getStatusLine().getStatusCode();
+        if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_GONE) {
+            if (response.getEntity() != null) response.getEntity().consumeContent();
+            mJournal.delete();
+            mUploadId = null;
+            return false;
+        } else if (status != HttpStatus.SC_OK) {
+            throw new CloudAPI.ApiResponseException(response, "could not query upload " + mUploadId);
+        }
+        mOffset = 0;
+        confirmed(parse(response), mFile.length());
+        return true;
+    }
+
+    private void confirmed(JSONObject json, long size) throws IOException {
+        final long offset = json.optLong(OFFSET, -1);
+        if (offset < 0 || offset > size) {
+            throw new IOException("invalid offset " + json.opt(OFFSET) + " for upload " + mUploadId);
+        }
+        if (offset != mOffset) {
+            mOffset = offset;
+            writeJournal(size);
+            progress(offset);
+        } else if (!mJournal.exists()) {
+            writeJournal(size);
+        }
+    }
+
+    private void progress(long offset) throws IOException {
+        if (mListener != null) mListener.transferred(offset);
+    }
+
+    private static JSONObject parse(HttpResponse response) throws IOException {
+        try {
+            return Http.getJSON(response);
+        } catch (IOException e) {
+            throw new CloudAPI.ApiResponseException(e, response);
+        }
+    }
+
+    private Properties readJournal() {
+        if (!mJournal.exists()) return null;
+        final Properties journal = new Properties();
+        try {
+            final InputStream in = new FileInputStream(mJournal);
+            try {
+                journal.load(in);
+            } finally {
+                in.close();
+            }
+            return journal;
+        } catch (IOException e) {
+            // unreadable, start over
+            mJournal.delete();
+            return null;
+        }
+    }
+
+    private void writeJournal(long size) throws IOException {
+        final Properties journal = new Properties();
+        journal.setProperty(ID, mUploadId);
+        journal.setProperty(OFFSET, String.valueOf(mOffset));
+        journal.setProperty(JOURNAL_PATH, mFile.getAbsolutePath());
+        journal.setProperty(JOURNAL_SIZE, String.valueOf(size));
+        journal.setProperty(JOURNAL_LAST_MODIFIED, String.valueOf(mFile.lastModified()));
+
+        // write a copy first, the journal must never be left half written
+        final File tmp = new File(mJournal.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            journal.store(out, null);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(mJournal)) {
+            mJournal.delete();
+            if (!tmp.renameTo(mJournal)) throw new IOException("could not write journal " + mJournal);
+        }
+    }
+
+    private static void sleep(long delay) throws InterruptedIOException {
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry");
+        }
+    }
+
+    /**
+     * A region of a file, sent with {@link java.nio.channels.FileChannel#transferTo} if possible.
+     */
+    /* package */ static class ChunkEntity extends AbstractHttpEntity {
+        private final File mFile;
+        private final long mOffset;
+        private final long mLength;
+
+        ChunkEntity(File file, long offset, long length) {
+            mFile = file;
+            mOffset = offset;
+            mLength = length;
+            setContentType("application/octet-stream");
+        }
+
+        /**
+         * Not repeatable as far as the wrapper is concerned: a failed chunk must not be sent again
+         * before the server has been asked for the confirmed offset.
+         */
+        @Override
+        public boolean isRepeatable() {
+            return false;
+        }
+
+        @Override
+        public long getContentLength() {
+            return mLength;
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            final FileInputStream in = new FileInputStream(mFile);
+            in.getChannel().position(mOffset);
+            return new FilterInputStream(in) {
+                private long mRemaining = mLength;
+
+                @Override
+                public int read() throws IOException {
+                    if (mRemaining <= 0) return -1;
+                    final int b = super.read();
+                    if (b >= 0) mRemaining--;
+                    return b;
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    if (mRemaining <= 0) return -1;
+                    final int n = super.read(b, off, (int) Math.min(len, mRemaining));
+                    if (n > 0) mRemaining -= n;
+                    return n;
+                }
+            };
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            final FileInputStream in = new FileInputStream(mFile);
+            try {
+                Request.FileChannelBody.writeRegion(in.getChannel(), mOffset, mLength, out);
+            } finally {
+                in.close();
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+}
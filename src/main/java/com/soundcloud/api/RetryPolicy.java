@@ -0,0 +1,180 @@
+package com.soundcloud.api;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+import javax.net.ssl.SSLException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Immutable policy for retrying failed requests, used by {@link ApiWrapper#safeExecute}.
+ * <p/>
+ * Requests are retried after network errors and after responses with status
+ * 429 (spam warning / throttling), 500, 502, 503 or 504. The delay between attempts grows
+ * exponentially and is randomized ("full jitter"), unless the server sends a
+ * <code>Retry-After</code> header. By default only idempotent requests are retried.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  wrapper.setRetryPolicy(RetryPolicy.DEFAULT.withMaxRetries(5).withBackoff(200, 5000));
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setRetryPolicy(RetryPolicy)
+ */
+public class RetryPolicy implements Serializable {
+    private static final long serialVersionUID = 4911263514862093467L;
+    private static final List<String> IDEMPOTENT = Arrays.asList("GET", "HEAD", "PUT", "DELETE", "OPTIONS", "TRACE");
+    private static final Random RANDOM = new Random();
+
+    /** 3 retries, backoff from 100ms up to 10s, at most 30s spent waiting per request */
+    public static final RetryPolicy DEFAULT = new RetryPolicy(3, 100, 10 * 1000, 30 * 1000, false);
+
+    /** maximum number of retries per request */
+    public final int maxRetries;
+    /** delay in ms before the first retry, doubled for every further retry */
+    public final long baseDelay;
+    /** maximum delay in ms between two attempts */
+    public final long maxDelay;
+    /** maximum total time in ms spent waiting between attempts of a single request */
+    public final long maxRetryTime;
+    /** whether to retry requests which are not idempotent (e.g. POST) */
+    public final boolean retryNonIdempotent;
+
+    private RetryPolicy(int maxRetries, long baseDelay, long maxDelay, long maxRetryTime,
+                        boolean retryNonIdempotent) {
+        if (maxRetries < 0) throw new IllegalArgumentException("negative maxRetries");
+        if (baseDelay < 0) throw new IllegalArgumentException("negative baseDelay");
+        if (maxDelay < baseDelay) throw new IllegalArgumentException("maxDelay < baseDelay");
+        if (maxRetryTime < 0) throw new IllegalArgumentException("negative maxRetryTime");
+        this.maxRetries = maxRetries;
+        this.baseDelay = baseDelay;
+        this.maxDelay = maxDelay;
+        this.maxRetryTime = maxRetryTime;
+        this.retryNonIdempotent = retryNonIdempotent;
+    }
+
+    public RetryPolicy withMaxRetries(int maxRetries) {
+        return new RetryPolicy(maxRetries, baseDelay, maxDelay, maxRetryTime, retryNonIdempotent);
+    }
+
+    /**
+     * @param baseDelay delay in ms before the first retry
+     * @param maxDelay  maximum delay in ms between two attempts
+     * @return the new policy
+     */
+    public RetryPolicy withBackoff(long baseDelay, long maxDelay) {
+        return new RetryPolicy(maxRetries, baseDelay, maxDelay, maxRetryTime, retryNonIdempotent);
+    }
+
+    /**
+     * @param maxRetryTime maximum total time in ms spent waiting between attempts of a request.
+     *                     A <code>Retry-After</code> exceeding the remaining time ends the retries.
+     * @return the new policy
+     */
+    public RetryPolicy withMaxRetryTime(long maxRetryTime) {
+        return new RetryPolicy(maxRetries, baseDelay, maxDelay, maxRetryTime, retryNonIdempotent);
+    }
+
+    public RetryPolicy withRetryNonIdempotent(boolean retryNonIdempotent) {
+        return new RetryPolicy(maxRetries, baseDelay, maxDelay, maxRetryTime, retryNonIdempotent);
+    }
+
+    /**
+     * @param request the request
+     * @return whether the request can be sent again
+     */
+    public boolean isRetryable(HttpUriRequest request) {
+        if (!retryNonIdempotent && !IDEMPOTENT.contains(request.getMethod())) return false;
+        if (request instanceof HttpEntityEnclosingRequest) {
+            final HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            if (entity != null && !entity.isRepeatable()) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param statusCode the response status
+     * @return whether the response indicates a temporary failure
+     */
+    public boolean isRetryable(int statusCode) {
+        switch (statusCode) {
+            case ApiWrapper.STATUS_CODE_SPAM_WARNING:
+            case HttpStatus.SC_INTERNAL_SERVER_ERROR:
+            case HttpStatus.SC_BAD_GATEWAY:
+            case HttpStatus.SC_SERVICE_UNAVAILABLE:
+            case HttpStatus.SC_GATEWAY_TIMEOUT:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * @param e the exception thrown while executing the request
+     * @return whether the exception indicates a temporary network failure
+     */
+    public boolean isRetryable(IOException e) {
+        if (e instanceof InterruptedIOException && Thread.currentThread().isInterrupted()) return false;
+        return !(e instanceof UnknownHostException ||
+                 e instanceof SSLException ||
+                 e instanceof ConnectionPoolTimeoutException ||
+                 e instanceof CloudAPI.RateLimitException ||
+                 e instanceof CloudAPI.CircuitOpenException ||
+                 e instanceof CloudAPI.BrokenHttpClientException);
+    }
+
+    /**
+     * @param retry the number of the retry, starting at 1
+     * @return a random delay in ms between 0 and <code>min(maxDelay, baseDelay * 2^(retry-1))</code>
+     */
+    public long backoff(int retry) {
+        final long ceiling = baseDelay << Math.min(retry - 1, 30);
+        final long max = ceiling < baseDelay ? maxDelay : Math.min(maxDelay, ceiling);
+        return max == 0 ? 0 : (long) (RANDOM.nextDouble() * (max + 1));
+    }
+
+    /**
+     * @param response the response
+     * @return the delay in ms requested by the <code>Retry-After</code> header, or -1
+     */
+    public static long retryAfter(HttpResponse response) {
+        final Header header = response.getFirstHeader("Retry-After");
+        if (header == null || header.getValue() == null) return -1;
+        final String value = header.getValue().trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, DateUtils.parseDate(value).getTime() - System.currentTimeMillis());
+            } catch (DateParseException ignored) {
+                return -1;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy{" +
+                "maxRetries=" + maxRetries +
+                ", baseDelay=" + baseDelay +
+                ", maxDelay=" + maxDelay +
+                ", maxRetryTime=" + maxRetryTime +
+                ", retryNonIdempotent=" + retryNonIdempotent +
+                '}';
+    }
+}
@@ -0,0 +1,40 @@
+package com.soundcloud.api;
+
+/**
+ * Snapshot of the retries performed by an {@link ApiWrapper}.
+ *
+ * @see ApiWrapper#getRetryStats()
+ * @see RetryPolicy
+ */
+public class RetryStats {
+    /** number of retries after a retryable response status (429, 5xx) */
+    public final long statusRetries;
+    /** number of retries after a network error */
+    public final long errorRetries;
+    /** number of requests which still failed after all permitted retries */
+    public final long exhausted;
+    /** total time in ms spent waiting before retries */
+    public final long totalDelay;
+
+    public RetryStats(long statusRetries, long errorRetries, long exhausted, long totalDelay) {
+        this.statusRetries = statusRetries;
+        this.errorRetries = errorRetries;
+        this.exhausted = exhausted;
+        this.totalDelay = totalDelay;
+    }
+
+    /** @return the total number of retries */
+    public long retries() {
+        return statusRetries + errorRetries;
+    }
+
+    @Override
+    public String toString() {
+        return "RetryStats{" +
+                "statusRetries=" + statusRetries +
+                ", errorRetries=" + errorRetries +
+                ", exhausted=" + exhausted +
+                ", totalDelay=" + totalDelay +
+                '}';
+    }
+}
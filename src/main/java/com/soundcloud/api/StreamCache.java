@@ -0,0 +1,234 @@
+package com.soundcloud.api;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache of resolved {@link Stream}s, used by {@link ApiWrapper#resolveStreamUrl}. Streams
+ * are served until {@link Stream#expires}, the number of entries is bounded and least recently used
+ * entries are evicted first.
+ * <p/>
+ * Entries which have been looked up since they were resolved are resolved again in the background
+ * <code>refreshAhead</code> ms before they expire, so that frequently played streams are always
+ * served from the cache. Entries nobody asked for are left to expire.
+ * <p/>
+ * {@link ApiWrapper} only caches streams resolved with <code>skipLogging</code> set, streams whose
+ * plays are logged are resolved by the server every time.
+ *
+ * Example:
+ * <code>
+ *   <pre>
+ *  wrapper.setStreamCache(new StreamCache(100, 10 * 1000));
+ *  Stream stream = wrapper.resolveStreamUrl("https://api.soundcloud.com/tracks/1234/stream", true);
+ *   </pre>
+ *  </code>
+ *
+ * @see ApiWrapper#setStreamCache(StreamCache)
+ */
+public class StreamCache {
+    /** maximum number of cached streams */
+    public final int maxEntries;
+    /** time in ms before expiry at which used entries get refreshed */
+    public final long refreshAhead;
+
+    private final LinkedHashMap<String, Entry> mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private ScheduledExecutorService mScheduler;
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+    private final AtomicLong mRefreshes = new AtomicLong();
+    private final AtomicLong mRefreshFailures = new AtomicLong();
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * @param maxEntries   maximum number of cached streams
+     * @param refreshAhead time in ms before expiry at which used entries get refreshed, 0 to disable
+     *                     refreshing
+     */
+    public StreamCache(int maxEntries, long refreshAhead) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+        if (refreshAhead < 0) throw new IllegalArgumentException("negative refreshAhead");
+        this.maxEntries = maxEntries;
+        this.refreshAhead = refreshAhead;
+    }
+
+    /**
+     * @param url         the stream url passed to {@link ApiWrapper#resolveStreamUrl}
+     * @param skipLogging whether the play is logged
+     * @return the cached stream, or null if there is none or it has expired
+     */
+    public Stream get(String url, boolean skipLogging) {
+        final String key = key(url, skipLogging);
+        Stream stream = null;
+        synchronized (this) {
+            final Entry entry = mEntries.get(key);
+            if (entry != null) {
+                if (entry.stream.expires > System.currentTimeMillis()) {
+                    entry.used = true;
+                    stream = entry.stream;
+                } else {
+                    remove(key);
+                }
+            }
+        }
+        (stream == null ? mMisses : mHits).incrementAndGet();
+        return stream;
+    }
+
+    /**
+     * Stores a stream, evicting the least recently used stream if the cache is full.
+     *
+     * @param url         the stream url passed to {@link ApiWrapper#resolveStreamUrl}
+     * @param skipLogging whether the play is logged
+     * @param stream      the resolved stream
+     * @param refresh     resolves the stream again and stores the result, run in the background
+     *                    before the stream expires if it has been used; or null
+     */
+    public synchronized void put(String url, boolean skipLogging, Stream stream, final Runnable refresh) {
+        final String key = key(url, skipLogging);
+        remove(key);
+        final Entry entry = new Entry(stream);
+        mEntries.put(key, entry);
+
+        if (refresh != null && refreshAhead > 0) {
+            final long delay = Math.max(0, stream.expires - refreshAhead - System.currentTimeMillis());
+            entry.refresh = schedule(new Runnable() {
+                @Override public void run() {
+                    synchronized (StreamCache.this) {
+                        if (mEntries.get(key) != entry || !entry.used) return;
+                    }
+                    mRefreshes.incrementAndGet();
+                    refresh.run();
+                }
+            }, delay);
+        }
+
+        Iterator<Entry> it = mEntries.values().iterator();
+        while (mEntries.size() > maxEntries && it.hasNext()) {
+            it.next().cancel();
+            it.remove();
+            mEvictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * @param url         the stream url passed to {@link ApiWrapper#resolveStreamUrl}
+     * @param skipLogging whether the play is logged
+     */
+    public synchronized void remove(String url, boolean skipLogging) {
+        remove(key(url, skipLogging));
+    }
+
+    /** Removes all streams and cancels pending refreshes */
+    public synchronized void clear() {
+        for (Entry entry : mEntries.values()) {
+            entry.cancel();
+        }
+        mEntries.clear();
+    }
+
+    /**
+     * Clears the cache and stops the background thread.
+     */
+    public synchronized void shutdown() {
+        clear();
+        if (mScheduler != null) {
+            mScheduler.shutdownNow();
+            mScheduler = null;
+        }
+    }
+
+    /** @return the number of cached streams, including expired ones not yet removed */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    /** @return number of lookups which found an unexpired stream */
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    /** @return number of lookups which found nothing, or an expired stream */
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    /** @return fraction of lookups served from the cache, 0 if there were none */
+    public double getHitRate() {
+        final long hits = mHits.get(), total = hits + mMisses.get();
+        return total == 0 ? 0d : (double) hits / total;
+    }
+
+    /** @return number of background refreshes started */
+    public long getRefreshCount() {
+        return mRefreshes.get();
+    }
+
+    /** @return number of background refreshes which failed, leaving the entry to expire */
+    public long getRefreshFailureCount() {
+        return mRefreshFailures.get();
+    }
+
+    /** @return number of streams evicted to stay within the entry limit */
+    public long getEvictionCount() {
+        return mEvictions.get();
+    }
+
+    /* package */ void refreshFailed() {
+        mRefreshFailures.incrementAndGet();
+    }
+
+    private void remove(String key) {
+        final Entry removed = mEntries.remove(key);
+        if (removed != null) removed.cancel();
+    }
+
+    private ScheduledFuture<?> schedule(Runnable task, long delay) {
+        if (mScheduler == null) {
+            mScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ApiWrapper-stream-cache");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return mScheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private static String key(String url, boolean skipLogging) {
+        return (skipLogging ? "1 " : "0 ") + url;
+    }
+
+    @Override
+    public String toString() {
+        return "StreamCache{" +
+                "size=" + size() +
+                ", hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", refreshes=" + getRefreshCount() +
+                ", refreshFailures=" + getRefreshFailureCount() +
+                ", evictions=" + getEvictionCount() +
+                '}';
+    }
+
+    private static class Entry {
+        final Stream stream;
+        volatile boolean used;
+        ScheduledFuture<?> refresh;
+
+        Entry(Stream stream) {
+            this.stream = stream;
+        }
+
+        void cancel() {
+            if (refresh != null) refresh.cancel(false);
+        }
+    }
+}
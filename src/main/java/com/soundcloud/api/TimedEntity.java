@@ -0,0 +1,78 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Reports the request timings to the metrics sink once the wrapped entity has been
+ * read completely, closed or consumed.
+ */
+class TimedEntity extends HttpEntityWrapper {
+    private final RequestTimings mTimings;
+    private final MetricsSink mSink;
+    private final long mStart = System.nanoTime();
+    private final AtomicBoolean mReported = new AtomicBoolean();
+
+    TimedEntity(HttpEntity wrapped, RequestTimings timings, MetricsSink sink) {
+        super(wrapped);
+        mTimings = timings;
+        mSink = sink;
+    }
+
+    @Override
+    public InputStream getContent() throws IOException {
+        final InputStream in = wrappedEntity.getContent();
+        return in == null ? null : new FilterInputStream(in) {
+            @Override public int read() throws IOException {
+                final int b = super.read();
+                if (b == -1) report();
+                return b;
+            }
+
+            @Override public int read(byte[] buffer, int offset, int length) throws IOException {
+                final int n = super.read(buffer, offset, length);
+                if (n == -1) report();
+                return n;
+            }
+
+            @Override public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    report();
+                }
+            }
+        };
+    }
+
+    @Override
+    public void writeTo(OutputStream out) throws IOException {
+        try {
+            super.writeTo(out);
+        } finally {
+            report();
+        }
+    }
+
+    @Override
+    public void consumeContent() throws IOException {
+        try {
+            super.consumeContent();
+        } finally {
+            report();
+        }
+    }
+
+    private void report() {
+        if (mReported.compareAndSet(false, true)) {
+            mTimings.completed(System.nanoTime() - mStart);
+            mSink.record(mTimings);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.soundcloud.api;
+
+import org.apache.http.HttpClientConnection;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+
+/**
+ * Records the time to first byte of the current request.
+ *
+ * @see RequestTimings
+ */
+class TimingRequestExecutor extends HttpRequestExecutor {
+    @Override
+    protected HttpResponse doSendRequest(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws IOException, HttpException {
+        final RequestTimings timings = RequestTimings.current();
+        if (timings != null) timings.requestSending();
+        return super.doSendRequest(request, conn, context);
+    }
+
+    @Override
+    protected HttpResponse doReceiveResponse(HttpRequest request, HttpClientConnection conn, HttpContext context)
+            throws HttpException, IOException {
+        final HttpResponse response = super.doReceiveResponse(request, conn, context);
+        final RequestTimings timings = RequestTimings.current();
+        if (timings != null) timings.firstByteReceived();
+        return response;
+    }
+}
@@ -0,0 +1,66 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
+import org.junit.Test;
+
+public class ApiKeepAliveStrategyTest {
+    final HttpConfig config = HttpConfig.DEFAULT.withKeepAliveTimeout(30000).withStreamKeepAliveTimeout(5000);
+    final ApiKeepAliveStrategy strategy = new ApiKeepAliveStrategy(Env.LIVE, config);
+
+    @Test
+    public void shouldHonorServerKeepAliveTimeout() throws Exception {
+        HttpResponse resp = response();
+        resp.addHeader("Keep-Alive", "timeout=5, max=100");
+        assertThat(strategy.getKeepAliveDuration(resp, context(Env.LIVE.sslResourceHost)), is(5000L));
+        assertThat(strategy.getServerHintCount(), is(1L));
+    }
+
+    @Test
+    public void shouldFallBackToApiHostDefault() throws Exception {
+        assertThat(strategy.getKeepAliveDuration(response(), context(Env.LIVE.sslResourceHost)), is(30000L));
+        assertThat(strategy.getKeepAliveDuration(response(), null), is(30000L));
+    }
+
+    @Test
+    public void shouldFallBackToStreamHostDefault() throws Exception {
+        HttpHost cdn = new HttpHost("ak-media.soundcloud.com", 80, "http");
+        assertThat(strategy.getKeepAliveDuration(response(), context(cdn)), is(5000L));
+    }
+
+    @Test
+    public void shouldIgnoreInvalidTimeout() throws Exception {
+        HttpResponse resp = response();
+        resp.addHeader("Keep-Alive", "timeout=soon");
+        assertThat(ApiKeepAliveStrategy.parseTimeout(resp), is(-1L));
+        assertThat(strategy.getKeepAliveDuration(resp, context(Env.LIVE.sslResourceHost)), is(30000L));
+        assertThat(strategy.getResponseCount(), is(1L));
+        assertThat(strategy.getServerHintCount(), is(0L));
+    }
+
+    @Test
+    public void shouldCalculateReuseRatio() throws Exception {
+        assertThat(new ConnectionStats(0, 0, 0).reuseRatio(), equalTo(0d));
+        assertThat(new ConnectionStats(10, 2, 0).reuseRatio(), equalTo(0.8d));
+        assertThat(new ConnectionStats(2, 3, 0).reuseRatio(), equalTo(0d));
+    }
+
+    private static HttpResponse response() {
+        return new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+    }
+
+    private static HttpContext context(HttpHost target) {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(ExecutionContext.HTTP_TARGET_HOST, target);
+        return context;
+    }
+}
@@ -7,6 +7,7 @@ import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.equalTo;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertThat;
@@ -19,36 +20,56 @@ import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.soundcloud.api.fakehttp.FakeApiWrapper;
 import com.soundcloud.api.fakehttp.FakeHttpLayer;
+import com.soundcloud.api.fakehttp.FakeHttpResponse;
+import com.soundcloud.api.fakehttp.HttpEntityStub;
 import com.soundcloud.api.fakehttp.RequestMatcher;
-import org.apache.http.ConnectionReuseStrategy;
 import org.apache.http.Header;
-import org.apache.http.HttpException;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpRequest;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.StatusLine;
-import org.apache.http.client.AuthenticationHandler;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.HttpRequestRetryHandler;
-import org.apache.http.client.RedirectHandler;
-import org.apache.http.client.RequestDirector;
-import org.apache.http.client.UserTokenHandler;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpUriRequest;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.ConnectionKeepAliveStrategy;
-import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRoute;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HttpContext;
-import org.apache.http.protocol.HttpProcessor;
-import org.apache.http.protocol.HttpRequestExecutor;
+import org.json.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
 
 
 public class ApiWrapperTest {
@@ -58,30 +79,7 @@ public class ApiWrapperTest {
     final FakeHttpLayer layer = new FakeHttpLayer();
     @Before
     public void setup() {
-        api = new ApiWrapper(TEST_CLIENT_ID, TEST_CLIENT_SECRET, URI.create("redirect://me"), null) {
-            private static final long serialVersionUID = 12345; // silence warnings
-            @Override
-            protected RequestDirector getRequestDirector(HttpRequestExecutor requestExec,
-                                                         ClientConnectionManager conman,
-                                                         ConnectionReuseStrategy reustrat,
-                                                         ConnectionKeepAliveStrategy kastrat,
-                                                         HttpRoutePlanner rouplan,
-                                                         HttpProcessor httpProcessor,
-                                                         HttpRequestRetryHandler retryHandler,
-                                                         RedirectHandler redirectHandler,
-                                                         AuthenticationHandler targetAuthHandler,
-                                                         AuthenticationHandler proxyAuthHandler,
-                                                         UserTokenHandler stateHandler,
-                                                         HttpParams params) {
-                return new RequestDirector() {
-                    @Override
-                    public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context)
-                            throws HttpException, IOException {
-                        return layer.emulateRequest(target, request, context, this);
-                    }
-                };
-            }
-        };
+        api = new FakeApiWrapper(layer, TEST_CLIENT_ID, TEST_CLIENT_SECRET, null);
         layer.clearHttpResponseRules();
     }
 
@@ -256,6 +254,116 @@ public class ApiWrapperTest {
         api.resolve("http://soundcloud.com/nonexisto");
     }
 
+    @Test
+    public void shouldResolveStreamUrlInParallel() throws Exception {
+        StreamCacheTest.ResolveServer server = new StreamCacheTest.ResolveServer();
+        layer.addHttpResponseRule(server);
+        final String url = "https://api.soundcloud.com/tracks/1/stream";
+        Stream sequential = api.resolveStreamUrl(url, false);
+
+        api.setParallelStreamResolution(true);
+        server.awaitSigning = true;
+        Stream parallel = api.resolveStreamUrl(url, false);
+        assertTrue(server.signedFirst);
+        assertThat(server.requests.get(), is(6));
+
+        assertThat(parallel.url, equalTo(sequential.url));
+        assertThat(parallel.streamUrl, containsString("1.mp3?Expires="));
+        assertThat(parallel.eTag, equalTo(sequential.eTag));
+        assertThat(parallel.contentLength, equalTo(sequential.contentLength));
+        assertThat(parallel.lastModified, equalTo(sequential.lastModified));
+        assertThat(parallel.duration, equalTo(sequential.duration));
+        assertThat(parallel.bitRate, equalTo(sequential.bitRate));
+    }
+
+    @Test
+    public void shouldResolveStreamUrlInParallelOnSingleThreadedExecutor() throws Exception {
+        StreamCacheTest.ResolveServer server = new StreamCacheTest.ResolveServer();
+        layer.addHttpResponseRule(server);
+        api.setExecutor(Executors.newSingleThreadExecutor());
+        api.setParallelStreamResolution(true);
+
+        Stream stream = api.resolveStreamUrlAsync("https://api.soundcloud.com/tracks/1/stream", false)
+                .get(5, TimeUnit.SECONDS);
+        assertThat(stream.streamUrl, containsString("1.mp3?Expires="));
+    }
+
+    @Test
+    public void shouldSkipLoggingWhenResolvingStreamUrl() throws Exception {
+        StreamCacheTest.ResolveServer server = new StreamCacheTest.ResolveServer();
+        layer.addHttpResponseRule(server);
+        final String url = "https://api.soundcloud.com/tracks/1/stream";
+
+        api.resolveStreamUrl(url, true);
+        assertThat(server.signedUri, containsString("skip_logging=1"));
+        api.resolveStreamUrl(url, false);
+        assertFalse(server.signedUri.contains("skip_logging"));
+    }
+
+    @Test
+    public void shouldFailParallelStreamResolutionLikeSequentialResolution() throws Exception {
+        StreamCacheTest.ResolveServer server = new StreamCacheTest.ResolveServer();
+        layer.addHttpResponseRule(server);
+        final String url = "https://api.soundcloud.com/tracks/1/stream";
+
+        for (boolean parallel : new boolean[] { false, true }) {
+            api.setParallelStreamResolution(parallel);
+            server.metadataStatus = 403;
+            server.signedStatus = 404;
+            try {
+                api.resolveStreamUrl(url, false);
+                fail("expected ResolverException");
+            } catch (CloudAPI.ResolverException e) {
+                assertThat(e.getStatusCode(), is(403));
+            }
+
+            server.metadataStatus = 200;
+            try {
+                api.resolveStreamUrl(url, false);
+                fail("expected ResolverException");
+            } catch (CloudAPI.ResolverException e) {
+                assertThat(e.getStatusCode(), is(404));
+                assertThat(e.getMessage(), containsString("Unexpected response code"));
+            }
+        }
+    }
+
+    @Test
+    public void resolveShouldUseCache() throws Exception {
+        ResolveRule resolver = new ResolveRule();
+        layer.addHttpResponseRule(resolver);
+        api.setResolveCache(new ResolveCache(10, 60 * 1000, 100, 60 * 1000));
+
+        assertThat(api.resolve("http://soundcloud.com/crazybob"), is(1000L));
+        assertThat(api.resolve("http://soundcloud.com/crazybob"), is(1000L));
+        assertThat(resolver.requests, is(1));
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                api.resolve("http://soundcloud.com/nonexisto");
+                fail("expected ResolverException");
+            } catch (CloudAPI.ResolverException e) {
+                assertThat(e.getStatusCode(), is(404));
+            }
+        }
+        assertThat(resolver.requests, is(2));
+        assertThat(api.getResolveCache().getHitCount(), is(1L));
+        assertThat(api.getResolveCache().getNegativeHitCount(), is(1L));
+        assertThat(api.getResolveCache().getMissCount(), is(2L));
+    }
+
+    @Test
+    public void resolveShouldNotCacheOtherErrors() throws Exception {
+        api.setResolveCache(new ResolveCache(10, 60 * 1000, 100, 60 * 1000));
+        layer.addPendingHttpResponse(500, "Oops");
+        try {
+            api.resolve("http://soundcloud.com/crazybob");
+            fail("expected ResolverException");
+        } catch (CloudAPI.ResolverException expected) {
+        }
+        assertFalse(api.getResolveCache().isNotFound("http://soundcloud.com/crazybob"));
+    }
+
     @Test
     public void shouldGetContent() throws Exception {
         layer.addHttpResponseRule("/some/resource?a=1&client_id=" + TEST_CLIENT_ID, "response");
@@ -580,4 +688,711 @@ public class ApiWrapperTest {
             assertEquals("Hi", Http.getString(api.get(foo)));
         }
     }
+
+    @Test
+    public void shouldGetContentAsynchronously() throws Exception {
+        layer.addHttpResponseRule("/some/resource?a=1&client_id=" + TEST_CLIENT_ID, "response");
+        ApiFuture<HttpResponse> future = api.getAsync(Request.to("/some/resource").with("a", "1"));
+        assertThat(Http.getString(future.getResult()), equalTo("response"));
+    }
+
+    @Test
+    public void shouldPassDefaultParametersToAsynchronousRequests() throws Exception {
+        layer.addHttpResponseRule("/foo?t=1&client_id=" + TEST_CLIENT_ID, "Hi t1");
+        ApiWrapper.setDefaultParameter("t", "1");
+        try {
+            assertThat(Http.getString(api.getAsync(Request.to("/foo")).getResult()), equalTo("Hi t1"));
+        } finally {
+            ApiWrapper.clearDefaultParameters();
+        }
+    }
+
+    @Test(expected = CloudAPI.ResolverException.class)
+    public void shouldThrowSameExceptionAsSynchronousCall() throws Exception {
+        layer.addPendingHttpResponse(404, "Not found");
+        api.resolveAsync("http://soundcloud.com/nonexisto").getResult();
+    }
+
+    @Test
+    public void shouldNotifyCallbacksAndTransformResults() throws Exception {
+        layer.addHttpResponseRule("/foo?client_id=" + TEST_CLIENT_ID, "Hi");
+        final Throwable[] failure = new Throwable[1];
+        ApiFuture<String> future = api.getAsync(Request.to("/foo"))
+                .then(new ApiFuture.Transformer<HttpResponse, String>() {
+                    @Override public String transform(HttpResponse result) throws IOException {
+                        return Http.getString(result);
+                    }
+                });
+        assertThat(future.getResult(), equalTo("Hi"));
+
+        layer.addPendingHttpResponse(404, "Not found");
+        ApiFuture<Long> failed = api.resolveAsync("http://soundcloud.com/nonexisto");
+        try {
+            failed.getResult();
+            fail("expected ResolverException");
+        } catch (CloudAPI.ResolverException expected) {
+        }
+        failed.addCallback(new ApiFuture.Callback<Long>() {
+            @Override public void onSuccess(Long result) {
+            }
+            @Override public void onFailure(Throwable throwable) {
+                failure[0] = throwable;
+            }
+        });
+        assertTrue(failure[0] instanceof CloudAPI.ResolverException);
+    }
+
+    @Test
+    public void shouldUseDefaultConfig() throws Exception {
+        assertThat(api.getConfig(), is(HttpConfig.DEFAULT));
+        HttpParams params = api.getParams();
+        assertThat(HttpConnectionParams.getConnectionTimeout(params), is(ApiWrapper.TIMEOUT));
+        assertThat(HttpConnectionParams.getSoTimeout(params), is(ApiWrapper.TIMEOUT));
+        assertThat(HttpConnectionParams.getSocketBufferSize(params), is(ApiWrapper.BUFFER_SIZE));
+        assertThat(ConnManagerParams.getMaxTotalConnections(params), is(ApiWrapper.MAX_TOTAL_CONNECTIONS));
+    }
+
+    @Test
+    public void shouldApplyCustomConfig() throws Exception {
+        HttpConfig config = HttpConfig.DEFAULT
+                .withMaxTotalConnections(50)
+                .withMaxConnectionsPerApiRoute(40)
+                .withMaxConnectionsPerRoute(5)
+                .withConnectTimeout(1000)
+                .withReadTimeout(2000)
+                .withSocketBufferSize(4096);
+        ApiWrapper wrapper = new ApiWrapper("client", "secret", null, null, config);
+        HttpParams params = wrapper.getParams();
+        assertThat(HttpConnectionParams.getConnectionTimeout(params), is(1000));
+        assertThat(HttpConnectionParams.getSoTimeout(params), is(2000));
+        assertThat(HttpConnectionParams.getSocketBufferSize(params), is(4096));
+        assertThat(ConnManagerParams.getMaxTotalConnections(params), is(50));
+
+        ConnPerRoute perRoute = ConnManagerParams.getMaxConnectionsPerRoute(params);
+        assertThat(perRoute.getMaxForRoute(new HttpRoute(wrapper.env.sslResourceHost)), is(40));
+        assertThat(perRoute.getMaxForRoute(new HttpRoute(new HttpHost("ak-media.soundcloud.com"))), is(5));
+
+        // defaults stay untouched
+        assertThat(HttpConfig.DEFAULT.maxTotalConnections, is(ApiWrapper.MAX_TOTAL_CONNECTIONS));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidConfig() throws Exception {
+        HttpConfig.DEFAULT.withMaxTotalConnections(0);
+    }
+
+    @Test
+    public void shouldExecuteAllRequestsInOrder() throws Exception {
+        List<Request> requests = new ArrayList<Request>();
+        for (int i = 0; i < 20; i++) {
+            layer.addHttpResponseRule("/tracks/" + i + "?client_id=" + TEST_CLIENT_ID, "track " + i);
+            requests.add(Request.to("/tracks/%d", i));
+        }
+        layer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherResponseRule(
+                new FakeHttpLayer.UriRequestMatcher("/tracks/20?client_id=" + TEST_CLIENT_ID),
+                new IOException("network error")));
+        requests.add(Request.to("/tracks/%d", 20));
+
+        List<ApiFuture<HttpResponse>> results = api.executeAll(requests, 4);
+        assertThat(results.size(), is(21));
+        for (int i = 0; i < 20; i++) {
+            assertTrue(results.get(i).isDone());
+            assertThat(Http.getString(results.get(i).getResult()), equalTo("track " + i));
+        }
+        try {
+            results.get(20).getResult();
+            fail("expected IOException");
+        } catch (IOException expected) {
+            assertThat(expected.getMessage(), equalTo("network error"));
+        }
+    }
+
+    @Test
+    public void shouldRecordMetricsPerEndpoint() throws Exception {
+        HistogramMetrics metrics = new HistogramMetrics();
+        api.setMetricsSink(metrics);
+        layer.addHttpResponseRule("/tracks/1?client_id=" + TEST_CLIENT_ID, "track");
+        layer.addHttpResponseRule("/tracks/2?client_id=" + TEST_CLIENT_ID, new FakeHttpResponse(404, "not found"));
+        layer.addHttpResponseRule("/users/3/tracks?client_id=" + TEST_CLIENT_ID, "tracks");
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/%d", 1))), equalTo("track"));
+        assertThat(Http.getString(api.get(Request.to("/tracks/%d", 2))), equalTo("not found"));
+        assertThat(Http.getString(api.get(Request.to("/users/3/tracks"))), equalTo("tracks"));
+
+        HistogramMetrics.Endpoint tracks = metrics.getEndpoint("GET /tracks/%d");
+        assertNotNull(tracks);
+        assertThat(tracks.getCount(), is(2L));
+        assertThat(tracks.getStatusClassCount(2), is(1L));
+        assertThat(tracks.getStatusClassCount(4), is(1L));
+        assertThat(tracks.total.getCount(), is(2L));
+        assertNotNull(metrics.getEndpoint("GET /users/%d/tracks"));
+    }
+
+    @Test
+    public void shouldRecordFailedRequests() throws Exception {
+        HistogramMetrics metrics = new HistogramMetrics();
+        api.setMetricsSink(metrics);
+        layer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherResponseRule(
+                new FakeHttpLayer.UriRequestMatcher("/me?client_id=" + TEST_CLIENT_ID),
+                new IOException("network error")));
+        try {
+            api.get(Request.to("/me"));
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertThat(metrics.getEndpoint("GET /me").getFailureCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRevalidateCachedResponses() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        api.setResponseCache(cache);
+        HttpResponse ok = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ok.addHeader("ETag", "\"abc\"");
+        ok.setEntity(new StringEntity("{\"id\":1}"));
+        layer.addPendingHttpResponse(ok);
+        layer.addPendingHttpResponse(new BasicHttpResponse(HttpVersion.HTTP_1_1, 304, "Not Modified"));
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("{\"id\":1}"));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.size(), is(1));
+
+        HttpResponse cached = api.get(Request.to("/tracks/1"));
+        assertThat(cached.getStatusLine().getStatusCode(), is(200));
+        assertThat(Http.getString(cached), equalTo("{\"id\":1}"));
+        assertThat(layer.getSentHttpRequestInfo(1).getHttpRequest().getFirstHeader("If-None-Match").getValue(),
+                equalTo("\"abc\""));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(cache.getRevalidationCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotBufferResponsesTooLargeForTheCache() throws Exception {
+        ResponseCache cache = new ResponseCache(4);
+        api.setResponseCache(cache);
+        HttpResponse large = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        large.addHeader("ETag", "\"abc\"");
+        StringEntity largeEntity = new StringEntity("too large");
+        large.setEntity(largeEntity);
+        HttpResponse chunked = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        chunked.addHeader("ETag", "\"def\"");
+        chunked.setEntity(new InputStreamEntity(new ByteArrayInputStream("also too large".getBytes()), -1));
+        layer.addPendingHttpResponse(large);
+        layer.addPendingHttpResponse(chunked);
+
+        assertThat(api.get(Request.to("/tracks/1")).getEntity(), sameInstance((HttpEntity) largeEntity));
+        assertThat(Http.getString(api.get(Request.to("/tracks/2"))), equalTo("also too large"));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldCacheChunkedResponses() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        api.setResponseCache(cache);
+        HttpResponse chunked = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        chunked.addHeader("ETag", "\"abc\"");
+        chunked.addHeader("Transfer-Encoding", "chunked");
+        chunked.setEntity(new InputStreamEntity(new ByteArrayInputStream("{\"id\":1}".getBytes()), -1));
+        layer.addPendingHttpResponse(chunked);
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("{\"id\":1}"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldCacheDecompressedResponses() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        api.setResponseCache(cache);
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bos);
+        gzip.write("{\"id\":1}".getBytes());
+        gzip.close();
+        ByteArrayEntity compressed = new ByteArrayEntity(bos.toByteArray());
+        compressed.setContentEncoding("gzip");
+        compressed.setContentType("application/json");
+        HttpResponse ok = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ok.addHeader("ETag", "\"abc\"");
+        ok.addHeader("Content-Encoding", "gzip");
+        ok.setEntity(new GzipDecompressingEntity(compressed));
+        layer.addPendingHttpResponse(ok);
+
+        HttpResponse resp = api.get(Request.to("/tracks/1"));
+        assertThat(Http.getString(resp), equalTo("{\"id\":1}"));
+        assertThat(resp.getEntity().getContentType().getValue(), equalTo("application/json"));
+        assertNull(resp.getFirstHeader("Content-Encoding"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldKeepServerResponseWhenCaching() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        api.setResponseCache(cache);
+        HttpResponse ok = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "Fine");
+        ok.addHeader("ETag", "\"abc\"");
+        ok.addHeader("X-Cache", "MISS");
+        ok.setEntity(new StringEntity("{\"id\":1}"));
+        layer.addPendingHttpResponse(ok);
+
+        HttpResponse resp = api.get(Request.to("/tracks/1"));
+        assertThat(resp.getStatusLine().getReasonPhrase(), equalTo("Fine"));
+        assertThat(resp.getFirstHeader("X-Cache").getValue(), equalTo("MISS"));
+        assertThat(Http.getString(resp), equalTo("{\"id\":1}"));
+        assertThat(cache.size(), is(1));
+    }
+
+    @Test
+    public void shouldNotShareCachedResponsesBetweenTokens() throws Exception {
+        ResponseCache cache = new ResponseCache(1024);
+        api.setResponseCache(cache);
+        HttpResponse ok = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ok.addHeader("ETag", "\"abc\"");
+        ok.setEntity(new StringEntity("me"));
+        HttpResponse other = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        other.setEntity(new StringEntity("someone else"));
+        layer.addPendingHttpResponse(ok);
+        layer.addPendingHttpResponse(other);
+
+        api.get(Request.to("/me").usingToken(new Token("access1", "refresh1")));
+        api.get(Request.to("/me").usingToken(new Token("access2", "refresh2")));
+        assertNull(layer.getSentHttpRequestInfo(1).getHttpRequest().getFirstHeader("If-None-Match"));
+        assertThat(cache.getMissCount(), is(2L));
+    }
+
+    @Test
+    public void shouldRetryIdempotentRequestsOnServiceUnavailable() throws Exception {
+        api.setRetryPolicy(RetryPolicy.DEFAULT.withBackoff(1, 1));
+        HttpResponse unavailable = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable");
+        unavailable.addHeader("Retry-After", "0");
+        HttpResponse ok = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ok.setEntity(new StringEntity("ok"));
+        layer.addPendingHttpResponse(unavailable);
+        layer.addPendingHttpResponse(ok);
+
+        assertThat(Http.getString(api.get(Request.to("/me"))), equalTo("ok"));
+        assertThat(api.getRetryStats().statusRetries, is(1L));
+        assertThat(api.getRetryStats().exhausted, is(0L));
+    }
+
+    @Test
+    public void shouldNotRetryNonIdempotentRequestsByDefault() throws Exception {
+        api.setRetryPolicy(RetryPolicy.DEFAULT.withBackoff(1, 1));
+        layer.addPendingHttpResponse(new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable"));
+
+        assertThat(api.post(Request.to("/tracks")).getStatusLine().getStatusCode(), is(503));
+        assertThat(api.getRetryStats().retries(), is(0L));
+    }
+
+    @Test
+    public void shouldGiveUpAfterMaxRetries() throws Exception {
+        api.setRetryPolicy(RetryPolicy.DEFAULT.withMaxRetries(2).withBackoff(1, 2));
+        final AtomicInteger attempts = new AtomicInteger();
+        layer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherResponseRule(new RequestMatcher() {
+            @Override public boolean matches(HttpRequest request) {
+                attempts.incrementAndGet();
+                return true;
+            }
+        }, new IOException("network error")));
+
+        try {
+            api.get(Request.to("/me"));
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertThat(attempts.get(), is(3));
+        assertThat(api.getRetryStats().errorRetries, is(2L));
+        assertThat(api.getRetryStats().exhausted, is(1L));
+    }
+
+    @Test
+    public void shouldNotWaitLongerThanTheRetryBudget() throws Exception {
+        api.setRetryPolicy(RetryPolicy.DEFAULT.withMaxRetryTime(1000));
+        HttpResponse throttled = new BasicHttpResponse(HttpVersion.HTTP_1_1, 429, "Too Many Requests");
+        throttled.addHeader("Retry-After", "60");
+        layer.addPendingHttpResponse(throttled);
+
+        assertThat(api.get(Request.to("/me")).getStatusLine().getStatusCode(), is(429));
+        assertThat(api.getRetryStats().exhausted, is(1L));
+    }
+
+    @Test
+    public void shouldFailFastWhenRateLimited() throws Exception {
+        RateLimiter limiter = new RateLimiter(0.001, 1);
+        api.setRateLimiter(limiter, 0);
+        layer.addHttpResponseRule("/me?client_id=" + TEST_CLIENT_ID, "me");
+
+        assertThat(Http.getString(api.get(Request.to("/me"))), equalTo("me"));
+        try {
+            api.get(Request.to("/me"));
+            fail("expected RateLimitException");
+        } catch (CloudAPI.RateLimitException expected) {
+        }
+        assertThat(limiter.getRejectedCount(), is(1L));
+    }
+
+    @Test
+    public void shouldFailFastWhenCircuitIsOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker(2, 0, 60 * 1000, 1);
+        api.setCircuitBreaker(breaker);
+        final AtomicInteger attempts = new AtomicInteger();
+        layer.addHttpResponseRule(new FakeHttpLayer.RequestMatcherResponseRule(new RequestMatcher() {
+            @Override public boolean matches(HttpRequest request) {
+                attempts.incrementAndGet();
+                return true;
+            }
+        }, new IOException("network error")));
+
+        for (int i = 0; i < 3; i++) {
+            try {
+                api.get(Request.to("/me"));
+                fail("expected IOException");
+            } catch (CloudAPI.CircuitOpenException e) {
+                assertThat(i, is(2));
+            } catch (IOException e) {
+                assertThat(e.getMessage(), equalTo("network error"));
+            }
+        }
+        assertThat(attempts.get(), is(2));
+        assertThat(breaker.getState(api.env.sslResourceHost), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void shouldReturnFirstResponseOfHedgedRequest() throws Exception {
+        RequestHedger hedger = new RequestHedger(10, 1);
+        for (int i = 0; i < 10; i++) hedger.requested();
+        api.setRequestHedger(hedger);
+        final AtomicInteger attempts = new AtomicInteger();
+        layer.addHttpResponseRule(new HttpEntityStub.ResponseRule() {
+            @Override public boolean matches(HttpRequest request) {
+                return true;
+            }
+            @Override public HttpResponse getResponse() {
+                if (attempts.incrementAndGet() == 1) {
+                    try {
+                        Thread.sleep(500);
+                    } catch (InterruptedException ignored) {
+                    }
+                    return new FakeHttpResponse(200, "slow");
+                } else {
+                    return new FakeHttpResponse(200, "fast");
+                }
+            }
+        });
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("fast"));
+        assertThat(attempts.get(), is(2));
+        assertThat(hedger.getHedgeCount(), is(1L));
+        assertThat(hedger.getHedgeWinCount(), is(1L));
+        hedger.shutdown();
+    }
+
+    @Test
+    public void shouldNotChargeHedgesOvertakenWhileQueued() throws Exception {
+        RequestHedger hedger = new RequestHedger(10, 1);
+        for (int i = 0; i < 10; i++) hedger.requested();
+        api.setRequestHedger(hedger);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        api.setExecutor(executor);
+        final CountDownLatch busy = new CountDownLatch(1);
+        executor.execute(new Runnable() {
+            @Override public void run() {
+                try {
+                    busy.await();
+                } catch (InterruptedException ignored) {
+                }
+            }
+        });
+        final AtomicInteger attempts = new AtomicInteger();
+        layer.addHttpResponseRule(new HttpEntityStub.ResponseRule() {
+            @Override public boolean matches(HttpRequest request) {
+                return true;
+            }
+            @Override public HttpResponse getResponse() {
+                attempts.incrementAndGet();
+                try {
+                    Thread.sleep(200);
+                } catch (InterruptedException ignored) {
+                }
+                return new FakeHttpResponse(200, "slow");
+            }
+        });
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("slow"));
+        busy.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.SECONDS));
+        assertThat(attempts.get(), is(1));
+        assertThat(hedger.getHedgeCount(), is(0L));
+        for (int i = 0; i < 10; i++) assertTrue(hedger.tryHedge());
+        hedger.shutdown();
+    }
+
+    @Test
+    public void shouldNotHedgeFastRequests() throws Exception {
+        RequestHedger hedger = new RequestHedger(1000, 1);
+        for (int i = 0; i < 10; i++) hedger.requested();
+        api.setRequestHedger(hedger);
+        layer.addHttpResponseRule("/tracks/1?client_id=" + TEST_CLIENT_ID, "track");
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("track"));
+        assertThat(hedger.getHedgeCount(), is(0L));
+        hedger.shutdown();
+    }
+
+    @Test
+    public void shouldCoalesceConcurrentIdenticalRequests() throws Exception {
+        api.setRequestCoalescing(true);
+        final AtomicInteger attempts = new AtomicInteger();
+        layer.addHttpResponseRule(new HttpEntityStub.ResponseRule() {
+            @Override public boolean matches(HttpRequest request) {
+                return true;
+            }
+            @Override public HttpResponse getResponse() throws IOException {
+                attempts.incrementAndGet();
+                // wait for the other requests to join
+                for (int i = 0; i < 500 && api.getCoalescedRequestCount() < 3; i++) {
+                    try {
+                        Thread.sleep(10);
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+                resp.setEntity(new StringEntity("track"));
+                return resp;
+            }
+        });
+
+        List<ApiFuture<HttpResponse>> futures = new ArrayList<ApiFuture<HttpResponse>>();
+        for (int i = 0; i < 4; i++) {
+            futures.add(api.getAsync(Request.to("/tracks/1")));
+        }
+        for (ApiFuture<HttpResponse> future : futures) {
+            assertThat(Http.getString(future.getResult()), equalTo("track"));
+        }
+        assertThat(attempts.get(), is(1));
+        assertThat(api.getCoalescedRequestCount(), is(3L));
+    }
+
+    @Test
+    public void shouldNotCoalesceSequentialRequests() throws Exception {
+        api.setRequestCoalescing(true);
+        HttpResponse first = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        first.setEntity(new StringEntity("first"));
+        HttpResponse second = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        second.setEntity(new StringEntity("second"));
+        layer.addPendingHttpResponse(first);
+        layer.addPendingHttpResponse(second);
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("first"));
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("second"));
+        assertThat(api.getCoalescedRequestCount(), is(0L));
+    }
+
+    @Test
+    public void shouldAddDefaultAcceptEncodingOnceToCoalescedRequests() throws Exception {
+        api.setRequestCoalescing(true);
+        api.setDefaultAcceptEncoding("gzip");
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        resp.setEntity(new StringEntity("track"));
+        layer.addPendingHttpResponse(resp);
+
+        assertThat(Http.getString(api.get(Request.to("/tracks/1"))), equalTo("track"));
+        assertThat(layer.getSentHttpRequestInfo(0).getHttpRequest().getHeaders("Accept-Encoding").length, is(1));
+    }
+
+    @Test
+    public void shouldIterateCollectionFollowingNextHref() throws Exception {
+        layer.addHttpResponseRule(uriContaining("cursor=abc"), new FakeHttpResponse(200,
+                "{\"collection\":[{\"id\":3}],\"next_href\":null}"));
+        layer.addHttpResponseRule(uriContaining("/users/1/tracks?limit=2&linked_partitioning=1"), new FakeHttpResponse(200,
+                "{\"collection\":[{\"id\":1},{\"id\":2}]," +
+                "\"next_href\":\"https://api.soundcloud.com/users/1/tracks?limit=2&linked_partitioning=1&cursor=abc\"}"));
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (JSONObject track : api.getCollection(Request.to(Endpoints.USER_TRACKS, 1), 2, 1)) {
+            ids.add(track.getInt("id"));
+        }
+        assertThat(ids.toString(), equalTo("[1, 2, 3]"));
+    }
+
+    @Test
+    public void shouldIterateCollectionOnSingleThreadedExecutor() throws Exception {
+        api.setExecutor(Executors.newSingleThreadExecutor());
+        for (final int prefetch : new int[] { 0, 1, 2 }) {
+            layer.clearHttpResponseRules();
+            layer.addHttpResponseRule(uriContaining("cursor=abc"), new FakeHttpResponse(200,
+                    "{\"collection\":[{\"id\":3}],\"next_href\":null}"));
+            layer.addHttpResponseRule(uriContaining("/users/1/tracks?limit=2&linked_partitioning=1"), new FakeHttpResponse(200,
+                    "{\"collection\":[{\"id\":1},{\"id\":2}]," +
+                    "\"next_href\":\"https://api.soundcloud.com/users/1/tracks?limit=2&linked_partitioning=1&cursor=abc\"}"));
+
+            // iterating on the only executor thread must not wait for queued pages
+            Future<String> ids = api.getExecutor().submit(new Callable<String>() {
+                @Override public String call() throws Exception {
+                    List<Integer> ids = new ArrayList<Integer>();
+                    for (JSONObject track : api.getCollection(Request.to(Endpoints.USER_TRACKS, 1), 2, prefetch)) {
+                        ids.add(track.getInt("id"));
+                    }
+                    return ids.toString();
+                }
+            });
+            assertThat(ids.get(5, TimeUnit.SECONDS), equalTo("[1, 2, 3]"));
+        }
+    }
+
+    @Test
+    public void shouldIterateCollectionWithOffsetAndLimit() throws Exception {
+        layer.addHttpResponseRule(uriContaining("offset=2"), new FakeHttpResponse(200, "[{\"id\":3}]"));
+        layer.addHttpResponseRule(uriContaining("/me/favorites"), new FakeHttpResponse(200, "[{\"id\":1},{\"id\":2}]"));
+
+        List<Integer> ids = new ArrayList<Integer>();
+        for (JSONObject track : api.getCollection(Request.to(Endpoints.MY_FAVORITES), 2, 0)) {
+            ids.add(track.getInt("id"));
+        }
+        assertThat(ids.toString(), equalTo("[1, 2, 3]"));
+    }
+
+    @Test
+    public void shouldThrowPageExceptionIfPageCannotBeFetched() throws Exception {
+        layer.addHttpResponseRule(uriContaining("/me/favorites"), new FakeHttpResponse(500, "error"));
+        Iterator<JSONObject> it = api.getCollection(Request.to(Endpoints.MY_FAVORITES)).iterator();
+        try {
+            it.hasNext();
+            fail("expected PageException");
+        } catch (PagedCollection.PageException e) {
+            assertTrue(e.getCause() instanceof CloudAPI.ApiResponseException);
+        }
+        assertFalse(it.hasNext());
+    }
+
+    @Test
+    public void shouldDownloadStreamInParallelSegments() throws Exception {
+        final byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 13);
+        final AtomicInteger ranges = new AtomicInteger();
+        layer.addHttpResponseRule(new RangeRule(data, true) {
+            @Override public HttpResponse getResponse() throws IOException {
+                ranges.incrementAndGet();
+                return super.getResponse();
+            }
+        });
+
+        final List<Long> progress = Collections.synchronizedList(new ArrayList<Long>());
+        File file = File.createTempFile("download", ".mp3");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            long n = api.download(stream(data.length), raf.getChannel(), 16384, 4,
+                    new Request.TransferProgressListener() {
+                        @Override public void transferred(long amount) {
+                            progress.add(amount);
+                        }
+                    });
+            assertThat(n, is(100000L));
+        } finally {
+            raf.close();
+        }
+        assertThat(ranges.get(), is(7));
+        assertThat(progress.get(progress.size() - 1), is(100000L));
+        for (int i = 1; i < progress.size(); i++) assertTrue(progress.get(i) > progress.get(i - 1));
+
+        byte[] downloaded = new byte[data.length];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(downloaded);
+            assertThat(in.read(), is(-1));
+        } finally {
+            in.close();
+        }
+        assertTrue(Arrays.equals(downloaded, data));
+    }
+
+    @Test
+    public void shouldFailDownloadIfRangesAreNotSupported() throws Exception {
+        layer.addHttpResponseRule(new RangeRule(new byte[100], false));
+        File file = File.createTempFile("download", ".mp3");
+        file.deleteOnExit();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            api.download(stream(100), raf.getChannel(), 10, 2, null);
+            fail("expected ApiResponseException");
+        } catch (CloudAPI.ApiResponseException e) {
+            assertThat(e.getStatusCode(), is(200));
+        } finally {
+            raf.close();
+        }
+
+        // unless it's just one segment anyway
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            assertThat(api.download(stream(100), raf.getChannel(), 100, 2, null), is(100L));
+        } finally {
+            raf.close();
+        }
+    }
+
+    private static Stream stream(long length) {
+        return new Stream("https://api.soundcloud.com/tracks/1/stream",
+                "http://ak-media.soundcloud.com/track.mp3?Expires=1000", "etag", length, 0, 0, 0, 1000);
+    }
+
+    /** Serves byte ranges of the given data for track.mp3 */
+    private static class RangeRule implements HttpEntityStub.ResponseRule {
+        private final ThreadLocal<HttpRequest> mRequest = new ThreadLocal<HttpRequest>();
+        private final byte[] mData;
+        private final boolean mRanges;
+
+        RangeRule(byte[] data, boolean ranges) {
+            mData = data;
+            mRanges = ranges;
+        }
+
+        @Override public boolean matches(HttpRequest request) {
+            mRequest.set(request);
+            return request.getRequestLine().getUri().contains("track.mp3");
+        }
+
+        @Override public HttpResponse getResponse() throws IOException {
+            final Header range = mRequest.get().getFirstHeader("Range");
+            int start = 0, end = mData.length - 1;
+            if (mRanges && range != null) {
+                final String[] bounds = range.getValue().substring("bytes=".length()).split("-");
+                start = Integer.parseInt(bounds[0]);
+                end = Math.min(end, Integer.parseInt(bounds[1]));
+            }
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1,
+                    mRanges && range != null ? 206 : 200, "OK");
+            response.setEntity(new ByteArrayEntity(Arrays.copyOfRange(mData, start, end + 1)));
+            return response;
+        }
+    }
+
+    private static class ResolveRule implements HttpEntityStub.ResponseRule {
+        private HttpRequest mRequest;
+        int requests;
+
+        @Override public boolean matches(HttpRequest request) {
+            mRequest = request;
+            return request.getRequestLine().getUri().startsWith(Endpoints.RESOLVE);
+        }
+
+        @Override public HttpResponse getResponse() {
+            requests++;
+            if (mRequest.getRequestLine().getUri().contains("crazybob")) {
+                HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 302, "Found");
+                response.addHeader("Location", "http://api.soundcloud.com/users/1000");
+                return response;
+            } else {
+                return new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Found");
+            }
+        }
+    }
+
+    private static RequestMatcher uriContaining(final String s) {
+        return new RequestMatcher() {
+            @Override public boolean matches(HttpRequest request) {
+                return request.getRequestLine().getUri().contains(s);
+            }
+        };
+    }
 }
@@ -0,0 +1,119 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+public class BufferPoolTest {
+    @Test
+    public void shouldMapSizesToClasses() throws Exception {
+        assertThat(BufferPool.sizeClass(0), equalTo(0));
+        assertThat(BufferPool.sizeClass(2048), equalTo(0));
+        assertThat(BufferPool.sizeClass(2049), equalTo(1));
+        assertThat(BufferPool.sizeClass(4096), equalTo(1));
+        assertThat(BufferPool.sizeClass(8192), equalTo(2));
+        assertThat(BufferPool.sizeClass(65536), equalTo(5));
+        assertThat(BufferPool.sizeClass(65537), equalTo(-1));
+    }
+
+    @Test
+    public void shouldReuseReleasedBuffers() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        ByteBuffer buffer = pool.acquire(5000);
+        assertThat(buffer.capacity(), equalTo(8192));
+        assertThat(pool.getOutstandingCount(), equalTo(1L));
+        buffer.put((byte) 1);
+        pool.release(buffer);
+
+        assertThat(pool.getOutstandingCount(), equalTo(0L));
+        assertThat(pool.getPooledBytes(), equalTo(8192L));
+
+        ByteBuffer again = pool.acquire(8192);
+        assertThat(again, sameInstance(buffer));
+        assertThat(again.position(), equalTo(0));
+        assertThat(again.remaining(), equalTo(8192));
+        assertThat(pool.getHitCount(), equalTo(1L));
+        assertThat(pool.getMissCount(), equalTo(1L));
+        assertThat(pool.getHitRate(), equalTo(0.5d));
+        assertThat(pool.getPooledBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldNotPoolOversizedBuffers() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        ByteBuffer buffer = pool.acquire(100000);
+        assertThat(buffer.capacity(), equalTo(100000));
+        pool.release(buffer);
+        assertThat(pool.getPooledBytes(), equalTo(0L));
+        assertThat(pool.acquire(100000), not(sameInstance(buffer)));
+    }
+
+    @Test
+    public void shouldStayWithinBound() throws Exception {
+        BufferPool pool = new BufferPool(8192, false);
+        ByteBuffer a = pool.acquire(4096), b = pool.acquire(4096), c = pool.acquire(4096);
+        pool.release(a);
+        pool.release(b);
+        pool.release(c);
+        assertThat(pool.getPooledBytes(), equalTo(8192L));
+        assertThat(pool.getOutstandingCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldAllocateDirectBuffers() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, true);
+        ByteBuffer buffer = pool.acquire(100);
+        assertThat(buffer.isDirect(), equalTo(true));
+        pool.release(buffer);
+        assertThat(pool.acquire(100), sameInstance(buffer));
+
+        // heap buffers are not retained by a direct pool
+        pool.release(ByteBuffer.allocate(2048));
+        assertThat(pool.getPooledBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldReportLeaks() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        pool.setLeakDetection(true);
+        ByteBuffer leaked = pool.acquire(100);
+        ByteBuffer released = pool.acquire(100);
+        pool.release(released);
+        assertThat(pool.checkLeaks().size(), equalTo(1));
+        pool.release(leaked);
+        assertThat(pool.checkLeaks().size(), equalTo(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldDetectDoubleRelease() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        pool.setLeakDetection(true);
+        ByteBuffer buffer = pool.acquire(100);
+        pool.release(buffer);
+        pool.release(buffer);
+    }
+
+    @Test
+    public void shouldIgnoreBuffersAcquiredBeforeLeakDetection() throws Exception {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        ByteBuffer untracked = pool.acquire(100);
+        pool.setLeakDetection(true);
+        pool.release(untracked);
+        assertThat(pool.checkLeaks().size(), equalTo(0));
+        assertThat(pool.getOutstandingCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldNotLeakBuffersWhenDecodingResponses() throws Exception {
+        final long outstanding = BufferPool.DEFAULT.getOutstandingCount();
+        Http.decode(new ByteArrayInputStream("{}".getBytes("UTF-8")), Charset.forName("UTF-8"), 16);
+        assertThat(BufferPool.DEFAULT.getOutstandingCount(), equalTo(outstanding));
+    }
+}
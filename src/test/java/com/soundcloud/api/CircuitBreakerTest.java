@@ -0,0 +1,117 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.apache.http.HttpHost;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class CircuitBreakerTest {
+    static final HttpHost HOST = new HttpHost("api.soundcloud.com", 443, "https");
+    static final HttpHost OTHER = new HttpHost("ak-media.soundcloud.com", 80, "http");
+
+    long time;
+    CircuitBreaker breaker;
+    List<String> transitions;
+
+    @Before
+    public void before() {
+        breaker = new CircuitBreaker(2, 1000, 5000, 2) {
+            @Override long now() {
+                return time;
+            }
+        };
+        transitions = new ArrayList<String>();
+        breaker.setListener(new CircuitBreaker.Listener() {
+            @Override public void onStateChange(HttpHost host, CircuitBreaker.State from, CircuitBreaker.State to) {
+                transitions.add(host.getHostName() + " " + from + "->" + to);
+            }
+        });
+    }
+
+    @Test
+    public void shouldOpenAfterConsecutiveFailures() throws Exception {
+        breaker.failed(HOST, breaker.acquire(HOST));
+        breaker.completed(HOST, breaker.acquire(HOST), 200, 10);
+        breaker.failed(HOST, breaker.acquire(HOST));
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.CLOSED));
+        breaker.completed(HOST, breaker.acquire(HOST), 503, 10);
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.getState(OTHER), is(CircuitBreaker.State.CLOSED));
+
+        try {
+            breaker.acquire(HOST);
+            fail("expected CircuitOpenException");
+        } catch (CloudAPI.CircuitOpenException expected) {
+            assertThat(expected.retryIn, is(5000L));
+        }
+        assertThat(breaker.getRejectedCount(), is(1L));
+        assertThat(breaker.getOpenedCount(), is(1L));
+        assertThat(transitions, equalTo(list("api.soundcloud.com CLOSED->OPEN")));
+    }
+
+    @Test
+    public void shouldCountSlowCallsAsFailures() throws Exception {
+        breaker.completed(HOST, breaker.acquire(HOST), 200, 1001);
+        breaker.completed(HOST, breaker.acquire(HOST), 200, 1001);
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.OPEN));
+    }
+
+    @Test
+    public void shouldCloseAfterSuccessfulProbes() throws Exception {
+        open();
+        time += 5000;
+        boolean probe1 = breaker.acquire(HOST);
+        boolean probe2 = breaker.acquire(HOST);
+        assertThat(probe1 && probe2, is(true));
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.HALF_OPEN));
+        try {
+            breaker.acquire(HOST);
+            fail("expected CircuitOpenException");
+        } catch (CloudAPI.CircuitOpenException expected) {
+        }
+        breaker.completed(HOST, probe1, 200, 10);
+        breaker.completed(HOST, probe2, 200, 10);
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.CLOSED));
+        assertThat(transitions, equalTo(list(
+                "api.soundcloud.com CLOSED->OPEN",
+                "api.soundcloud.com OPEN->HALF_OPEN",
+                "api.soundcloud.com HALF_OPEN->CLOSED")));
+    }
+
+    @Test
+    public void shouldReopenAfterFailedProbe() throws Exception {
+        open();
+        time += 5000;
+        breaker.failed(HOST, breaker.acquire(HOST));
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.OPEN));
+        assertThat(breaker.getOpenedCount(), is(2L));
+    }
+
+    @Test
+    public void shouldReleaseUnusedProbes() throws Exception {
+        open();
+        time += 5000;
+        breaker.release(HOST, breaker.acquire(HOST));
+        breaker.release(HOST, breaker.acquire(HOST));
+        assertThat(breaker.acquire(HOST), is(true));
+    }
+
+    private void open() throws Exception {
+        breaker.failed(HOST, breaker.acquire(HOST));
+        breaker.failed(HOST, breaker.acquire(HOST));
+        assertThat(breaker.getState(HOST), is(CircuitBreaker.State.OPEN));
+    }
+
+    private static List<String> list(String... items) {
+        List<String> list = new ArrayList<String>();
+        for (String s : items) list.add(s);
+        return list;
+    }
+}
@@ -0,0 +1,142 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class DiskResponseCacheTest {
+    File dir;
+
+    @Before
+    public void before() throws IOException {
+        dir = File.createTempFile("response_cache", "dir");
+        assertThat(dir.delete(), is(true));
+    }
+
+    @After
+    public void after() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files) f.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void shouldSurviveRestarts() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(dir, 16 * 1024, 4096);
+        cache.put("a", new CachedResponse("\"1\"", null, "application/json", "{\"id\":1}".getBytes()));
+        cache.put("b", new CachedResponse(null, "Sat, 01 Jan 2000 00:00:00 GMT", null, "b".getBytes()));
+        cache.remove("b");
+        cache.put("c", new CachedResponse("\"3\"", null, null, "c".getBytes()));
+        cache.close();
+
+        DiskResponseCache reopened = new DiskResponseCache(dir, 16 * 1024, 4096);
+        assertThat(reopened.size(), is(2));
+        CachedResponse a = reopened.get("a");
+        assertNotNull(a);
+        assertThat(a.eTag, equalTo("\"1\""));
+        assertThat(a.contentType, equalTo("application/json"));
+        assertThat(new String(a.body), equalTo("{\"id\":1}"));
+        assertNull(reopened.get("b"));
+
+        // appends continue after the existing data
+        reopened.put("d", new CachedResponse("\"4\"", null, null, "d".getBytes()));
+        assertThat(new String(reopened.get("c").body), equalTo("c"));
+        assertThat(new String(reopened.get("d").body), equalTo("d"));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldEvictOldestSegmentWhenFull() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(dir, 2 * 4096, 4096);
+        byte[] body = new byte[3000];
+        cache.put("a", new CachedResponse("\"a\"", null, null, body));
+        cache.put("b", new CachedResponse("\"b\"", null, null, body));
+        cache.put("c", new CachedResponse("\"c\"", null, null, body));
+
+        assertThat(cache.getSegmentCount(), is(2));
+        assertThat(cache.getEvictionCount(), is(1L));
+        assertNull(cache.get("a"));
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+        assertThat(new File(dir, DiskResponseCache.SEGMENT_PREFIX + 0).exists(), is(false));
+        cache.close();
+
+        DiskResponseCache reopened = new DiskResponseCache(dir, 2 * 4096, 4096);
+        assertNull(reopened.get("a"));
+        assertNotNull(reopened.get("c"));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldNotStoreResponsesLargerThanASegment() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(dir, 2 * 4096, 4096);
+        cache.put("a", new CachedResponse("\"a\"", null, null, new byte[5000]));
+        assertThat(cache.size(), is(0));
+        cache.close();
+    }
+
+    @Test
+    public void shouldIgnoreTruncatedJournal() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(dir, 16 * 1024, 4096);
+        cache.put("a", new CachedResponse("\"a\"", null, null, "a".getBytes()));
+        cache.close();
+
+        FileOutputStream out = new FileOutputStream(new File(dir, DiskResponseCache.JOURNAL), true);
+        out.write("P\t0\t12".getBytes());
+        out.close();
+
+        DiskResponseCache reopened = new DiskResponseCache(dir, 16 * 1024, 4096);
+        assertThat(reopened.size(), is(1));
+        assertNotNull(reopened.get("a"));
+        reopened.put("b", new CachedResponse("\"b\"", null, null, "b".getBytes()));
+        reopened.close();
+
+        DiskResponseCache again = new DiskResponseCache(dir, 16 * 1024, 4096);
+        assertThat(again.size(), is(2));
+        assertNotNull(again.get("b"));
+        again.close();
+    }
+
+    @Test
+    public void shouldNotTouchSegmentsUntilRead() throws Exception {
+        DiskResponseCache cache = new DiskResponseCache(dir, 3 * 4096, 4096);
+        byte[] body = new byte[3000];
+        cache.put("a", new CachedResponse("\"a\"", null, null, body));
+        cache.put("b", new CachedResponse("\"b\"", null, null, body));
+        cache.close();
+        assertThat(new File(dir, DiskResponseCache.SEGMENT_PREFIX + 0).delete(), is(true));
+
+        DiskResponseCache reopened = new DiskResponseCache(dir, 3 * 4096, 4096);
+        assertThat(reopened.size(), is(2));
+        assertThat(reopened.getErrorCount(), is(0L));
+        assertNull(reopened.get("a"));
+        assertThat(reopened.getErrorCount(), is(1L));
+        assertNotNull(reopened.get("b"));
+        reopened.close();
+    }
+
+    @Test
+    public void shouldServeMemoryMissesFromDisk() throws Exception {
+        DiskResponseCache disk = new DiskResponseCache(dir, 16 * 1024, 4096);
+        new ResponseCache(1024, disk).put("a", new CachedResponse("\"a\"", null, null, "a".getBytes()));
+
+        ResponseCache cache = new ResponseCache(1024, disk);
+        assertNotNull(cache.get("a"));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getHitCount(), is(1L));
+        assertThat(disk.getHitCount(), is(1L));
+        disk.close();
+    }
+}
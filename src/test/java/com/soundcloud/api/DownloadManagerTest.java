@@ -0,0 +1,241 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.soundcloud.api.fakehttp.FakeApiWrapper;
+import com.soundcloud.api.fakehttp.FakeHttpLayer;
+import com.soundcloud.api.fakehttp.HttpEntityStub;
+import org.apache.http.Header;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class DownloadManagerTest {
+    private final FakeHttpLayer layer = new FakeHttpLayer();
+    private final StreamServer server = new StreamServer();
+    private ApiWrapper api;
+    private DownloadManager downloads;
+    private File target, stateDir;
+
+    @Before
+    public void setup() throws Exception {
+        api = new FakeApiWrapper(layer);
+        layer.clearHttpResponseRules();
+        layer.addHttpResponseRule(server);
+
+        server.setObject(data(100000, 3), "\"v1\"");
+        target = File.createTempFile("track", ".mp3");
+        target.delete();
+        target.deleteOnExit();
+        stateDir = new File(target.getPath() + ".state");
+        downloads = new DownloadManager(api, stateDir);
+    }
+
+    @Test
+    public void shouldDownloadFile() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        long n = downloads.download(stream(), target, new Request.TransferProgressListener() {
+            @Override public void transferred(long amount) {
+                progress.add(amount);
+            }
+        });
+        assertThat(n, equalTo(100000L));
+        assertTrue(Arrays.equals(read(target), server.data));
+        assertThat(progress.get(progress.size() - 1), equalTo(100000L));
+        assertThat(server.range, nullValue());
+    }
+
+    @Test
+    public void shouldResumePartialDownload() throws Exception {
+        server.failAfter = 30000;
+        try {
+            downloads.download(stream(), target, null);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+        assertThat(target.length(), equalTo(30000L));
+
+        // a new instance, as after a restart of the process
+        server.failAfter = -1;
+        long n = new DownloadManager(api, stateDir).download(stream(), target, null);
+        assertThat(n, equalTo(70000L));
+        assertThat(server.range, equalTo("bytes=30000-"));
+        assertThat(server.ifRange, equalTo("\"v1\""));
+        assertTrue(Arrays.equals(read(target), server.data));
+    }
+
+    @Test
+    public void shouldResumeChunkedDownload() throws Exception {
+        server.chunked = true;
+        server.failAfter = 30000;
+        try {
+            downloads.download(stream(), target, null);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+
+        server.failAfter = -1;
+        long n = downloads.download(stream(), target, null);
+        assertThat(n, equalTo(70000L));
+        assertThat(server.range, equalTo("bytes=30000-"));
+        assertTrue(Arrays.equals(read(target), server.data));
+    }
+
+    @Test
+    public void shouldNotResumeDownloadOfOtherTrack() throws Exception {
+        server.failAfter = 30000;
+        try {
+            downloads.download(stream(), target, null);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+
+        server.failAfter = -1;
+        Stream other = new Stream("https://api.soundcloud.com/tracks/2/stream",
+                "http://ak-media.soundcloud.com/track.mp3?Expires=1000",
+                server.eTag, server.data.length, 0, 0, 0, 1000);
+        assertThat(downloads.download(other, target, null), equalTo(100000L));
+        assertThat(server.range, nullValue());
+    }
+
+    @Test
+    public void shouldRestartIfObjectChanged() throws Exception {
+        Stream old = stream();
+        server.failAfter = 30000;
+        try {
+            downloads.download(old, target, null);
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+
+        // the stale stream still claims the old version, the server knows better
+        server.failAfter = -1;
+        server.setObject(data(100000, 5), "\"v2\"");
+        long n = downloads.download(old, target, null);
+        assertThat(n, equalTo(100000L));
+        assertThat(server.ifRange, equalTo("\"v1\""));
+        assertTrue(Arrays.equals(read(target), server.data));
+
+        // the new version is remembered
+        Stream current = stream();
+        server.data = null;
+        assertThat(downloads.download(current, target, null), equalTo(0L));
+    }
+
+    @Test
+    public void shouldNotDownloadCompleteFileAgain() throws Exception {
+        Stream stream = stream();
+        downloads.download(stream, target, null);
+        server.data = null;
+        assertThat(downloads.download(stream, target, null), equalTo(0L));
+    }
+
+    @Test
+    public void shouldStartOverWithoutState() throws Exception {
+        downloads.download(stream(), target, null);
+        assertTrue(downloads.remove(target));
+
+        assertThat(downloads.download(stream(), target, null), equalTo(100000L));
+        assertThat(server.range, nullValue());
+        assertTrue(Arrays.equals(read(target), server.data));
+    }
+
+    private Stream stream() {
+        return new Stream("https://api.soundcloud.com/tracks/1/stream",
+                "http://ak-media.soundcloud.com/track.mp3?Expires=1000",
+                server.eTag, server.data.length, 0, 0, 0, 1000);
+    }
+
+    private static byte[] data(int size, int seed) {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte) (i * seed);
+        return data;
+    }
+
+    private static byte[] read(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+    /**
+     * Stand-in for a CDN, honoring Range and If-Range.
+     */
+    static class StreamServer implements HttpEntityStub.ResponseRule {
+        byte[] data;
+        String eTag;
+        String range, ifRange;
+        int failAfter = -1;
+        boolean chunked;
+
+        private HttpRequest mRequest;
+
+        void setObject(byte[] data, String eTag) {
+            this.data = data;
+            this.eTag = eTag;
+        }
+
+        @Override
+        public boolean matches(HttpRequest request) {
+            mRequest = request;
+            return request.getRequestLine().getUri().contains("track.mp3");
+        }
+
+        @Override
+        public HttpResponse getResponse() throws HttpException, IOException {
+            if (data == null) throw new AssertionError("unexpected request");
+            range = value(mRequest.getFirstHeader("Range"));
+            ifRange = value(mRequest.getFirstHeader("If-Range"));
+
+            int start = 0;
+            final HttpResponse response;
+            if (range != null && (ifRange == null || ifRange.equals(eTag))) {
+                start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 206, "Partial Content");
+                response.addHeader("Content-Range", "bytes " + start + "-" + (data.length - 1) + "/" + data.length);
+            } else {
+                response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+            }
+            response.addHeader("ETag", eTag);
+
+            final int length = data.length - start;
+            final int available = failAfter < 0 ? length : Math.min(length, failAfter);
+            response.setEntity(new InputStreamEntity(new FilterInputStream(new ByteArrayInputStream(data, start, available)) {
+                @Override public int read(byte[] b, int off, int len) throws IOException {
+                    final int n = super.read(b, off, len);
+                    if (n == -1 && available < length) throw new IOException("connection reset");
+                    return n;
+                }
+            }, chunked ? -1 : length));
+            return response;
+        }
+
+        private static String value(Header header) {
+            return header == null ? null : header.getValue();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HistogramTest {
+    @Test
+    public void shouldRecordSmallValuesExactly() throws Exception {
+        Histogram h = new Histogram();
+        for (int i = 1; i <= 100; i++) h.record(i);
+        assertThat(h.getCount(), is(100L));
+        assertThat(h.getMax(), is(100L));
+        assertThat(h.getValueAtPercentile(50), is(50L));
+        assertThat(h.getValueAtPercentile(99), is(99L));
+        assertThat(h.getValueAtPercentile(100), is(100L));
+        assertThat(h.getMean(), is(50.5d));
+    }
+
+    @Test
+    public void shouldRecordLargeValuesWithBoundedError() throws Exception {
+        Histogram h = new Histogram();
+        for (long i = 1; i <= 100000; i++) h.record(i * 10);
+        assertWithin(h.getValueAtPercentile(50), 500000L);
+        assertWithin(h.getValueAtPercentile(95), 950000L);
+        assertWithin(h.getValueAtPercentile(99.9), 999000L);
+        assertThat(h.getValueAtPercentile(100), is(1000000L));
+    }
+
+    @Test
+    public void shouldMapValuesToMonotonicBuckets() throws Exception {
+        int last = -1;
+        for (long v = 0; v < 1L << 20; v += 7) {
+            int index = Histogram.index(v);
+            assertTrue(index >= last);
+            assertTrue(Histogram.lowestEquivalentValue(index) <= v);
+            assertTrue(Histogram.highestEquivalentValue(index) >= v);
+            last = index;
+        }
+        assertThat(Histogram.index(Histogram.MAX_VALUE), is(Histogram.index(Histogram.MAX_VALUE)));
+    }
+
+    @Test
+    public void shouldClampValues() throws Exception {
+        Histogram h = new Histogram();
+        h.record(-5);
+        h.record(Long.MAX_VALUE);
+        assertThat(h.getValueAtPercentile(0), is(0L));
+        assertThat(h.getMax(), is(Histogram.MAX_VALUE));
+        h.reset();
+        assertThat(h.getCount(), is(0L));
+        assertThat(h.getValueAtPercentile(50), is(0L));
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        assertTrue(actual + " not within 2% of " + expected, Math.abs(actual - expected) <= expected * 0.02);
+    }
+}
@@ -1,10 +1,94 @@
 package com.soundcloud.api;
 
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.message.BasicHttpResponse;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+
 public class HttpTest {
     @Test
     public void test() throws Exception {
         // TODO
     }
+
+    @Test
+    public void shouldDecodeMultiByteCharactersSplitAcrossReads() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < ApiWrapper.BUFFER_SIZE * 3) sb.append("xü€🎵");
+        final String content = sb.toString();
+        final byte[] bytes = content.getBytes("UTF-8");
+        // returns at most 7 bytes per read, so sequences end up split between reads
+        InputStream trickle = new ByteArrayInputStream(bytes) {
+            @Override public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 7));
+            }
+        };
+        HttpResponse resp = response(new InputStreamEntity(trickle, bytes.length), "text/plain; charset=utf-8");
+        assertThat(Http.getString(resp), equalTo(content));
+    }
+
+    @Test
+    public void shouldHonorCharsetFromContentType() throws Exception {
+        HttpResponse resp = response(new ByteArrayEntity("déjà vu".getBytes("ISO-8859-1")),
+                "text/plain; charset=ISO-8859-1");
+        assertThat(Http.getString(resp), equalTo("déjà vu"));
+    }
+
+    @Test
+    public void shouldDefaultToUtf8() throws Exception {
+        HttpResponse resp = response(new ByteArrayEntity("déjà vu".getBytes("UTF-8")), "application/json");
+        assertThat(Http.getString(resp), equalTo("déjà vu"));
+
+        resp = response(new ByteArrayEntity("déjà vu".getBytes("UTF-8")), "text/plain; charset=bogus");
+        assertThat(Http.getString(resp), equalTo("déjà vu"));
+    }
+
+    @Test
+    public void shouldReplaceMalformedInput() throws Exception {
+        HttpResponse resp = response(new ByteArrayEntity(new byte[]{'a', (byte) 0xff, 'b', (byte) 0xe2}), null);
+        assertThat(Http.getString(resp), equalTo("a�b�"));
+    }
+
+    @Test
+    public void shouldNotTrustContentLength() throws Exception {
+        final byte[] bytes = "{}".getBytes("UTF-8");
+        HttpResponse resp = response(new InputStreamEntity(new ByteArrayInputStream(bytes), Long.MAX_VALUE), null);
+        assertThat(Http.getString(resp), equalTo("{}"));
+
+        resp = response(new InputStreamEntity(new ByteArrayInputStream(bytes), Long.MAX_VALUE), null);
+        assertThat(Arrays.equals(Http.getBytes(resp), bytes), equalTo(true));
+    }
+
+    @Test
+    public void shouldGetBytes() throws Exception {
+        final byte[] bytes = new byte[ApiWrapper.BUFFER_SIZE * 2 + 17];
+        for (int i = 0; i < bytes.length; i++) bytes[i] = (byte) i;
+        HttpResponse resp = response(new InputStreamEntity(new ByteArrayInputStream(bytes), -1), null);
+        assertThat(Arrays.equals(Http.getBytes(resp), bytes), equalTo(true));
+    }
+
+    @Test
+    public void shouldReturnNullWithoutEntity() throws Exception {
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 204, "No Content");
+        assertThat(Http.getString(resp), nullValue());
+        assertThat(Http.getBytes(resp), nullValue());
+    }
+
+    private static HttpResponse response(AbstractHttpEntity entity, String contentType) {
+        if (contentType != null) entity.setContentType(contentType);
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        resp.setEntity(entity);
+        return resp;
+    }
 }
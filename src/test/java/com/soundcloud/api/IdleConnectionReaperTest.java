@@ -0,0 +1,115 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+public class IdleConnectionReaperTest {
+    private ServerSocket server;
+
+    @Before
+    public void startServer() throws Exception {
+        server = new ServerSocket(0);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    // answer one request, then keep the connection open
+                    Socket s = server.accept();
+                    InputStream in = s.getInputStream();
+                    int last = 0, c;
+                    while ((c = in.read()) != -1) {
+                        if (c == '\n' && last == '\n') break;
+                        if (c != '\r') last = c;
+                    }
+                    OutputStream out = s.getOutputStream();
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes());
+                    out.flush();
+                } catch (Exception ignored) {
+                }
+            }
+        };
+        t.setDaemon(true);
+        t.start();
+    }
+
+    @After
+    public void stopServer() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void shouldEvictIdleConnections() throws Exception {
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        BasicHttpParams params = new BasicHttpParams();
+        ApiConnectionManager manager = new ApiConnectionManager(params, registry);
+        DefaultHttpClient client = new DefaultHttpClient(manager, params);
+
+        HttpResponse resp = client.execute(new HttpGet("http://localhost:" + server.getLocalPort() + "/"));
+        assertThat(Http.getString(resp), equalTo("ok"));
+        resp.getEntity().consumeContent();
+        assertThat(manager.getConnectionsInPool(), is(1));
+        assertThat(manager.getOpenedConnectionCount(), is(1L));
+
+        Thread.sleep(20);
+        IdleConnectionReaper reaper = new IdleConnectionReaper(manager, 1000, 10);
+        reaper.evict(manager);
+
+        assertThat(manager.getConnectionsInPool(), is(0));
+        assertThat(reaper.getIdleConnectionsClosed(), is(1L));
+        assertThat(reaper.getExpiredConnectionsClosed(), is(0L));
+        assertThat(reaper.getRuns(), is(1L));
+        manager.shutdown();
+    }
+
+    @Test
+    public void shouldRunPeriodicallyUntilShutdown() throws Exception {
+        ClientConnectionManager manager = mock(ClientConnectionManager.class);
+        IdleConnectionReaper reaper = new IdleConnectionReaper(manager, 5, 1000);
+        reaper.start();
+        Thread.sleep(100);
+        reaper.shutdown();
+        reaper.join(1000);
+        assertFalse(reaper.isAlive());
+        verify(manager, atLeastOnce()).closeExpiredConnections();
+        verify(manager, atLeastOnce()).closeIdleConnections(1000, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void shouldOnlyStartReaperWhenConfigured() throws Exception {
+        assertThat(new ApiWrapper("id", "secret", null, null).getConnectionReaper(), is(nullValue()));
+
+        ApiWrapper wrapper = new ApiWrapper("id", "secret", URI.create("redirect://me"), null,
+                HttpConfig.DEFAULT.withConnectionEviction(5000, 30000));
+        IdleConnectionReaper reaper = wrapper.getConnectionReaper();
+        assertThat(reaper, is(notNullValue()));
+        assertThat(reaper.isAlive(), is(true));
+        reaper.shutdown();
+    }
+}
@@ -0,0 +1,157 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigInteger;
+import java.util.zip.GZIPOutputStream;
+
+public class JSONStreamReaderTest {
+    @Test
+    public void shouldReadTopLevelArray() throws Exception {
+        JSONStreamReader reader = reader("[ {\"id\":1}, {\"id\":2,\"tags\":[\"a\",\"b\"]} ]");
+        reader.beginCollection();
+        assertTrue(reader.hasNext());
+        assertTrue(reader.hasNext());
+        assertThat(reader.nextObject().getInt("id"), is(1));
+        JSONObject second = reader.nextObject();
+        assertThat(second.getInt("id"), is(2));
+        assertThat(second.getJSONArray("tags").getString(1), equalTo("b"));
+        assertFalse(reader.hasNext());
+        assertFalse(reader.isInObject());
+    }
+
+    @Test
+    public void shouldReadCollectionAndFieldsOfObject() throws Exception {
+        JSONStreamReader reader = reader("{\"total\":2,\"collection\":[{\"id\":1},{\"id\":2}],\"next_href\":\"https://api.soundcloud.com/me?cursor=1\"}");
+        reader.beginCollection();
+        assertThat(reader.getField("total"), equalTo((Object) 2));
+        assertNull(reader.getField("next_href"));
+
+        int count = 0;
+        while (reader.hasNext()) {
+            reader.nextObject();
+            count++;
+        }
+        assertThat(count, is(2));
+        assertThat(reader.getField("next_href"), equalTo((Object) "https://api.soundcloud.com/me?cursor=1"));
+        assertTrue(reader.isInObject());
+    }
+
+    @Test
+    public void shouldReadEmptyCollection() throws Exception {
+        JSONStreamReader reader = reader("{\"collection\":[]}");
+        reader.beginCollection();
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void shouldParseValues() throws Exception {
+        JSONStreamReader reader = reader("[\"a\\\"\\u00e9\\n\", true, false, null, -12, 3000000000, 1.5e3, [], {}]");
+        reader.beginCollection();
+        assertThat(reader.next(), equalTo((Object) "a\"é\n"));
+        assertThat(reader.next(), equalTo((Object) Boolean.TRUE));
+        assertThat(reader.next(), equalTo((Object) Boolean.FALSE));
+        assertThat(reader.next(), equalTo(JSONObject.NULL));
+        assertThat(reader.next(), equalTo((Object) (-12)));
+        assertThat(reader.next(), equalTo((Object) 3000000000L));
+        assertThat(reader.next(), equalTo((Object) 1500d));
+        assertThat(((JSONArray) reader.next()).length(), is(0));
+        assertThat(((JSONObject) reader.next()).length(), is(0));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void shouldParseIntegersWiderThanALong() throws Exception {
+        JSONStreamReader reader = reader("[9223372036854775807, 12345678901234567890123, -9223372036854775809]");
+        reader.beginCollection();
+        assertThat(reader.next(), equalTo((Object) Long.MAX_VALUE));
+        assertThat(reader.next(), equalTo((Object) new BigInteger("12345678901234567890123")));
+        assertThat(reader.next(), equalTo((Object) new BigInteger("-9223372036854775809")));
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    public void shouldFallBackToUtf8ForUnknownCharsets() throws Exception {
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ByteArrayEntity entity = new ByteArrayEntity("[\"café\"]".getBytes("UTF-8"));
+        entity.setContentType("application/json; charset=bogus");
+        resp.setEntity(entity);
+
+        JSONStreamReader reader = JSONStreamReader.of(resp);
+        reader.beginCollection();
+        assertThat(reader.next(), equalTo((Object) "café"));
+        reader.close();
+    }
+
+    @Test
+    public void shouldReadCompressedUtf8ResponseAcrossBufferBoundaries() throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < 2000; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"title\":\"café ♫ ").append(i).append("\"}");
+        }
+        json.append(']');
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(bos);
+        gzip.write(json.toString().getBytes("UTF-8"));
+        gzip.close();
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        ByteArrayEntity entity = new ByteArrayEntity(bos.toByteArray());
+        entity.setContentType("application/json; charset=utf-8");
+        resp.setEntity(new GzipDecompressingEntity(entity));
+
+        JSONStreamReader reader = JSONStreamReader.of(resp);
+        reader.beginCollection();
+        int count = 0;
+        while (reader.hasNext()) {
+            assertThat(reader.nextObject().getString("title"), equalTo("café ♫ " + count));
+            count++;
+        }
+        assertThat(count, is(2000));
+        reader.close();
+    }
+
+    @Test
+    public void shouldRejectDocumentsWithoutCollection() throws Exception {
+        assertNoCollection("{\"id\":1}");
+        assertNoCollection("{}");
+        assertNoCollection("\"string\"");
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedDocuments() throws Exception {
+        JSONStreamReader reader = reader("[{\"id\":1},{\"id\":");
+        reader.beginCollection();
+        while (reader.hasNext()) reader.next();
+    }
+
+    private static void assertNoCollection(String json) throws IOException {
+        try {
+            reader(json).beginCollection();
+            fail("expected IOException");
+        } catch (IOException expected) {
+        }
+    }
+
+    private static JSONStreamReader reader(String json) {
+        return new JSONStreamReader(new StringReader(json));
+    }
+}
@@ -0,0 +1,80 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RateLimiterTest {
+    static class FakeClockRateLimiter extends RateLimiter {
+        long time;
+
+        FakeClockRateLimiter(double permitsPerSecond, int burst) {
+            super(permitsPerSecond, burst);
+        }
+
+        @Override long now() {
+            return time;
+        }
+
+        @Override void sleep(long nanos) {
+            time += nanos;
+        }
+
+        void advance(long ms) {
+            time += TimeUnit.MILLISECONDS.toNanos(ms);
+        }
+    }
+
+    @Test
+    public void shouldAllowBurstThenPace() throws Exception {
+        FakeClockRateLimiter limiter = new FakeClockRateLimiter(10, 3);
+        assertThat(limiter.acquire(Long.MAX_VALUE), is(0L));
+        assertThat(limiter.acquire(Long.MAX_VALUE), is(0L));
+        assertThat(limiter.acquire(Long.MAX_VALUE), is(0L));
+        assertThat(limiter.getWaitTime(), is(100L));
+        assertThat(limiter.acquire(Long.MAX_VALUE), is(100L));
+        assertThat(limiter.acquire(Long.MAX_VALUE), is(100L));
+        assertThat(limiter.getThrottledCount(), is(2L));
+        assertThat(limiter.getTotalWaitTime(), is(200L));
+    }
+
+    @Test
+    public void shouldRefillAfterQuietPeriod() throws Exception {
+        FakeClockRateLimiter limiter = new FakeClockRateLimiter(10, 2);
+        limiter.acquire(0);
+        limiter.acquire(0);
+        limiter.acquire(Long.MAX_VALUE);
+        limiter.advance(10000);
+        assertThat(limiter.getWaitTime(), is(0L));
+        assertThat(limiter.acquire(0), is(0L));
+        assertThat(limiter.acquire(0), is(0L));
+        assertThat(limiter.getWaitTime(), is(100L));
+    }
+
+    @Test
+    public void shouldFailFast() throws Exception {
+        FakeClockRateLimiter limiter = new FakeClockRateLimiter(1, 1);
+        limiter.acquire(0);
+        try {
+            limiter.acquire(500);
+            fail("expected RateLimitException");
+        } catch (CloudAPI.RateLimitException expected) {
+            assertThat(expected.waitTime, is(1000L));
+        }
+        assertThat(limiter.getRejectedCount(), is(1L));
+        assertThat(limiter.getAcquiredCount(), is(1L));
+    }
+
+    @Test
+    public void shouldShareLimiterPerClientId() throws Exception {
+        RateLimiter limiter = RateLimiter.forClientId("shared-client", 5, 5);
+        assertThat(RateLimiter.forClientId("shared-client", 10, 20), sameInstance(limiter));
+        assertThat(limiter.getPermitsPerSecond(), is(10d));
+        assertThat(limiter.getBurst(), is(20));
+    }
+}
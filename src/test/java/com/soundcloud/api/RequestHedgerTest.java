@@ -0,0 +1,55 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.junit.Test;
+
+public class RequestHedgerTest {
+    @Test
+    public void shouldOnlyHedgeGetAndHead() throws Exception {
+        RequestHedger hedger = new RequestHedger(100, 0.1);
+        assertThat(hedger.isHedgeable(new HttpGet("/me")), is(true));
+        assertThat(hedger.isHedgeable(new HttpHead("/me")), is(true));
+        assertThat(hedger.isHedgeable(new HttpPut("/me")), is(false));
+    }
+
+    @Test
+    public void shouldLimitHedgeRate() throws Exception {
+        RequestHedger hedger = new RequestHedger(100, 0.5);
+        int hedges = 0;
+        for (int i = 0; i < 100; i++) {
+            hedger.requested();
+            if (hedger.tryHedge()) hedges++;
+        }
+        assertThat(hedges, is(50));
+        assertThat(hedger.getHedgeCount(), is(50L));
+        assertThat(hedger.getDeniedCount(), is(50L));
+    }
+
+    @Test
+    public void shouldNotHedgeWithZeroRatio() throws Exception {
+        RequestHedger hedger = new RequestHedger(100, 0);
+        hedger.requested();
+        assertThat(hedger.tryHedge(), is(false));
+    }
+
+    @Test
+    public void shouldUseObservedPercentileAsDelay() throws Exception {
+        HistogramMetrics metrics = new HistogramMetrics();
+        RequestHedger hedger = new RequestHedger(1000, 0.1, metrics, 95);
+        assertThat(hedger.delayFor("GET", "/tracks/%d"), is(1000L));
+
+        metrics.record(new RequestTimings("/tracks/%d", "GET"));
+        HistogramMetrics.Endpoint endpoint = metrics.getEndpoint("GET /tracks/%d");
+        for (int i = 0; i < RequestHedger.MIN_SAMPLES; i++) {
+            endpoint.timeToFirstByte.record(200 * 1000);
+        }
+        long delay = hedger.delayFor("GET", "/tracks/%d");
+        assertTrue("delay " + delay, delay >= 190 && delay <= 210);
+    }
+}
@@ -29,8 +29,13 @@ import org.junit.Test;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.IllegalFormatException;
 import java.util.Iterator;
@@ -424,6 +429,14 @@ public class RequestTest {
         assertThat(orig.getListener(),equalTo(copy.getListener()));
     }
 
+    @Test
+    public void shouldCopyRange() throws Exception {
+        Request orig = new Request("/foo").range(1, 1000);
+        Request copy = new Request(orig);
+        orig.range(5);
+        assertThat(copy.buildRequest(HttpGet.class).getFirstHeader("Range").getValue(), equalTo("bytes=1-1000"));
+    }
+
     @Test
     public void testFormatRange() throws Exception {
         assertThat(Request.formatRange(1, 1000), equalTo("bytes=1-1000"));
@@ -450,4 +463,165 @@ public class RequestTest {
     public void testFormatRangeInvalidArgument4() throws Exception {
         Request.formatRange(-1, 200);
     }
+
+    @Test
+    public void shouldWriteDirectBuffersRepeatedly() throws Exception {
+        byte[] data = new byte[ApiWrapper.BUFFER_SIZE * 2 + 5];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.flip();
+
+        Request.ByteBufferBody body = new Request.ByteBufferBody(direct);
+        for (int i = 0; i < 2; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            body.writeTo(out);
+            assertTrue(Arrays.equals(out.toByteArray(), data));
+        }
+        assertThat(direct.position(), equalTo(0));
+    }
+
+    @Test
+    public void shouldTransferFileBodiesToChannelsAndStreams() throws Exception {
+        File f = tempFile(Request.FileChannelBody.COPY_BUFFER_SIZE * 3 + 123);
+        Request.FileChannelBody body = new Request.FileChannelBody(f, "music.wav");
+        assertThat(body.getFilename(), equalTo("music.wav"));
+
+        ByteArrayOutputStream copied = new ByteArrayOutputStream();
+        body.writeTo(copied);
+
+        File out = File.createTempFile("transferred", "test");
+        FileOutputStream fos = new FileOutputStream(out);
+        try {
+            fos.write('x');
+            body.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+
+        byte[] expected = readFile(f);
+        assertTrue(Arrays.equals(copied.toByteArray(), expected));
+        byte[] transferred = readFile(out);
+        assertThat(transferred.length, equalTo(expected.length + 1));
+        assertTrue(Arrays.equals(Arrays.copyOfRange(transferred, 1, transferred.length), expected));
+    }
+
+    @Test
+    public void shouldReportProgressOfTransferredFiles() throws Exception {
+        File f = tempFile(100000);
+        final long[] reported = new long[1];
+        HttpPost request = Request.to("/foo")
+                .with("key", "value")
+                .withFile("foo", f, "music.wav")
+                .setProgressListener(new Request.TransferProgressListener() {
+                    @Override public void transferred(long amount) {
+                        reported[0] = amount;
+                    }
+                })
+                .buildRequest(HttpPost.class);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        request.getEntity().writeTo(os);
+        assertThat(reported[0], equalTo((long) os.size()));
+        reported[0] = 0;
+
+        File out = File.createTempFile("transferred", "test");
+        FileOutputStream fos = new FileOutputStream(out);
+        try {
+            request.getEntity().writeTo(fos);
+        } finally {
+            fos.close();
+        }
+        assertThat(reported[0], equalTo(out.length()));
+        // boundaries are random, compare lengths only
+        assertThat(out.length(), equalTo((long) os.size()));
+    }
+
+    @Test
+    public void shouldOnlyUploadRemainingBytesOfBuffers() throws Exception {
+        ByteBuffer buffer = ByteBuffer.wrap("xxhello worldyy".getBytes("US-ASCII"));
+        buffer.position(1);
+        ByteBuffer slice = buffer.slice();
+        slice.position(1);
+        slice.limit(12);
+
+        HttpPost request = Request.to("/foo")
+                .withFile("foo", slice, "hello.txt")
+                .buildRequest(HttpPost.class);
+        assertThat(slice.position(), equalTo(1));
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        request.getEntity().writeTo(os);
+        assertThat(os.toString(), containsString("\r\n\r\nhello world\r\n"));
+    }
+
+    @Test
+    public void shouldWriteDirectBufferSlicesToChannels() throws Exception {
+        byte[] data = new byte[100000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) i;
+        ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+        direct.put(data);
+        direct.position(10);
+        direct.limit(data.length - 10);
+
+        Request.ByteBufferBody body = new Request.ByteBufferBody(direct);
+        assertThat(body.getContentLength(), equalTo((long) data.length - 20));
+
+        File out = File.createTempFile("transferred", "test");
+        FileOutputStream fos = new FileOutputStream(out);
+        try {
+            body.writeTo(fos);
+        } finally {
+            fos.close();
+        }
+        assertTrue(Arrays.equals(readFile(out), Arrays.copyOfRange(data, 10, data.length - 10)));
+        assertThat(direct.position(), equalTo(10));
+    }
+
+    @Test
+    public void shouldUploadMappedFileRegions() throws Exception {
+        File f = tempFile(200000);
+        byte[] data = readFile(f);
+
+        HttpPost request = Request.to("/foo")
+                .withMappedFile("foo", f, 1000, 5000, "part.wav")
+                .buildRequest(HttpPost.class);
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        request.getEntity().writeTo(os);
+        byte[] encoded = os.toByteArray();
+        assertThat(new String(encoded, "ISO-8859-1"), containsString("filename=\"part.wav\""));
+        assertThat(new String(encoded, "ISO-8859-1"),
+                containsString(new String(Arrays.copyOfRange(data, 1000, 6000), "ISO-8859-1")));
+        assertThat(request.getEntity().getContentLength(), equalTo((long) encoded.length));
+
+        request = Request.to("/foo").withMappedFile("foo", f).buildRequest(HttpPost.class);
+        os = new ByteArrayOutputStream();
+        request.getEntity().writeTo(os);
+        assertThat(new String(os.toByteArray(), "ISO-8859-1"), containsString(new String(data, "ISO-8859-1")));
+    }
+
+    private static File tempFile(int size) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) data[i] = (byte) (i * 31);
+        File f = File.createTempFile("testing", "test");
+        FileOutputStream fos = new FileOutputStream(f);
+        try {
+            fos.write(data);
+        } finally {
+            fos.close();
+        }
+        return f;
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        byte[] data = new byte[(int) f.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(f));
+        try {
+            in.readFully(data);
+        } finally {
+            in.close();
+        }
+        return data;
+    }
 }
@@ -0,0 +1,98 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResolveCacheTest {
+    long time;
+    ResolveCache cache;
+
+    @Before
+    public void before() {
+        cache = new ResolveCache(2, 1000, 1000, 4000) {
+            @Override long now() {
+                return time;
+            }
+        };
+    }
+
+    @Test
+    public void shouldCacheIdsUntilTheyExpire() throws Exception {
+        cache.put("http://soundcloud.com/bob", 1234);
+        assertThat(cache.get("http://soundcloud.com/bob"), equalTo(1234L));
+
+        time = 1000;
+        assertThat(cache.get("http://soundcloud.com/bob"), nullValue());
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getHitCount(), is(1L));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        cache.put("a", 1);
+        cache.put("b", 2);
+        cache.get("a");
+        cache.put("c", 3);
+
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("a"), equalTo(1L));
+        assertThat(cache.get("c"), equalTo(3L));
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void shouldRememberUrlsNotFound() throws Exception {
+        cache.putNotFound("http://soundcloud.com/nonexisto");
+        assertTrue(cache.isNotFound("http://soundcloud.com/nonexisto"));
+        assertFalse(cache.isNotFound("http://soundcloud.com/bob"));
+
+        assertThat(cache.getNegativeHitCount(), is(1L));
+        assertThat(cache.getMissCount(), is(1L));
+        assertThat(cache.getHitRate(), equalTo(0.5d));
+    }
+
+    @Test
+    public void shouldForgetUrlsNotFoundAfterNegativeTtl() throws Exception {
+        cache.putNotFound("http://soundcloud.com/nonexisto");
+        time = 3999;
+        assertTrue(cache.isNotFound("http://soundcloud.com/nonexisto"));
+        time = 4000;
+        assertFalse(cache.isNotFound("http://soundcloud.com/nonexisto"));
+    }
+
+    @Test
+    public void shouldForgetEverythingAfterLongIdlePeriod() throws Exception {
+        cache.putNotFound("http://soundcloud.com/nonexisto");
+        time = 1000 * 1000;
+        assertFalse(cache.isNotFound("http://soundcloud.com/nonexisto"));
+    }
+
+    @Test
+    public void shouldHaveFewFalsePositives() throws Exception {
+        for (int i = 0; i < 1000; i++) {
+            cache.putNotFound("http://soundcloud.com/missing-" + i);
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (cache.isNotFound("http://soundcloud.com/user-" + i)) falsePositives++;
+        }
+        assertTrue("false positives: " + falsePositives, falsePositives < 100);
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(cache.isNotFound("http://soundcloud.com/missing-" + i));
+        }
+    }
+
+    @Test
+    public void shouldIgnoreUrlsNotFoundWithoutNegativeCaching() throws Exception {
+        cache = new ResolveCache(2, 1000);
+        cache.putNotFound("http://soundcloud.com/nonexisto");
+        assertFalse(cache.isNotFound("http://soundcloud.com/nonexisto"));
+    }
+}
@@ -0,0 +1,59 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertThat;
+
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Test;
+
+public class ResponseCacheTest {
+    @Test
+    public void shouldEvictLeastRecentlyUsedResponses() throws Exception {
+        ResponseCache cache = new ResponseCache(10);
+        cache.put("a", response(4));
+        cache.put("b", response(4));
+        assertNotNull(cache.get("a"));
+        cache.put("c", response(4));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertThat(cache.getBytes(), is(8L));
+        assertThat(cache.getEvictionCount(), is(1L));
+    }
+
+    @Test
+    public void shouldNotStoreResponsesLargerThanTheCache() throws Exception {
+        ResponseCache cache = new ResponseCache(10);
+        cache.put("a", response(11));
+        assertThat(cache.size(), is(0));
+        assertThat(cache.getBytes(), is(0L));
+    }
+
+    @Test
+    public void shouldReplaceExistingResponses() throws Exception {
+        ResponseCache cache = new ResponseCache(10);
+        cache.put("a", response(4));
+        cache.put("a", response(6));
+        assertThat(cache.size(), is(1));
+        assertThat(cache.getBytes(), is(6L));
+    }
+
+    @Test
+    public void shouldIncludeAuthorizationInKey() throws Exception {
+        HttpGet get1 = new HttpGet("/me");
+        get1.addHeader("Authorization", "OAuth token1");
+        HttpGet get2 = new HttpGet("/me");
+        get2.addHeader("Authorization", "OAuth token2");
+        assertThat(ResponseCache.key(get1), not(equalTo(ResponseCache.key(get2))));
+        assertThat(ResponseCache.key(get1).contains("token1"), is(false));
+    }
+
+    private static CachedResponse response(int size) {
+        return new CachedResponse("\"etag\"", "application/json", new byte[size]);
+    }
+}
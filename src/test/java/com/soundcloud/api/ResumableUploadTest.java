@@ -0,0 +1,324 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.soundcloud.api.fakehttp.FakeApiWrapper;
+import com.soundcloud.api.fakehttp.FakeHttpLayer;
+import com.soundcloud.api.fakehttp.HttpEntityStub;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class ResumableUploadTest {
+    private static final RetryPolicy NO_DELAY = RetryPolicy.DEFAULT.withBackoff(0, 0);
+
+    private final FakeHttpLayer layer = new FakeHttpLayer();
+    private final UploadServer server = new UploadServer();
+    private ApiWrapper api;
+    private File file, journal;
+    private byte[] data;
+
+    @Before
+    public void setup() throws Exception {
+        api = new FakeApiWrapper(layer);
+        layer.clearHttpResponseRules();
+        layer.addHttpResponseRule(server);
+
+        data = new byte[100000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i * 7);
+        file = File.createTempFile("track", ".wav");
+        file.deleteOnExit();
+        write(file, data);
+        journal = new File(file.getPath() + ".upload");
+        journal.deleteOnExit();
+    }
+
+    @Test
+    public void shouldUploadInChunks() throws Exception {
+        final List<Long> progress = new ArrayList<Long>();
+        HttpResponse response = upload()
+                .setProgressListener(new Request.TransferProgressListener() {
+                    @Override public void transferred(long amount) {
+                        progress.add(amount);
+                    }
+                })
+                .upload();
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(201));
+        assertThat(Http.getJSON(response).getLong("id"), equalTo(1234L));
+        assertTrue(Arrays.equals(server.received.toByteArray(), data));
+        assertThat(server.chunks, equalTo(4));
+        assertThat(server.params, containsString("track[title]=Rainy Day&upload[size]=100000&upload[file_name]=" + file.getName()));
+        assertThat(progress, equalTo(Arrays.asList(30000L, 60000L, 90000L, 100000L)));
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void shouldRetryFailedChunkFromConfirmedOffset() throws Exception {
+        // the second chunk breaks off after 10000 bytes, twice
+        server.dropAfter = 10000;
+        server.drops = 2;
+        server.dropChunk = 2;
+
+        HttpResponse response = upload().upload();
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(201));
+        assertTrue(Arrays.equals(server.received.toByteArray(), data));
+        assertThat(server.queries, equalTo(2));
+        assertThat(server.starts, equalTo(1));
+    }
+
+    @Test
+    public void shouldGiveUpAfterRetries() throws Exception {
+        server.dropAfter = 0;
+        server.drops = Integer.MAX_VALUE;
+        server.dropChunk = 1;
+
+        ResumableUpload upload = upload().setRetryPolicy(NO_DELAY.withMaxRetries(2));
+        try {
+            upload.upload();
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("connection reset"));
+        }
+        assertThat(server.chunks, equalTo(3));
+        assertTrue(journal.exists());
+    }
+
+    @Test
+    public void shouldNotLetWrapperRetryChunks() throws Exception {
+        api.setRetryPolicy(NO_DELAY.withMaxRetries(2));
+        server.dropAfter = 0;
+        server.drops = Integer.MAX_VALUE;
+        server.dropChunk = 1;
+
+        try {
+            upload().setRetryPolicy(NO_DELAY.withMaxRetries(2)).upload();
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertThat(e.getMessage(), equalTo("connection reset"));
+        }
+        assertThat(server.chunks, equalTo(3));
+        assertThat(server.queries, equalTo(2));
+    }
+
+    @Test
+    public void shouldUseGivenEndpoint() throws Exception {
+        layer.clearHttpResponseRules();
+        layer.addHttpResponseRule(new HttpEntityStub.ResponseRule() {
+            private HttpRequest mRequest;
+            @Override public boolean matches(HttpRequest request) {
+                mRequest = request;
+                return request.getRequestLine().getUri().startsWith("/uploads");
+            }
+            @Override public HttpResponse getResponse() throws HttpException, IOException {
+                // map onto the stand-in server
+                final String uri = mRequest.getRequestLine().getUri().replaceFirst("/uploads", "/tracks/uploads");
+                final BasicHttpEntityEnclosingRequest request = new BasicHttpEntityEnclosingRequest(
+                        mRequest.getRequestLine().getMethod(), uri);
+                if (mRequest instanceof HttpEntityEnclosingRequest) {
+                    request.setEntity(((HttpEntityEnclosingRequest) mRequest).getEntity());
+                }
+                assertTrue(server.matches(request));
+                return server.getResponse();
+            }
+        });
+
+        HttpResponse response = new ResumableUpload(api, Request.to(Endpoints.TRACKS), file, journal, "/uploads")
+                .setChunkSize(30000)
+                .upload();
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(201));
+        assertTrue(Arrays.equals(server.received.toByteArray(), data));
+    }
+
+    @Test
+    public void shouldResumeFromJournal() throws Exception {
+        server.rejectChunk = 3;
+        try {
+            upload().upload();
+            fail("expected ApiResponseException");
+        } catch (CloudAPI.ApiResponseException e) {
+            assertThat(e.getStatusCode(), equalTo(400));
+        }
+        assertTrue(journal.exists());
+        server.rejectChunk = 0;
+
+        // a new instance, as after a restart of the process
+        ResumableUpload upload = upload();
+        HttpResponse response = upload.upload();
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(201));
+        assertThat(upload.getUploadId(), equalTo("u1"));
+        assertThat(upload.getOffset(), equalTo(100000L));
+        assertTrue(Arrays.equals(server.received.toByteArray(), data));
+        assertThat(server.starts, equalTo(1));
+        assertThat(server.queries, equalTo(1));
+        assertFalse(journal.exists());
+    }
+
+    @Test
+    public void shouldStartOverIfFileChanged() throws Exception {
+        server.rejectChunk = 2;
+        try {
+            upload().upload();
+            fail("expected ApiResponseException");
+        } catch (CloudAPI.ApiResponseException ignored) {
+        }
+        server.rejectChunk = 0;
+
+        data = Arrays.copyOf(data, 50000);
+        write(file, data);
+
+        upload().upload();
+        assertThat(server.starts, equalTo(2));
+        assertThat(server.queries, equalTo(0));
+        assertTrue(Arrays.equals(server.received.toByteArray(), data));
+    }
+
+    @Test
+    public void shouldStartOverIfUploadExpired() throws Exception {
+        server.rejectChunk = 2;
+        try {
+            upload().upload();
+            fail("expected ApiResponseException");
+        } catch (CloudAPI.ApiResponseException ignored) {
+        }
+        server.rejectChunk = 0;
+        server.expire();
+
+        upload().upload();
+        assertThat(server.starts, equalTo(2));
+        assertThat(server.queries, equalTo(1));
+        assertTrue(Arrays.equals(server.received.toByteArray(), data));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldNotAcceptMultipartRequests() throws Exception {
+        new ResumableUpload(api, Request.to(Endpoints.TRACKS).withFile("foo", file), file, journal);
+    }
+
+    private ResumableUpload upload() {
+        return new ResumableUpload(api, Request.to(Endpoints.TRACKS).with(Params.Track.TITLE, "Rainy Day"),
+                file, journal)
+                .setChunkSize(30000)
+                .setRetryPolicy(NO_DELAY);
+    }
+
+    private static void write(File f, byte[] data) throws IOException {
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+        // make sure the modification is visible on file systems with a coarse timestamp
+        f.setLastModified(f.lastModified() + 2000);
+    }
+
+    /**
+     * Stand-in for the upload endpoints, keeping the received bytes in memory.
+     */
+    static class UploadServer implements HttpEntityStub.ResponseRule {
+        private static final Pattern OFFSET = Pattern.compile("[?&]offset=(\\d+)");
+
+        ByteArrayOutputStream received;
+        String id, params;
+        long size;
+        int starts, chunks, queries;
+
+        int dropChunk, drops, dropAfter;
+        int rejectChunk;
+
+        private HttpRequest mRequest;
+
+        @Override
+        public boolean matches(HttpRequest request) {
+            mRequest = request;
+            return request.getRequestLine().getUri().startsWith("/tracks/uploads");
+        }
+
+        void expire() {
+            id = null;
+        }
+
+        @Override
+        public HttpResponse getResponse() throws HttpException, IOException {
+            final String method = mRequest.getRequestLine().getMethod();
+            final String uri = mRequest.getRequestLine().getUri();
+            if (method.equals("GET")) queries++;
+
+            if (method.equals("POST")) {
+                starts++;
+                final ByteArrayOutputStream body = new ByteArrayOutputStream();
+                ((HttpEntityEnclosingRequest) mRequest).getEntity().writeTo(body);
+                params = URLDecoder.decode(body.toString("UTF-8"), "UTF-8");
+                final Matcher m = Pattern.compile("upload\\[size\\]=(\\d+)").matcher(params);
+                assertTrue(m.find());
+                size = Long.parseLong(m.group(1));
+                id = "u" + starts;
+                received = new ByteArrayOutputStream();
+                return status(201, "{\"id\": \"" + id + "\", \"offset\": 0}");
+
+            } else if (id == null || !uri.startsWith("/tracks/uploads/" + id)) {
+                return status(404, "{}");
+
+            } else if (method.equals("GET")) {
+                return status(200, "{\"id\": \"" + id + "\", \"offset\": " + received.size() + "}");
+
+            } else if (method.equals("PUT")) {
+                chunks++;
+                final Matcher m = OFFSET.matcher(uri);
+                assertTrue(m.find());
+                if (Long.parseLong(m.group(1)) != received.size()) return status(409, "{}");
+                if (chunks == rejectChunk) return status(400, "{}");
+
+                final ByteArrayOutputStream chunk = new ByteArrayOutputStream();
+                ((HttpEntityEnclosingRequest) mRequest).getEntity().writeTo(chunk);
+                final byte[] bytes = chunk.toByteArray();
+                if (chunks >= dropChunk && drops > 0) {
+                    drops--;
+                    received.write(bytes, 0, Math.min(dropAfter, bytes.length));
+                    throw new IOException("connection reset");
+                }
+                received.write(bytes, 0, bytes.length);
+                if (received.size() == size) {
+                    return status(201, "{\"id\": 1234, \"title\": \"Rainy Day\"}");
+                } else {
+                    return status(200, "{\"id\": \"" + id + "\", \"offset\": " + received.size() + "}");
+                }
+            } else {
+                return status(405, "{}");
+            }
+        }
+
+        private static HttpResponse status(int code, String body) throws IOException {
+            HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, code, "status " + code);
+            StringEntity entity = new StringEntity(body, "UTF-8");
+            entity.setContentType("application/json");
+            response.setEntity(entity);
+            return response;
+        }
+    }
+}
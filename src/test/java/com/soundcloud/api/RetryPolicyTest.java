@@ -0,0 +1,72 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.cookie.DateUtils;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.UnknownHostException;
+import java.util.Date;
+
+public class RetryPolicyTest {
+    @Test
+    public void shouldBackoffExponentiallyWithJitter() throws Exception {
+        RetryPolicy policy = RetryPolicy.DEFAULT.withBackoff(100, 1000);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(policy.backoff(1) <= 100);
+            assertTrue(policy.backoff(3) <= 400);
+            assertTrue(policy.backoff(10) <= 1000);
+            assertTrue(policy.backoff(100) <= 1000);
+            assertTrue(policy.backoff(100) >= 0);
+        }
+    }
+
+    @Test
+    public void shouldOnlyRetryIdempotentRequestsByDefault() throws Exception {
+        assertThat(RetryPolicy.DEFAULT.isRetryable(new HttpGet("/me")), is(true));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(new HttpPost("/tracks")), is(false));
+        assertThat(RetryPolicy.DEFAULT.withRetryNonIdempotent(true).isRetryable(new HttpPost("/tracks")), is(true));
+
+        HttpPost streaming = new HttpPost("/tracks");
+        streaming.setEntity(new InputStreamEntity(new ByteArrayInputStream(new byte[1]), 1));
+        assertThat(RetryPolicy.DEFAULT.withRetryNonIdempotent(true).isRetryable(streaming), is(false));
+    }
+
+    @Test
+    public void shouldRetryTemporaryFailures() throws Exception {
+        assertThat(RetryPolicy.DEFAULT.isRetryable(429), is(true));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(503), is(true));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(404), is(false));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(501), is(false));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(new IOException()), is(true));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(new InterruptedIOException()), is(true));
+        assertThat(RetryPolicy.DEFAULT.isRetryable(new UnknownHostException()), is(false));
+    }
+
+    @Test
+    public void shouldParseRetryAfter() throws Exception {
+        HttpResponse resp = new BasicHttpResponse(HttpVersion.HTTP_1_1, 503, "Service Unavailable");
+        assertThat(RetryPolicy.retryAfter(resp), is(-1L));
+
+        resp.setHeader("Retry-After", "120");
+        assertThat(RetryPolicy.retryAfter(resp), is(120000L));
+
+        resp.setHeader("Retry-After", DateUtils.formatDate(new Date(System.currentTimeMillis() + 60000)));
+        long delay = RetryPolicy.retryAfter(resp);
+        assertTrue(delay > 50000 && delay <= 60000);
+
+        resp.setHeader("Retry-After", "soon");
+        assertThat(RetryPolicy.retryAfter(resp), is(-1L));
+    }
+}
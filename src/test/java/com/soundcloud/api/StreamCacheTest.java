@@ -0,0 +1,223 @@
+package com.soundcloud.api;
+
+import static org.hamcrest.CoreMatchers.containsString;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.soundcloud.api.fakehttp.FakeApiWrapper;
+import com.soundcloud.api.fakehttp.FakeHttpLayer;
+import com.soundcloud.api.fakehttp.HttpEntityStub;
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class StreamCacheTest {
+    private static final String URL = "https://api.soundcloud.com/tracks/1/stream";
+
+    private final FakeHttpLayer layer = new FakeHttpLayer();
+    private final ResolveServer server = new ResolveServer();
+    private StreamCache cache;
+    private ApiWrapper api;
+
+    @Before
+    public void setup() throws Exception {
+        api = new FakeApiWrapper(layer);
+        layer.clearHttpResponseRules();
+        layer.addHttpResponseRule(server);
+    }
+
+    @After
+    public void teardown() {
+        if (cache != null) cache.shutdown();
+    }
+
+    @Test
+    public void shouldServeUnexpiredStreams() throws Exception {
+        cache = new StreamCache(10, 0);
+        Stream stream = stream(60 * 1000);
+        cache.put(URL, false, stream, null);
+
+        assertThat(cache.get(URL, false), sameInstance(stream));
+        assertThat(cache.get(URL, true), nullValue());
+        assertThat(cache.getHitCount(), equalTo(1L));
+        assertThat(cache.getMissCount(), equalTo(1L));
+        assertThat(cache.getHitRate(), equalTo(0.5d));
+    }
+
+    @Test
+    public void shouldNotServeExpiredStreams() throws Exception {
+        cache = new StreamCache(10, 0);
+        cache.put(URL, false, stream(-1), null);
+
+        assertThat(cache.get(URL, false), nullValue());
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsed() throws Exception {
+        cache = new StreamCache(2, 0);
+        cache.put("a", false, stream(60 * 1000), null);
+        cache.put("b", false, stream(60 * 1000), null);
+        cache.get("a", false);
+        cache.put("c", false, stream(60 * 1000), null);
+
+        assertThat(cache.size(), equalTo(2));
+        assertThat(cache.get("b", false), nullValue());
+        assertThat(cache.get("a", false), not(nullValue()));
+        assertThat(cache.getEvictionCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldRefreshUsedStreamsBeforeExpiry() throws Exception {
+        cache = new StreamCache(10, 60 * 1000);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        cache.put(URL, false, stream(60 * 1000 + 200), new Runnable() {
+            @Override public void run() {
+                refreshed.countDown();
+            }
+        });
+        cache.get(URL, false);
+
+        assertTrue(refreshed.await(5, TimeUnit.SECONDS));
+        assertThat(cache.getRefreshCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldNotRefreshUnusedStreams() throws Exception {
+        cache = new StreamCache(10, 60 * 1000);
+        final CountDownLatch refreshed = new CountDownLatch(1);
+        cache.put(URL, false, stream(60 * 1000 + 50), new Runnable() {
+            @Override public void run() {
+                refreshed.countDown();
+            }
+        });
+
+        assertTrue(!refreshed.await(300, TimeUnit.MILLISECONDS));
+        assertThat(cache.getRefreshCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldResolveStreamsOnlyOnce() throws Exception {
+        cache = new StreamCache(10, 0);
+        api.setStreamCache(cache);
+
+        Stream first = api.resolveStreamUrl(URL, true);
+        Stream second = api.resolveStreamUrl(URL, true);
+        assertThat(second, sameInstance(first));
+        assertThat(first.streamUrl, containsString("1.mp3?Expires="));
+        assertThat(server.requests.get(), equalTo(3));
+    }
+
+    @Test
+    public void shouldAlwaysResolveLoggedStreams() throws Exception {
+        cache = new StreamCache(10, 60 * 1000);
+        api.setStreamCache(cache);
+
+        api.resolveStreamUrl(URL, false);
+        api.resolveStreamUrl(URL, false);
+        assertThat(server.requests.get(), equalTo(6));
+        assertThat(server.signedUri, not(containsString("skip_logging")));
+        assertThat(cache.size(), equalTo(0));
+    }
+
+    @Test
+    public void shouldRefreshResolvedStreamsInBackground() throws Exception {
+        cache = new StreamCache(10, 60 * 1000);
+        api.setStreamCache(cache);
+        server.lifetime = 60 + 1;
+
+        Stream first = api.resolveStreamUrl(URL, true);
+        assertThat(api.resolveStreamUrl(URL, true), sameInstance(first));
+        server.lifetime = 3600;
+        server.signedUri = null;
+
+        final long timeout = System.currentTimeMillis() + 5000;
+        Stream refreshed = first;
+        while (refreshed == first && System.currentTimeMillis() < timeout) {
+            Thread.sleep(10);
+            refreshed = api.resolveStreamUrl(URL, true);
+        }
+        assertThat(refreshed, not(sameInstance(first)));
+        assertThat(server.requests.get(), equalTo(6));
+        assertThat(server.signedUri, containsString("skip_logging=1"));
+        assertThat(cache.getRefreshCount(), equalTo(1L));
+    }
+
+    private static Stream stream(long lifetime) {
+        return new Stream(URL, "http://media.soundcloud.com/1.mp3", "\"etag\"", 100, 0, 1000, 128,
+                System.currentTimeMillis() + lifetime);
+    }
+
+    /**
+     * Stand-in for the stream endpoint and the storage it redirects to.
+     */
+    static class ResolveServer implements HttpEntityStub.ResponseRule {
+        final AtomicInteger requests = new AtomicInteger();
+        /** lifetime in seconds of the signed stream urls */
+        volatile long lifetime = 3600;
+        volatile int metadataStatus = 200, signedStatus = 302;
+        /** whether the metadata request waits for the signed url to be requested */
+        volatile boolean awaitSigning;
+        volatile boolean signedFirst;
+        volatile String signedUri;
+        private final CountDownLatch mSigning = new CountDownLatch(1);
+        private final ThreadLocal<HttpRequest> mRequest = new ThreadLocal<HttpRequest>();
+
+        @Override
+        public boolean matches(HttpRequest request) {
+            mRequest.set(request);
+            return true;
+        }
+
+        @Override
+        public HttpResponse getResponse() throws HttpException, IOException {
+            requests.incrementAndGet();
+            final HttpRequest request = mRequest.get();
+            final String method = request.getRequestLine().getMethod();
+            final String uri = request.getRequestLine().getUri();
+
+            final HttpResponse response;
+            if (uri.contains("/tracks/1/stream") && method.equals("HEAD")) {
+                response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 302, "Found");
+                response.addHeader("Location", "http://media.soundcloud.com/1.mp3");
+            } else if (uri.contains("/tracks/1/stream")) {
+                signedUri = uri;
+                mSigning.countDown();
+                response = new BasicHttpResponse(HttpVersion.HTTP_1_1, signedStatus, "status " + signedStatus);
+                response.addHeader("Location",
+                        "http://media.soundcloud.com/1.mp3?Expires=" + (System.currentTimeMillis() / 1000 + lifetime));
+            } else if (method.equals("HEAD") && uri.contains("1.mp3")) {
+                if (awaitSigning) {
+                    try {
+                        signedFirst = mSigning.await(5, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted");
+                    }
+                }
+                response = new BasicHttpResponse(HttpVersion.HTTP_1_1, metadataStatus, "status " + metadataStatus);
+                response.addHeader("ETag", "\"etag\"");
+                response.addHeader("Content-Length", "303855");
+                response.addHeader("Last-Modified", "Tue, 25 Oct 2011 10:01:23 GMT");
+                response.addHeader(Stream.AMZ_BITRATE, "128");
+                response.addHeader(Stream.AMZ_DURATION, "18998");
+            } else {
+                response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 404, "Not Found");
+            }
+            return response;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.soundcloud.api.fakehttp;
+
+import com.soundcloud.api.ApiWrapper;
+import com.soundcloud.api.Token;
+import org.apache.http.ConnectionReuseStrategy;
+import org.apache.http.HttpException;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.AuthenticationHandler;
+import org.apache.http.client.HttpRequestRetryHandler;
+import org.apache.http.client.RedirectHandler;
+import org.apache.http.client.RequestDirector;
+import org.apache.http.client.UserTokenHandler;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.routing.HttpRoutePlanner;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpProcessor;
+import org.apache.http.protocol.HttpRequestExecutor;
+
+import java.io.IOException;
+import java.net.URI;
+
+/**
+ * An {@link ApiWrapper} which sends all requests to a {@link FakeHttpLayer} instead of the network.
+ */
+public class FakeApiWrapper extends ApiWrapper {
+    private static final long serialVersionUID = 12345; // silence warnings
+    private final transient FakeHttpLayer layer;
+
+    public FakeApiWrapper(FakeHttpLayer layer) {
+        this(layer, "id", "secret", new Token("access", "refresh"));
+    }
+
+    public FakeApiWrapper(FakeHttpLayer layer, String clientId, String clientSecret, Token token) {
+        super(clientId, clientSecret, URI.create("redirect://me"), token);
+        this.layer = layer;
+    }
+
+    @Override
+    protected RequestDirector getRequestDirector(HttpRequestExecutor requestExec,
+                                                 ClientConnectionManager conman,
+                                                 ConnectionReuseStrategy reustrat,
+                                                 ConnectionKeepAliveStrategy kastrat,
+                                                 HttpRoutePlanner rouplan,
+                                                 HttpProcessor httpProcessor,
+                                                 HttpRequestRetryHandler retryHandler,
+                                                 RedirectHandler redirectHandler,
+                                                 AuthenticationHandler targetAuthHandler,
+                                                 AuthenticationHandler proxyAuthHandler,
+                                                 UserTokenHandler stateHandler,
+                                                 HttpParams params) {
+        return new RequestDirector() {
+            @Override
+            public HttpResponse execute(HttpHost target, HttpRequest request, HttpContext context)
+                    throws HttpException, IOException {
+                return layer.emulateRequest(target, request, context, this);
+            }
+        };
+    }
+}
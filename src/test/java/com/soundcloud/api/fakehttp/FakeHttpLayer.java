@@ -11,12 +11,13 @@ import org.apache.http.protocol.HttpContext;
 import javax.xml.ws.http.HTTPException;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @SuppressWarnings({"UnusedDeclaration"})
 public class FakeHttpLayer {
     List<HttpResponse> pendingHttpResponses = new ArrayList<HttpResponse>();
-    List<HttpRequestInfo> httpRequestInfos = new ArrayList<HttpRequestInfo>();
+    List<HttpRequestInfo> httpRequestInfos = Collections.synchronizedList(new ArrayList<HttpRequestInfo>());
     List<HttpEntityStub.ResponseRule> httpResponseRules = new ArrayList<HttpEntityStub.ResponseRule>();
     HttpResponse defaultHttpResponse;
     private HttpResponse defaultResponse;
@@ -17,7 +17,7 @@ public class FakeHttpResponse extends HttpResponseStub {
     private String responseBody;
     private Header contentType;
     private TestStatusLine statusLine = new TestStatusLine();
-    private TestHttpEntity httpEntity = new TestHttpEntity();
+    private HttpEntity httpEntity = new TestHttpEntity();
 
     public FakeHttpResponse(int statusCode, String responseBody) {
         this.statusCode = statusCode;
@@ -37,6 +37,10 @@ public class FakeHttpResponse extends HttpResponseStub {
         return httpEntity;
     }
 
+    @Override public void setEntity(HttpEntity httpEntity) {
+        this.httpEntity = httpEntity;
+    }
+
     public class TestHttpEntity extends HttpEntityStub {
         @Override public long getContentLength() {
             return responseBody.length();